@@ -78,6 +78,12 @@ public class Config {
     private boolean restServerEnabled = true;
     private List<String> adminIds = new ArrayList<>();
     private boolean useAutoBlacklist = false;
+    private int hibernationIdleMinutes = 30;
+    private boolean hibernateToDisk = false;
+    private int trackPrefetchSeconds = 5;
+    private boolean trackCachePersistent = false;
+    private int musicJournalIntervalSeconds = 30;
+    private boolean userCountEstimated = false;
 
     //testing related stuff
     private String testBotToken;
@@ -128,6 +134,12 @@ public class Config {
                 adminIds.add(admins + "");
             }
             useAutoBlacklist = (boolean) config.getOrDefault("useAutoBlacklist", useAutoBlacklist);
+            hibernationIdleMinutes = (int) config.getOrDefault("hibernationIdleMinutes", hibernationIdleMinutes);
+            hibernateToDisk = (boolean) config.getOrDefault("hibernateToDisk", hibernateToDisk);
+            trackPrefetchSeconds = (int) config.getOrDefault("trackPrefetchSeconds", trackPrefetchSeconds);
+            trackCachePersistent = (boolean) config.getOrDefault("trackCachePersistent", trackCachePersistent);
+            musicJournalIntervalSeconds = (int) config.getOrDefault("musicJournalIntervalSeconds", musicJournalIntervalSeconds);
+            userCountEstimated = (boolean) config.getOrDefault("userCountEstimated", userCountEstimated);
 
             log.info("Using prefix: " + prefix);
 
@@ -352,6 +364,30 @@ public class Config {
         return useAutoBlacklist;
     }
 
+    public int getHibernationIdleMinutes() {
+        return hibernationIdleMinutes;
+    }
+
+    public boolean isHibernateToDisk() {
+        return hibernateToDisk;
+    }
+
+    public int getTrackPrefetchSeconds() {
+        return trackPrefetchSeconds;
+    }
+
+    public boolean isTrackCachePersistent() {
+        return trackCachePersistent;
+    }
+
+    public int getMusicJournalIntervalSeconds() {
+        return musicJournalIntervalSeconds;
+    }
+
+    public boolean isUserCountEstimated() {
+        return userCountEstimated;
+    }
+
     public String getTestBotToken() {
         return testBotToken;
     }
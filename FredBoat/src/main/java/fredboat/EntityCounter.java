@@ -0,0 +1,267 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat;
+
+import fredboat.util.HyperLogLog;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.impl.JDAImpl;
+import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.core.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.core.hooks.ListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts the guilds and unique users of all shards as they come and go, so reading the counts is free.
+ * <p>
+ * Unique users are counted exactly by keeping the number of guilds each user shares with us, and which members were
+ * counted for each guild, so a guild that becomes ready again after an outage can be reconciled with its current
+ * members. For very large bots these maps can be traded for a HyperLogLog estimate, which can't forget users, so it is
+ * rebuilt from the shards once an hour.
+ */
+public class EntityCounter extends ListenerAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityCounter.class);
+
+    private static final long ESTIMATE_REBUILD_MILLIS = 60 * 60 * 1000;
+
+    private static final EntityCounter instance = new EntityCounter(Config.CONFIG != null && Config.CONFIG.isUserCountEstimated());
+
+    private final boolean estimated;
+    private final LongOpenHashSet guilds = new LongOpenHashSet();
+    //user id -> number of counted guilds they are a member of, only used when counting exactly
+    private final Long2IntOpenHashMap userGuildCounts = new Long2IntOpenHashMap();
+    //guild id -> ids of the members counted for it, only used when counting exactly
+    private final Long2ObjectOpenHashMap<LongOpenHashSet> guildMembers = new Long2ObjectOpenHashMap<>();
+    //only used when estimating
+    private HyperLogLog userEstimate = new HyperLogLog();
+    private long estimateBuiltAt = System.currentTimeMillis();
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private volatile int guildCount = 0;
+    private volatile long userCount = 0;
+    //the estimate is only worked out when it is read
+    private boolean estimateChanged = false;
+
+    public static EntityCounter getInstance() {
+        return instance;
+    }
+
+    EntityCounter(boolean estimated) {
+        this.estimated = estimated;
+    }
+
+    public int getGuildCount() {
+        return guildCount;
+    }
+
+    public long getUniqueUserCount() {
+        if (estimated && System.currentTimeMillis() - estimateBuiltAt > ESTIMATE_REBUILD_MILLIS
+                && rebuilding.compareAndSet(false, true)) {
+            FredBoat.executor.submit(this::rebuildEstimate);
+        }
+        if (estimated) {
+            synchronized (this) {
+                if (estimateChanged) {
+                    userCount = userEstimate.estimate();
+                    estimateChanged = false;
+                }
+            }
+        }
+        return userCount;
+    }
+
+    public boolean isEstimated() {
+        return estimated;
+    }
+
+    @Override
+    public void onGuildReady(GuildReadyEvent event) {
+        addGuild(event.getGuild());
+    }
+
+    @Override
+    public void onGuildJoin(GuildJoinEvent event) {
+        addGuild(event.getGuild());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event) {
+        removeGuild(event.getGuild());
+    }
+
+    @Override
+    public void onGuildMemberJoin(GuildMemberJoinEvent event) {
+        synchronized (this) {
+            if (guilds.contains(event.getGuild().getIdLong())) {
+                addMember(event.getGuild().getIdLong(), event.getMember().getUser().getIdLong());
+                updateCounts();
+            }
+        }
+    }
+
+    @Override
+    public void onGuildMemberLeave(GuildMemberLeaveEvent event) {
+        synchronized (this) {
+            if (guilds.contains(event.getGuild().getIdLong())) {
+                removeMember(event.getGuild().getIdLong(), event.getMember().getUser().getIdLong());
+                updateCounts();
+            }
+        }
+    }
+
+    /**
+     * Forgets the guilds of a shard that is about to be shut down. They are counted again once it is ready.
+     */
+    public void removeShard(JDA jda) {
+        jda.getGuilds().forEach(this::removeGuild);
+    }
+
+    /**
+     * Counts a guild and its members. A guild that is still counted, because it comes back after an outage, is
+     * reconciled with its current members instead, as members may have joined or left while the shard was away.
+     */
+    synchronized void addGuild(Guild guild) {
+        long guildId = guild.getIdLong();
+        guilds.add(guildId);
+        if (estimated) {
+            //adding a user twice doesn't change the estimate, the ones that left go away with the next rebuild
+            for (Member member : guild.getMembers()) {
+                userEstimate.add(member.getUser().getIdLong());
+            }
+            updateCounts();
+            return;
+        }
+
+        LongOpenHashSet counted = guildMembers.get(guildId);
+        if (counted == null) {
+            counted = new LongOpenHashSet();
+            guildMembers.put(guildId, counted);
+        }
+        LongOpenHashSet current = new LongOpenHashSet(guild.getMembers().size());
+        for (Member member : guild.getMembers()) {
+            long userId = member.getUser().getIdLong();
+            current.add(userId);
+            if (counted.add(userId)) {
+                addUser(userId);
+            }
+        }
+        //members that left while we weren't looking
+        LongIterator it = counted.iterator();
+        while (it.hasNext()) {
+            long userId = it.nextLong();
+            if (!current.contains(userId)) {
+                it.remove();
+                removeUser(userId);
+            }
+        }
+        updateCounts();
+    }
+
+    synchronized void removeGuild(Guild guild) {
+        if (!guilds.remove(guild.getIdLong())) {
+            return;
+        }
+        //forget the members that were counted for the guild, its current ones may differ from those
+        LongOpenHashSet counted = guildMembers.remove(guild.getIdLong());
+        if (counted != null) {
+            LongIterator it = counted.iterator();
+            while (it.hasNext()) {
+                removeUser(it.nextLong());
+            }
+        }
+        updateCounts();
+    }
+
+    private void addMember(long guildId, long userId) {
+        if (estimated) {
+            userEstimate.add(userId);
+        } else if (guildMembers.get(guildId).add(userId)) {
+            addUser(userId);
+        }
+    }
+
+    private void removeMember(long guildId, long userId) {
+        if (!estimated && guildMembers.get(guildId).remove(userId)) {
+            removeUser(userId);
+        }
+    }
+
+    private void addUser(long userId) {
+        userGuildCounts.addTo(userId, 1);
+    }
+
+    private void removeUser(long userId) {
+        if (userGuildCounts.addTo(userId, -1) <= 1) {
+            userGuildCounts.remove(userId);
+        }
+    }
+
+    private void updateCounts() {
+        guildCount = guilds.size();
+        if (estimated) {
+            estimateChanged = true;
+        } else {
+            userCount = userGuildCounts.size();
+        }
+    }
+
+    private void rebuildEstimate() {
+        try {
+            HyperLogLog rebuilt = new HyperLogLog();
+            for (FredBoat shard : FredBoat.getShards()) {
+                //the user map is synchronized, so walking it is safe
+                ((JDAImpl) shard.getJda()).getUserMap().forEachValue(user -> {
+                    rebuilt.add(user.getIdLong());
+                    return true;
+                });
+            }
+
+            synchronized (this) {
+                userEstimate = rebuilt;
+                estimateBuiltAt = System.currentTimeMillis();
+                updateCounts();
+            }
+        } catch (Exception e) {
+            log.error("Failed to rebuild the unique user estimate", e);
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+}
@@ -37,7 +37,9 @@ import fredboat.api.OAuthManager;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.MusicPersistenceHandler;
 import fredboat.audio.PlayerRegistry;
+import fredboat.audio.queue.TrackResolutionCache;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.init.MainCommandInitializer;
 import fredboat.commandmeta.init.MusicCommandInitializer;
 import fredboat.db.DatabaseManager;
@@ -48,13 +50,13 @@ import fredboat.feature.I18n;
 import fredboat.shared.constant.DistributionEnum;
 import fredboat.util.JDAUtil;
 import fredboat.util.log.SimpleLogToSLF4JAdapter;
+import fredboat.util.ratelimit.Ratelimiter;
 import frederikam.jca.JCA;
 import frederikam.jca.JCABuilder;
 import net.dv8tion.jda.core.AccountType;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.JDAInfo;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.events.ReadyEvent;
 import net.dv8tion.jda.core.hooks.EventListener;
@@ -162,6 +164,10 @@ public abstract class FredBoat {
             dbManager.startup();
         }
 
+        //the prefixes need to be known before the first message comes in
+        if (dbManager != null) {
+            PrefixCache.warm();
+        }
 
         try {
             if (!Config.CONFIG.getOauthSecret().equals("")) {
@@ -326,12 +332,10 @@ public abstract class FredBoat {
         int ready = numShardsReady.get();
         if (ready == Config.CONFIG.getNumShards()) {
             log.info("All " + ready + " shards are ready.");
+        }
 
-            if (Config.CONFIG.getNumShards() <= 10) {
-                MusicPersistenceHandler.reloadPlaylists();
-            } else {
-                log.warn("Skipped music persistence loading! We are using more than 10 shards, so probably not a good idea to run that.");
-            }
+        if (readyEvent.getJDA().getAccountType() == AccountType.BOT) {
+            MusicPersistenceHandler.reloadPlaylists(readyEvent.getJDA());
         }
 
         //Rejoin old channels if revived
@@ -362,6 +366,10 @@ public abstract class FredBoat {
             log.error("Critical error while handling music persistence.", e);
         }
 
+        if (TrackResolutionCache.isPersistenceEnabled()) {
+            TrackResolutionCache.getInstance().saveToDisk();
+        }
+
         for(FredBoat fb : shards) {
             fb.getJda().shutdown(false);
         }
@@ -370,6 +378,12 @@ public abstract class FredBoat {
             Unirest.shutdown();
         } catch (IOException ignored) {}
 
+        try {
+            Ratelimiter.flushBlacklist();
+        } catch (Exception e) {
+            log.error("Failed to persist the blacklist", e);
+        }
+
         executor.shutdown();
         dbManager.shutdown();
     };
@@ -404,7 +418,7 @@ public abstract class FredBoat {
     }
 
     public static int countAllGuilds() {
-        return JDAUtil.countAllGuilds(shards);
+        return EntityCounter.getInstance().getGuildCount();
     }
 
     //this probably takes horribly long and should be solved in a different way
@@ -421,39 +435,8 @@ public abstract class FredBoat {
 //        return map;
 //    }
 
-    private static AtomicInteger biggestUserCount = new AtomicInteger(-1);
-
-    //IMPORTANT: do not use this for actually counting, it will not be accurate; it is meant to be used to initialize
-    // sets or maps that are about to hold all those user values
-    public static int getExpectedUserCount() {
-        if (biggestUserCount.get() <= 0) { //initialize
-            countAllUniqueUsers();
-        }
-        return biggestUserCount.get();
-    }
-
     public static long countAllUniqueUsers() {
-        return JDAUtil.countAllUniqueUsers(shards, biggestUserCount);
-    }
-
-    public static TextChannel getTextChannelById(String id) {
-        for (FredBoat fb : shards) {
-            for (TextChannel channel : fb.getJda().getTextChannels()) {
-                if(channel.getId().equals(id)) return channel;
-            }
-        }
-
-        return null;
-    }
-
-    public static VoiceChannel getVoiceChannelById(String id) {
-        for (FredBoat fb : shards) {
-            for (VoiceChannel channel : fb.getJda().getVoiceChannels()) {
-                if(channel.getId().equals(id)) return channel;
-            }
-        }
-
-        return null;
+        return EntityCounter.getInstance().getUniqueUserCount();
     }
 
     public static FredBoatClient getClient() {
@@ -466,10 +449,10 @@ public abstract class FredBoat {
         } else {
             int sId = jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId();
 
-            for(FredBoat fb : shards) {
-                if(((FredBoatBot) fb).getShardId() == sId) {
-                    return fb;
-                }
+            //shards are stored at the index of their id
+            FredBoat fb = sId < shards.size() ? shards.get(sId) : null;
+            if (fb != null && ((FredBoatBot) fb).getShardId() == sId) {
+                return fb;
             }
         }
 
@@ -499,7 +482,7 @@ public abstract class FredBoat {
     }
 
     public long getUserCount() {
-        return JDAUtil.countAllUniqueUsers(Collections.singletonList(this), biggestUserCount);
+        return JDAUtil.countUsers(this);
     }
 
     public abstract void revive();
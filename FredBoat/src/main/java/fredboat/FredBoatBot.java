@@ -66,6 +66,7 @@ public class FredBoatBot extends FredBoat {
                 JDABuilder builder = new JDABuilder(AccountType.BOT)
                         .addEventListener(new EventLogger("216689009110417408"))
                         .addEventListener(shardWatchdogListener)
+                        .addEventListener(EntityCounter.getInstance())
                         .setToken(Config.CONFIG.getBotToken())
                         .setBulkDeleteSplittingEnabled(true)
                         .setEnableShutdownHook(false);
@@ -107,8 +108,7 @@ public class FredBoatBot extends FredBoat {
         try {
             channelsToRejoin.clear();
 
-            PlayerRegistry.getPlayingPlayers().stream()
-                    .filter(guildPlayer -> guildPlayer.getJda().getShardInfo().getShardId() == shardId)
+            PlayerRegistry.getPlayingPlayers(shardId)
                     .forEach(guildPlayer -> {
                         VoiceChannel channel = guildPlayer.getChannel();
                         if (channel != null) channelsToRejoin.add(channel.getId());
@@ -119,6 +119,8 @@ public class FredBoatBot extends FredBoat {
         
         //remove listeners from decommissioned jda for good memory hygiene
         jda.removeEventListener(shardWatchdogListener);
+        jda.removeEventListener(EntityCounter.getInstance());
+        EntityCounter.getInstance().removeShard(jda);
         jda.removeEventListener(listener);
 
         jda.shutdown(false);
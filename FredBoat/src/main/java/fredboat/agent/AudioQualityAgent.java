@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.agent;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration.ResamplingQuality;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import fredboat.audio.AbstractPlayer;
+import fredboat.audio.AudioTelemetry;
+import fredboat.audio.GuildPlayer;
+import fredboat.audio.NodeBalancer;
+import fredboat.audio.PlayerRegistry;
+import fredboat.feature.togglz.FeatureFlags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * Watches the frame loss of all playing players and the cpu load, and trades audio quality for smooth playback when
+ * the bot is under pressure: the resampling quality is stepped down when frames are lost or the cpu is busy, and the
+ * frame buffers grow when frames get lost while the cpu is fine. Once there is headroom again for a while, both are
+ * stepped back towards their defaults.
+ * <p>
+ * Lavaplayer only offers these settings for the whole player manager, so they apply to all tracks started afterwards.
+ */
+public class AudioQualityAgent extends Thread {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioQualityAgent.class);
+
+    //the telemetry looks at a window of a minute, no point in looking more often
+    private static final int CHECK_INTERVAL_MILLIS = 60000;
+
+    private static final double LOSS_PRESSURE = 0.02;
+    private static final double LOSS_HEADROOM = 0.005;
+    private static final double CPU_PRESSURE = 0.85;
+    private static final double CPU_HEADROOM = 0.6;
+    private static final double STRUGGLING_PLAYER_LOSS = 0.05;
+    //this many checks in a row need to show headroom before quality is raised again
+    private static final int HEADROOM_CHECKS = 5;
+
+    private static final int FRAME_BUFFER_STEP = 1000;
+    private static final int MAX_FRAME_BUFFER_DURATION = 5000;
+
+    //the decisions and what they were based on, for the stats
+    private static volatile ResamplingQuality resamplingQuality = null;
+    private static volatile int frameBufferDuration = AbstractPlayer.DEFAULT_FRAME_BUFFER_DURATION;
+    private static volatile double lossRate = 0;
+    private static volatile double cpuLoad = 0;
+    private static volatile int strugglingPlayers = 0;
+    private static volatile int downgrades = 0;
+    private static volatile int upgrades = 0;
+    private static volatile String lastDecision = "none";
+
+    private int headroomStreak = 0;
+
+    public AudioQualityAgent() {
+        super("audio-quality");
+        setDaemon(true);
+        setPriority(4);
+    }
+
+    @Override
+    public void run() {
+        log.info("Started audio-quality");
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(CHECK_INTERVAL_MILLIS);
+                check();
+            } catch (Exception e) {
+                log.error("Caught an exception while adjusting the audio quality!", e);
+            }
+        }
+    }
+
+    private void check() {
+        AudioPlayerManager manager = AbstractPlayer.getPlayerManager();
+        ResamplingQuality defaultQuality = AbstractPlayer.getDefaultResamplingQuality();
+        ResamplingQuality quality = manager.getConfiguration().getResamplingQuality();
+        int bufferDuration = frameBufferDuration;
+
+        if (!FeatureFlags.ADAPTIVE_AUDIO_QUALITY.isActive()) {
+            if (quality != defaultQuality || bufferDuration != AbstractPlayer.DEFAULT_FRAME_BUFFER_DURATION) {
+                apply(manager, defaultQuality, AbstractPlayer.DEFAULT_FRAME_BUFFER_DURATION, "disabled, reset to defaults");
+            }
+            resamplingQuality = defaultQuality;
+            return;
+        }
+
+        long lost = 0;
+        long total = 0;
+        int struggling = 0;
+        for (GuildPlayer player : PlayerRegistry.getPlayingPlayers()) {
+            AudioTelemetry telemetry = player.getTelemetry();
+            long playerLost = telemetry.getWindowLoss();
+            long playerTotal = playerLost + telemetry.getWindowSuccess();
+            if (playerTotal == 0) continue;
+
+            lost += playerLost;
+            total += playerTotal;
+            if ((double) playerLost / playerTotal > STRUGGLING_PLAYER_LOSS) {
+                struggling++;
+            }
+        }
+
+        double loss = total > 0 ? (double) lost / total : 0;
+        double cpu = getCpuLoad();
+        lossRate = loss;
+        cpuLoad = cpu;
+        strugglingPlayers = struggling;
+        resamplingQuality = quality;
+
+        boolean cpuPressure = cpu > CPU_PRESSURE;
+        boolean lossPressure = loss > LOSS_PRESSURE;
+
+        if (cpuPressure || lossPressure) {
+            headroomStreak = 0;
+            ResamplingQuality newQuality = quality.ordinal() < ResamplingQuality.LOW.ordinal()
+                    ? ResamplingQuality.values()[quality.ordinal() + 1] : quality;
+            //frames getting lost while the cpu is fine points at slow sources, more buffering helps with those
+            int newBuffer = lossPressure && !cpuPressure
+                    ? Math.min(bufferDuration + FRAME_BUFFER_STEP, MAX_FRAME_BUFFER_DURATION) : bufferDuration;
+
+            if (newQuality != quality || newBuffer != bufferDuration) {
+                downgrades++;
+                apply(manager, newQuality, newBuffer, String.format("under pressure, loss %.2f%%, cpu %.0f%%", loss * 100, cpu * 100));
+            }
+        } else if (loss < LOSS_HEADROOM && cpu < CPU_HEADROOM) {
+            if (++headroomStreak < HEADROOM_CHECKS) return;
+            headroomStreak = 0;
+
+            if (quality.ordinal() > defaultQuality.ordinal()) {
+                upgrades++;
+                apply(manager, ResamplingQuality.values()[quality.ordinal() - 1], bufferDuration, "headroom, raising quality");
+            } else if (bufferDuration > AbstractPlayer.DEFAULT_FRAME_BUFFER_DURATION) {
+                upgrades++;
+                apply(manager, quality, bufferDuration - FRAME_BUFFER_STEP, "headroom, shrinking frame buffers");
+            }
+        } else {
+            headroomStreak = 0;
+        }
+    }
+
+    private void apply(AudioPlayerManager manager, ResamplingQuality quality, int bufferDuration, String reason) {
+        manager.getConfiguration().setResamplingQuality(quality);
+        manager.setFrameBufferDuration(bufferDuration);
+        //with remote nodes the tracks are played through the managers of the balancer
+        NodeBalancer balancer = NodeBalancer.getInstance();
+        if (balancer != null) {
+            for (NodeBalancer.Node node : balancer.getNodes()) {
+                node.getManager().getConfiguration().setResamplingQuality(quality);
+                node.getManager().setFrameBufferDuration(bufferDuration);
+            }
+        }
+        resamplingQuality = quality;
+        frameBufferDuration = bufferDuration;
+        lastDecision = reason + " -> " + quality + ", " + bufferDuration + "ms buffer";
+        log.info("Audio quality " + lastDecision);
+    }
+
+    private static double getCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) return load;
+        }
+        return Math.max(0, os.getSystemLoadAverage() / os.getAvailableProcessors());
+    }
+
+    /**
+     * @return the resampling quality currently in use, or null if this agent hasn't run yet
+     */
+    public static ResamplingQuality getResamplingQuality() {
+        return resamplingQuality;
+    }
+
+    public static int getFrameBufferDuration() {
+        return frameBufferDuration;
+    }
+
+    public static double getLossRate() {
+        return lossRate;
+    }
+
+    public static double getCpuLoadSample() {
+        return cpuLoad;
+    }
+
+    public static int getStrugglingPlayers() {
+        return strugglingPlayers;
+    }
+
+    public static int getDowngrades() {
+        return downgrades;
+    }
+
+    public static int getUpgrades() {
+        return upgrades;
+    }
+
+    public static String getLastDecision() {
+        return lastDecision;
+    }
+
+}
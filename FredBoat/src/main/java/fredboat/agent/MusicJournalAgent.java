@@ -23,58 +23,42 @@
  *
  */
 
-package fredboat.audio;
 
-public class AudioLossCounter {
+package fredboat.agent;
 
-    public static final int EXPECTED_PACKET_COUNT_PER_MIN = (60 * 1000) / 20; // 20ms packets
+import fredboat.audio.MusicJournal;
+import fredboat.audio.PlayerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-    private long curMinute = 0;
-    private int curLoss = 0;
-    private int curSucc = 0;
-
-    private int lastLoss = 0;
-    private int lastSucc = 0;
-
-    AudioLossCounter() {
-    }
-
-    void onLoss() {
-        checkTime();
-        curLoss++;
-    }
+/**
+ * Periodically writes the players that changed to the {@link MusicJournal}, so they survive a crash
+ */
+public class MusicJournalAgent extends Thread {
 
-    void onSuccess() {
-        checkTime();
-        curSucc++;
-    }
+    private static final Logger log = LoggerFactory.getLogger(MusicJournalAgent.class);
 
-    public int getLastMinuteLoss() {
-        return lastLoss;
-    }
+    private final long intervalMillis;
 
-    public int getLastMinuteSuccess() {
-        return lastSucc;
+    public MusicJournalAgent(int intervalSeconds) {
+        super("music-journal");
+        this.intervalMillis = intervalSeconds * 1000L;
+        setDaemon(true);
+        setPriority(4);
     }
 
-    private void checkTime() {
-        long actualMinute = System.currentTimeMillis() / 60000;
-
-        if(curMinute != actualMinute) {
-            lastLoss = curLoss;
-            lastSucc = curSucc;
-            curLoss = 0;
-            curSucc = 0;
-            curMinute = actualMinute;
+    @Override
+    public void run() {
+        log.info("Started music-journal");
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(intervalMillis);
+                MusicJournal.getInstance().checkpoint(PlayerRegistry.getPlayers());
+            } catch (Exception e) {
+                log.error("Caught an exception while writing the music journal!", e);
+            }
         }
     }
 
-    @Override
-    public String toString() {
-        return "AudioLossCounter{" +
-                "lastLoss=" + lastLoss +
-                ", lastSucc=" + lastSucc +
-                ", total=" + (lastSucc + lastLoss) +
-                '}';
-    }
 }
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.agent;
+
+import fredboat.audio.NodeBalancer;
+import fredboat.audio.PlayerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically moves players off lavaplayer nodes that are draining or losing frames, see
+ * {@link NodeBalancer#rebalance(java.util.Collection)}
+ */
+public class NodeBalancerAgent extends Thread {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeBalancerAgent.class);
+    //the loss rates are taken from the telemetry window of a minute, checking a bit more often catches trouble early
+    private static final int CHECK_INTERVAL_MILLIS = 30000;
+
+    private final NodeBalancer balancer;
+
+    public NodeBalancerAgent(NodeBalancer balancer) {
+        super("node-balancer");
+        this.balancer = balancer;
+        setDaemon(true);
+        setPriority(4);
+    }
+
+    @Override
+    public void run() {
+        log.info("Started node-balancer");
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(CHECK_INTERVAL_MILLIS);
+                int migrated = balancer.rebalance(PlayerRegistry.getPlayers());
+                if (migrated > 0) {
+                    log.info("Moved " + migrated + " players to other nodes");
+                }
+            } catch (Exception e) {
+                log.error("Caught an exception while balancing the nodes!", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.agent;
+
+import fredboat.audio.GuildPlayer;
+import fredboat.audio.PlayerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically hibernates players that have been idle for too long, see {@link PlayerRegistry#hibernate(long, long)}
+ */
+public class PlayerHibernationAgent extends Thread {
+
+    private static final Logger log = LoggerFactory.getLogger(PlayerHibernationAgent.class);
+    private static final int CHECK_INTERVAL_MILLIS = 60000;
+
+    private final long idleThresholdMillis;
+
+    public PlayerHibernationAgent(int idleMinutes) {
+        super("player-hibernation");
+        this.idleThresholdMillis = idleMinutes * 60000L;
+        setDaemon(true);
+        setPriority(4);
+    }
+
+    @Override
+    public void run() {
+        log.info("Started player-hibernation");
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(CHECK_INTERVAL_MILLIS);
+                hibernateIdlePlayers();
+            } catch (Exception e) {
+                log.error("Caught an exception while trying to hibernate idle players!", e);
+            }
+        }
+    }
+
+    private void hibernateIdlePlayers() {
+        int hibernated = 0;
+        for (GuildPlayer player : PlayerRegistry.getPlayers()) {
+            if (player.getIdleMillis() >= idleThresholdMillis
+                    && PlayerRegistry.hibernate(player.getGuildId(), idleThresholdMillis)) {
+                hibernated++;
+            }
+        }
+
+        if (hibernated > 0) {
+            log.info("Hibernated " + hibernated + " idle players, " + PlayerRegistry.getHibernatedCount() + " players are hibernating.");
+        }
+    }
+
+}
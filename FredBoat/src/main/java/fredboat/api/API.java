@@ -25,10 +25,18 @@
 
 package fredboat.api;
 
+import com.zaxxer.hikari.HikariPoolMXBean;
 import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.agent.AudioQualityAgent;
+import fredboat.audio.AudioTelemetry;
+import fredboat.audio.GuildPlayer;
+import fredboat.audio.NodeBalancer;
 import fredboat.audio.PlayerRegistry;
+import fredboat.audio.queue.LoadScheduler;
+import fredboat.audio.queue.TrackResolutionCache;
 import fredboat.db.entity.UConfig;
+import fredboat.metrics.Metrics;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -38,12 +46,17 @@ import spark.Spark;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class API {
 
     private static final Logger log = LoggerFactory.getLogger(API.class);
 
     private static final int PORT = 1356;
+    private static final int STATS_REFRESH_SECONDS = 10;
+
+    private static volatile String stats = "{}";
 
     private API() {}
 
@@ -58,40 +71,33 @@ public class API {
         Spark.port(PORT);
 
         Spark.before((request, response) -> {
-            log.info(request.requestMethod() + " " + request.pathInfo());
+            log.debug(request.requestMethod() + " " + request.pathInfo());
             response.header("Access-Control-Allow-Origin", "*");
             response.type("application/json");
         });
 
-        Spark.get("/stats", (req, res) -> {
-            res.type("application/json");
-
-            JSONObject root = new JSONObject();
-            JSONArray a = new JSONArray();
-
-            //make a copy to avoid concurrent modification errors
-            List<FredBoat> shards = new ArrayList<>(FredBoat.getShards());
-            for (FredBoat fb : shards) {
-                JSONObject fbStats = new JSONObject();
-                fbStats.put("id", fb.getShardInfo().getShardId())
-                        .put("guilds", fb.getGuildCount())
-                        .put("users", fb.getUserCount())
-                        .put("status", fb.getJda().getStatus());
-
-                a.put(fbStats);
+        registerMetrics();
+        //the stats are the same for everyone, so they are put together in the background instead of for every request
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-snapshot");
+            t.setDaemon(true);
+            return t;
+        }).scheduleWithFixedDelay(() -> {
+            try {
+                stats = buildStats().toString();
+            } catch (Exception e) {
+                log.error("Failed to refresh the stats", e);
             }
+        }, 0, STATS_REFRESH_SECONDS, TimeUnit.SECONDS);
 
-            JSONObject g = new JSONObject();
-            g.put("playingPlayers", PlayerRegistry.getPlayingPlayers().size())
-                    .put("totalPlayers", PlayerRegistry.getRegistry().size())
-                    .put("distribution", Config.CONFIG.getDistribution())
-                    .put("guilds", FredBoat.countAllGuilds())
-                    .put("users", FredBoat.countAllUniqueUsers());
-
-            root.put("shards", a);
-            root.put("global", g);
+        Spark.get("/stats", (req, res) -> {
+            res.type("application/json");
+            return stats;
+        });
 
-            return root;
+        Spark.get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.scrape();
         });
 
         Spark.post("/callback", (request, response) -> {
@@ -117,4 +123,159 @@ public class API {
         });
     }
 
+    private static JSONObject buildStats() {
+        JSONObject root = new JSONObject();
+        JSONArray a = new JSONArray();
+
+        //make a copy to avoid concurrent modification errors
+        List<FredBoat> shards = new ArrayList<>(FredBoat.getShards());
+        for (FredBoat fb : shards) {
+            JSONObject fbStats = new JSONObject();
+            fbStats.put("id", fb.getShardInfo().getShardId())
+                    .put("guilds", fb.getGuildCount())
+                    .put("users", fb.getUserCount())
+                    .put("status", fb.getJda().getStatus())
+                    .put("audioLossRate", getAudioLossRate(fb.getShardInfo().getShardId()));
+
+            a.put(fbStats);
+        }
+
+        JSONObject g = new JSONObject();
+        g.put("playingPlayers", PlayerRegistry.getPlayingCount())
+                .put("pausedPlayers", PlayerRegistry.getPausedCount())
+                .put("totalPlayers", PlayerRegistry.getPlayerCount())
+                .put("hibernatedPlayers", PlayerRegistry.getHibernatedCount())
+                .put("distribution", Config.CONFIG.getDistribution())
+                .put("guilds", FredBoat.countAllGuilds())
+                .put("users", FredBoat.countAllUniqueUsers());
+
+        JSONObject audio = new JSONObject();
+        audio.put("resamplingQuality", AudioQualityAgent.getResamplingQuality())
+                .put("frameBufferDuration", AudioQualityAgent.getFrameBufferDuration())
+                .put("lossRate", AudioQualityAgent.getLossRate())
+                .put("cpuLoad", AudioQualityAgent.getCpuLoadSample())
+                .put("strugglingPlayers", AudioQualityAgent.getStrugglingPlayers())
+                .put("downgrades", AudioQualityAgent.getDowngrades())
+                .put("upgrades", AudioQualityAgent.getUpgrades())
+                .put("lastDecision", AudioQualityAgent.getLastDecision());
+
+        root.put("shards", a);
+        root.put("global", g);
+        root.put("audioQuality", audio);
+
+        AudioTelemetry telemetry = AudioTelemetry.getGlobal();
+        JSONObject t = new JSONObject();
+        t.put("windowSeconds", AudioTelemetry.WINDOW_SECONDS)
+                .put("lossRate", telemetry.getLossRate())
+                .put("windowSuccess", telemetry.getWindowSuccess())
+                .put("windowLoss", telemetry.getWindowLoss())
+                .put("totalSuccess", telemetry.getTotalSuccess())
+                .put("totalLoss", telemetry.getTotalLoss())
+                .put("provideMicrosHistogram", telemetry.getProvideHistogram())
+                .put("gapMicrosHistogram", telemetry.getGapHistogram());
+        root.put("audioTelemetry", t);
+
+        TrackResolutionCache cache = TrackResolutionCache.getInstance();
+        JSONObject c = new JSONObject();
+        c.put("size", cache.size())
+                .put("hits", cache.getHits())
+                .put("misses", cache.getMisses())
+                .put("coalesced", cache.getCoalesced());
+        root.put("trackCache", c);
+
+        LoadScheduler loads = LoadScheduler.getInstance();
+        JSONObject l = new JSONObject();
+        l.put("queueDepth", loads.getQueueDepth())
+                .put("inFlight", loads.getInFlight())
+                .put("concurrencyLimit", loads.getConcurrencyLimit())
+                .put("averageWaitMillis", loads.getAverageWaitMillis())
+                .put("longestWaitMillis", loads.getLongestWaitMillis())
+                .put("averageLoadMillis", loads.getAverageLoadMillis())
+                .put("started", loads.getStarted());
+        root.put("loadScheduler", l);
+
+        NodeBalancer balancer = NodeBalancer.getInstance();
+        if (balancer != null) {
+            JSONArray nodes = new JSONArray();
+            for (NodeBalancer.Node node : balancer.getNodes()) {
+                NodeBalancer.NodeConnection connection = node.getConnection();
+                JSONObject n = new JSONObject();
+                n.put("index", node.getIndex())
+                        .put("state", connection.getState())
+                        .put("draining", node.isDraining())
+                        .put("playingTracks", connection.getPlayingTrackCount())
+                        .put("cpuUsage", connection.getCpuUsage())
+                        .put("assignedPlayers", node.getAssignedPlayers())
+                        .put("lossRate", node.getLossRate())
+                        .put("score", node.getScore())
+                        .put("decisions", node.getDecisions())
+                        .put("migrationsIn", node.getMigrationsIn())
+                        .put("migrationsOut", node.getMigrationsOut());
+                nodes.put(n);
+            }
+            root.put("nodes", nodes);
+        }
+
+        return root;
+    }
+
+    private static void registerMetrics() {
+        Metrics.gauge("fredboat_guilds", "Guilds on all shards", () -> FredBoat.countAllGuilds());
+        Metrics.gauge("fredboat_users", "Unique users on all shards", () -> FredBoat.countAllUniqueUsers());
+        Metrics.counterFunction("fredboat_shard_events_total", "Gateway events received, by shard", new String[]{"shard"},
+                sink -> {
+                    for (FredBoat fb : new ArrayList<>(FredBoat.getShards())) {
+                        sink.accept(fb.getShardWatchdogListener().getEventCount(), Integer.toString(fb.getShardInfo().getShardId()));
+                    }
+                });
+
+        Metrics.gauge("fredboat_players", "Guild players, by state", new String[]{"state"}, sink -> {
+            sink.accept(PlayerRegistry.getPlayingCount(), "playing");
+            sink.accept(PlayerRegistry.getPausedCount(), "paused");
+            sink.accept(PlayerRegistry.getHibernatedCount(), "hibernated");
+        });
+        Metrics.gauge("fredboat_players_registered", "Guild players held in memory", () -> PlayerRegistry.getPlayerCount());
+
+        Metrics.counterFunction("fredboat_audio_frames_total", "Audio frames, by whether they were provided in time",
+                new String[]{"result"}, sink -> {
+                    AudioTelemetry telemetry = AudioTelemetry.getGlobal();
+                    sink.accept(telemetry.getTotalSuccess(), "sent");
+                    sink.accept(telemetry.getTotalLoss(), "lost");
+                });
+        Metrics.gauge("fredboat_audio_loss_rate", "Share of audio frames lost over the last " + AudioTelemetry.WINDOW_SECONDS + " seconds",
+                () -> AudioTelemetry.getGlobal().getLossRate());
+
+        Metrics.gauge("fredboat_load_queue_depth", "Track loads waiting to be started", () -> LoadScheduler.getInstance().getQueueDepth());
+        Metrics.gauge("fredboat_load_in_flight", "Track loads currently running", () -> LoadScheduler.getInstance().getInFlight());
+        Metrics.gauge("fredboat_load_concurrency_limit", "Current limit of concurrent track loads", () -> LoadScheduler.getInstance().getConcurrencyLimit());
+        Metrics.counterFunction("fredboat_loads_started_total", "Track loads started", new String[0],
+                sink -> sink.accept(LoadScheduler.getInstance().getStarted()));
+        Metrics.counterFunction("fredboat_track_cache_requests_total", "Track resolution cache lookups, by result",
+                new String[]{"result"}, sink -> {
+                    TrackResolutionCache cache = TrackResolutionCache.getInstance();
+                    sink.accept(cache.getHits(), "hit");
+                    sink.accept(cache.getMisses(), "miss");
+                });
+
+        Metrics.gauge("fredboat_db_connections", "Database pool connections, by state", new String[]{"state"}, sink -> {
+            HikariPoolMXBean pool = FredBoat.getDbManager() != null ? FredBoat.getDbManager().getPoolStats() : null;
+            if (pool != null) {
+                sink.accept(pool.getActiveConnections(), "active");
+                sink.accept(pool.getIdleConnections(), "idle");
+                sink.accept(pool.getThreadsAwaitingConnection(), "waiting");
+            }
+        });
+    }
+
+    private static double getAudioLossRate(int shardId) {
+        long lost = 0;
+        long total = 0;
+        for (GuildPlayer player : PlayerRegistry.getPlayingPlayers(shardId)) {
+            long playerLost = player.getTelemetry().getWindowLoss();
+            lost += playerLost;
+            total += playerLost + player.getTelemetry().getWindowSuccess();
+        }
+        return total > 0 ? (double) lost / total : 0;
+    }
+
 }
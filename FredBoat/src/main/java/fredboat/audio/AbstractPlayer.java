@@ -44,8 +44,10 @@ import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
 import fredboat.Config;
 import fredboat.audio.queue.AudioTrackContext;
 import fredboat.audio.queue.ITrackProvider;
+import fredboat.audio.queue.LoadScheduler;
 import fredboat.audio.queue.SplitAudioTrackContext;
 import fredboat.audio.queue.TrackEndMarkerHandler;
+import fredboat.audio.source.PlaceholderAudioTrack;
 import fredboat.audio.source.PlaylistImportSourceManager;
 import fredboat.audio.source.SpotifyPlaylistSourceManager;
 import fredboat.shared.constant.DistributionEnum;
@@ -54,49 +56,98 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AbstractPlayer extends AudioEventAdapter implements AudioSendHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(AbstractPlayer.class);
 
+    public static final int DEFAULT_FRAME_BUFFER_DURATION = 1000;
+    //how often the send thread looks whether the upcoming track should be prefetched
+    private static final long PREFETCH_CHECK_INTERVAL_MILLIS = 1000;
+
+    //prefetching may decode tracks and create players on remote nodes, which the audio send threads can't wait for
+    private static final ExecutorService PREFETCHER = createPrefetcher();
+
     private static AudioPlayerManager playerManager;
-    private AudioPlayer player;
+    private static boolean usingRemoteNodes = false;
+    private volatile AudioPlayer player;
+    //the remote node the player plays on, null without remote nodes
+    private volatile NodeBalancer.Node node = null;
     ITrackProvider audioTrackProvider;
     private AudioFrame lastFrame = null;
-    private AudioTrackContext context;
-    private AudioLossCounter audioLossCounter = new AudioLossCounter();
+    private volatile AudioTrackContext context;
+    private final AudioTelemetry telemetry = new AudioTelemetry();
     private boolean splitTrackEnded = false;
 
+    //the state this player is currently accounted for in the PlayerRegistry counters
+    private boolean countedPlaying = false;
+    private boolean countedPaused = false;
+    private volatile boolean destroyed = false;
+    private volatile long lastActive = System.currentTimeMillis();
+    //set while the PlayerRegistry takes this player out to hibernate it, lookups that see it have to look again
+    private volatile boolean retiring = false;
+
+    //the next track is started paused in a second player shortly before the current one ends, see checkPrefetch()
+    private final Object prefetchLock = new Object();
+    private AudioPlayer prefetchPlayer = null;
+    private NodeBalancer.Node prefetchNode = null;
+    private AudioTrackContext prefetchedTrack = null;
+    private final AtomicBoolean prefetchScheduled = new AtomicBoolean(false);
+    //only touched by the audio send thread
+    private long lastPrefetchCheck = 0;
+
     @SuppressWarnings("LeakingThisInConstructor")
-    AbstractPlayer() {
+    AbstractPlayer(long guildId) {
         initAudioPlayerManager();
-        player = playerManager.createPlayer();
+        NodeBalancer balancer = NodeBalancer.getInstance();
+        if (balancer != null) {
+            node = balancer.select(guildId);
+        }
+        player = getPlaybackManager(node).createPlayer();
 
         player.addListener(this);
     }
 
+    private static ExecutorService createPrefetcher() {
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "track-prefetch-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
     private static void initAudioPlayerManager() {
         if (playerManager == null) {
             playerManager = new DefaultAudioPlayerManager();
             registerSourceManagers(playerManager);
 
-            //Patrons and development get higher quality
-            AudioConfiguration.ResamplingQuality quality = AudioConfiguration.ResamplingQuality.LOW;
-            if (Config.CONFIG.getDistribution() == DistributionEnum.PATRON || Config.CONFIG.getDistribution() == DistributionEnum.DEVELOPMENT)
-                quality = AudioConfiguration.ResamplingQuality.MEDIUM;
-
-            playerManager.getConfiguration().setResamplingQuality(quality);
+            playerManager.getConfiguration().setResamplingQuality(getDefaultResamplingQuality());
             playerManager.enableGcMonitoring();
-            playerManager.setFrameBufferDuration(1000);
+            playerManager.setFrameBufferDuration(DEFAULT_FRAME_BUFFER_DURATION);
 
             if (Config.CONFIG.getDistribution() != DistributionEnum.DEVELOPMENT && Config.CONFIG.isLavaplayerNodesEnabled()) {
-                playerManager.useRemoteNodes(Config.CONFIG.getLavaplayerNodes());
+                //tracks are still loaded through this manager, they are played through the managers of the balancer
+                NodeBalancer.init(Config.CONFIG.getLavaplayerNodes());
+                usingRemoteNodes = true;
             }
             
-            playerManager.setItemLoaderThreadPoolSize(500);
+            //loads go through the load scheduler, which caps how many of them run at once
+            playerManager.setItemLoaderThreadPoolSize(LoadScheduler.MAX_CONCURRENCY);
         }
     }
 
+    public static AudioConfiguration.ResamplingQuality getDefaultResamplingQuality() {
+        //Patrons and development get higher quality
+        if (Config.CONFIG.getDistribution() == DistributionEnum.PATRON || Config.CONFIG.getDistribution() == DistributionEnum.DEVELOPMENT)
+            return AudioConfiguration.ResamplingQuality.MEDIUM;
+        return AudioConfiguration.ResamplingQuality.LOW;
+    }
+
     public static AudioPlayerManager registerSourceManagers(AudioPlayerManager mng) {
         mng.registerSourceManager(new YoutubeAudioSourceManager());
         mng.registerSourceManager(new SoundCloudAudioSourceManager());
@@ -142,6 +193,7 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
     public void stop() {
         audioTrackProvider.clear();
         context = null;
+        discardPrefetch();
         player.stopTrack();
     }
 
@@ -197,8 +249,33 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
         return list;
     }
 
+    /**
+     * Returns the remaining tracks inclusively between the two indices, with the currently playing track being the
+     * first one, like in {@link #getRemainingTracksOrdered()}, but without copying the whole queue.
+     */
+    public List<AudioTrackContext> getTracksInRange(int startIndex, int endIndex) {
+        List<AudioTrackContext> list = new ArrayList<>();
+        if (getPlayingTrack() != null) {
+            if (startIndex == 0) {
+                list.add(getPlayingTrack());
+            }
+            startIndex = Math.max(0, startIndex - 1);
+            endIndex--;
+        }
+
+        if (endIndex >= startIndex) {
+            list.addAll(getAudioTrackProvider().getInRange(startIndex, endIndex));
+        }
+        return list;
+    }
+
     public void setVolume(float vol) {
         player.setVolume((int) (vol * 100));
+        synchronized (prefetchLock) {
+            if (prefetchPlayer != null) {
+                prefetchPlayer.setVolume((int) (vol * 100));
+            }
+        }
     }
 
     public float getVolume() {
@@ -218,6 +295,19 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
         return playerManager;
     }
 
+    /**
+     * @return the player manager that plays tracks on the given node, or our own one without remote nodes
+     */
+    private static AudioPlayerManager getPlaybackManager(NodeBalancer.Node node) {
+        return node != null ? node.getManager() : playerManager;
+    }
+
+    public abstract long getGuildId();
+
+    NodeBalancer.Node getNode() {
+        return node;
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
         if (endReason == AudioTrackEndReason.FINISHED) {
@@ -229,37 +319,276 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
         } else {
             log.warn("Track " + track.getIdentifier() + " ended with unexpected reason: " + endReason);
         }
+        updatePlayState();
+    }
+
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        updatePlayState();
+    }
+
+    @Override
+    public void onPlayerPause(AudioPlayer player) {
+        updatePlayState();
+    }
+
+    @Override
+    public void onPlayerResume(AudioPlayer player) {
+        updatePlayState();
+    }
+
+    /**
+     * Keeps the playing and paused counters of the PlayerRegistry in sync with the state of this player
+     */
+    private synchronized void updatePlayState() {
+        boolean playing = !destroyed && isPlaying();
+        boolean paused = !destroyed && isPaused();
+        if (playing != countedPlaying || paused != countedPaused) {
+            PlayerRegistry.onPlayStateChanged(countedPlaying, countedPaused, playing, paused);
+            countedPlaying = playing;
+            countedPaused = paused;
+            lastActive = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Marks this player as being in use right now
+     */
+    void touch() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    boolean isRetiring() {
+        return retiring;
+    }
+
+    void setRetiring(boolean retiring) {
+        this.retiring = retiring;
+    }
+
+    /**
+     * @return for how long this player hasn't been playing or otherwise used, 0 while playing
+     */
+    public long getIdleMillis() {
+        if (isPlaying()) return 0;
+        return System.currentTimeMillis() - lastActive;
+    }
+
+    /**
+     * @return the track currently loaded into the player, without providing a new one like {@link #getPlayingTrack()}
+     */
+    AudioTrackContext getLoadedTrack() {
+        return player.getPlayingTrack() != null ? context : null;
+    }
+
+    /**
+     * Loads the given track into the paused player at the given position, used for restoring a player's state
+     */
+    void loadPaused(AudioTrackContext atc, long position) {
+        player.setPaused(true);
+        startTrack(player, atc);
+        atc.setEffectivePosition(position);
     }
 
     private void play0(boolean skipped) {
+        if (destroyed) return;
+
         boolean userSkip = skipped;
         if (audioTrackProvider != null) {
             if (splitTrackEnded) {
                 userSkip = false;
                 splitTrackEnded = false;
             }
-            context = audioTrackProvider.provideAudioTrack(userSkip);
+            AudioTrackContext next = audioTrackProvider.provideAudioTrack(userSkip);
+
+            if (next == null) {
+                context = null;
+                discardPrefetch();
+            } else if (!takeOverPrefetch(next)) {
+                startTrack(player, next);
+            }
+        } else {
+            log.warn("TrackProvider doesn't exist");
+        }
+    }
 
-            if(context != null) {
-                player.playTrack(context.getTrack());
-                context.getTrack().setPosition(context.getStartPosition());
+    private void startTrack(AudioPlayer target, AudioTrackContext atc) {
+        if (target == player) {
+            context = atc;
+        }
+        //the remote nodes can't look up placeholders, so it has to be done here if the queue didn't get to it in time
+        if (usingRemoteNodes && atc.getTrack() instanceof PlaceholderAudioTrack) {
+            PlaceholderAudioTrack placeholder = (PlaceholderAudioTrack) atc.getTrack();
+            AudioTrack resolved = placeholder.awaitResolution();
+            if (resolved == null) {
+                log.warn("Skipping {}, it could not be resolved", placeholder.getInfo().title);
+                if (target == player) play0(false);
+                return;
+            }
+            atc.replacePlaceholder(placeholder, resolved);
+        }
+        target.playTrack(atc.getTrack());
+        atc.getTrack().setPosition(atc.getStartPosition());
 
-                if(context instanceof SplitAudioTrackContext){
-                    //Ensure we don't step over our bounds
-                    log.info("Start: " + context.getStartPosition() + "End: " + (context.getStartPosition() + context.getEffectiveDuration()));
+        if(atc instanceof SplitAudioTrackContext){
+            //Ensure we don't step over our bounds
+            log.info("Start: " + atc.getStartPosition() + "End: " + (atc.getStartPosition() + atc.getEffectiveDuration()));
 
-                    context.getTrack().setMarker(
-                            new TrackMarker(context.getStartPosition() + context.getEffectiveDuration(),
-                                    new TrackEndMarkerHandler(this, context)));
+            atc.getTrack().setMarker(
+                    new TrackMarker(atc.getStartPosition() + atc.getEffectiveDuration(),
+                            new TrackEndMarkerHandler(this, atc)));
+        }
+    }
+
+    /**
+     * Called on the audio send thread. Once the playing track is about to end, this has {@link #prefetch()} run on
+     * another thread every now and then.
+     */
+    private void checkPrefetch() {
+        long now = System.currentTimeMillis();
+        if (now - lastPrefetchCheck < PREFETCH_CHECK_INTERVAL_MILLIS) return;
+        lastPrefetchCheck = now;
+
+        long prefetchMillis = Config.CONFIG != null ? Config.CONFIG.getTrackPrefetchSeconds() * 1000L : 0;
+        if (prefetchMillis > 0 && isAboutToEnd(prefetchMillis) && prefetchScheduled.compareAndSet(false, true)) {
+            PREFETCHER.execute(() -> {
+                try {
+                    prefetch();
+                } catch (Exception e) {
+                    log.error("Failed to prefetch the next track of guild {}", getGuildId(), e);
+                } finally {
+                    prefetchScheduled.set(false);
                 }
+            });
+        }
+    }
+
+    private boolean isAboutToEnd(long prefetchMillis) {
+        AudioTrackContext current = context;
+        return current != null && !current.isStream() && audioTrackProvider != null && !destroyed
+                && current.getEffectiveDuration() - current.getEffectivePosition() <= prefetchMillis;
+    }
+
+    /**
+     * Starts buffering the upcoming track in a paused second player. If the upcoming track changes in the meantime,
+     * because the queue or the repeat mode changed, the prefetch is redone.
+     */
+    private void prefetch() {
+        long prefetchMillis = Config.CONFIG != null ? Config.CONFIG.getTrackPrefetchSeconds() * 1000L : 0;
+        if (prefetchMillis <= 0 || !isAboutToEnd(prefetchMillis)) return;
+
+        AudioTrackContext next = audioTrackProvider.getNext();
+        synchronized (prefetchLock) {
+            if (next == prefetchedTrack || destroyed) return;
+
+            discardPrefetch();
+            //placeholders are swapped for the real track once they are resolved, which must not happen under our hands
+            if (next == null || next.isStream() || next.getTrack() instanceof PlaceholderAudioTrack) return;
+
+            //every track is a chance to move to a better node
+            NodeBalancer balancer = NodeBalancer.getInstance();
+            prefetchNode = balancer != null ? balancer.select(getGuildId()) : null;
+            prefetchPlayer = getPlaybackManager(prefetchNode).createPlayer();
+            prefetchPlayer.setVolume(player.getVolume());
+            prefetchPlayer.setPaused(true);
+            prefetchedTrack = next;
+            startTrack(prefetchPlayer, next);
+        }
+    }
+
+    /**
+     * Hands playback over to the prefetch player, if it has been prefetching the given track
+     *
+     * @return true if the prefetched track is now playing
+     */
+    private boolean takeOverPrefetch(AudioTrackContext next) {
+        synchronized (prefetchLock) {
+            if (prefetchPlayer == null) return false;
+            if (prefetchedTrack != next) {
+                discardPrefetch();
+                return false;
             }
-        } else {
-            log.warn("TrackProvider doesn't exist");
+
+            AudioPlayer old = player;
+            boolean paused = old.isPaused();
+            old.removeListener(this);
+            prefetchPlayer.addListener(this);
+            context = next;
+            player = prefetchPlayer;
+            node = prefetchNode;
+            prefetchPlayer = null;
+            prefetchNode = null;
+            prefetchedTrack = null;
+
+            old.destroy();
+            player.setPaused(paused);
+        }
+        //the start event of the track has been fired before we were listening
+        updatePlayState();
+        return true;
+    }
+
+    private void discardPrefetch() {
+        synchronized (prefetchLock) {
+            if (prefetchPlayer == null) return;
+
+            //the track may be played later on, but lavaplayer can't start the same track object twice
+            prefetchedTrack.getTrack().setMarker(null);
+            prefetchPlayer.destroy();
+            prefetchedTrack.renewTrack();
+            prefetchPlayer = null;
+            prefetchNode = null;
+            prefetchedTrack = null;
         }
     }
 
+    /**
+     * Moves playback to a player on another node, the playing track continues where it is
+     *
+     * @return false if this player has been destroyed meanwhile
+     */
+    boolean migrate(NodeBalancer.Node target) {
+        synchronized (prefetchLock) {
+            if (destroyed) return false;
+            discardPrefetch();
+
+            AudioPlayer old = player;
+            AudioTrackContext atc = context;
+            AudioPlayer moved = target.getManager().createPlayer();
+            moved.setVolume(old.getVolume());
+            moved.setPaused(old.isPaused());
+
+            old.removeListener(this);
+            moved.addListener(this);
+            node = target;
+            if (old.getPlayingTrack() != null && atc != null) {
+                long position = atc.getEffectivePosition();
+                old.getPlayingTrack().setMarker(null);
+                //lavaplayer can't start the same track object twice
+                atc.renewTrack();
+                player = moved;
+                startTrack(moved, atc);
+                atc.setEffectivePosition(position);
+            } else {
+                player = moved;
+            }
+            old.destroy();
+        }
+        updatePlayState();
+        return true;
+    }
+
     void destroy() {
+        destroyed = true;
+        discardPrefetch();
         player.destroy();
+        //gives the compacted tracks back to the TrackArena, hibernated players have been stored by now
+        audioTrackProvider.clear();
+        updatePlayState();
     }
 
     @Override
@@ -269,19 +598,29 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
 
     @Override
     public boolean canProvide() {
-        lastFrame = player.provide();
+        checkPrefetch();
+
+        long start = System.nanoTime();
+        AudioPlayer polled = player;
+        //no frames while paused or not playing anything are not a loss
+        boolean expectingFrame = !polled.isPaused() && polled.getPlayingTrack() != null;
+        lastFrame = polled.provide();
+        if (lastFrame == null && player != polled) {
+            //the track ended during provide() and the prefetched one took over, it has its frames ready already
+            lastFrame = player.provide();
+        }
 
-        if(lastFrame == null) {
-            audioLossCounter.onLoss();
-            return false;
+        if (expectingFrame) {
+            telemetry.record(start, System.nanoTime() - start, lastFrame != null);
         } else {
-            audioLossCounter.onSuccess();
-            return true;
+            telemetry.recordIdle(start);
         }
+
+        return lastFrame != null;
     }
 
-    public AudioLossCounter getAudioLossCounter() {
-        return audioLossCounter;
+    public AudioTelemetry getTelemetry() {
+        return telemetry;
     }
 
     @Override
@@ -301,12 +640,12 @@ public abstract class AbstractPlayer extends AudioEventAdapter implements AudioS
     public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
         if(Config.CONFIG.getLavaplayerNodes().length > 0) {
             log.error("Lavaplayer encountered an exception during playback while playing " + track.getIdentifier(), exception);
-            log.error("Performance stats for errored track: " + audioLossCounter);
+            log.error("Performance stats for errored track: " + telemetry);
         }
     }
 
     @Override
     public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
-        log.error("Lavaplayer got stuck while playing " + track.getIdentifier() + "\nPerformance stats for stuck track: " + audioLossCounter);
+        log.error("Lavaplayer got stuck while playing " + track.getIdentifier() + "\nPerformance stats for stuck track: " + telemetry);
     }
 }
@@ -0,0 +1,307 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records how well audio frames are delivered to discord: the loss rate over a sliding window, how long
+ * player.provide() takes, and the gaps between consecutive canProvide() calls as a measure of jitter.
+ * <p>
+ * Every player has its own instance, which also feeds the process wide one returned by {@link #getGlobal()}. The
+ * process wide numbers are striped: each player feeds one of several instances that are summed up when read, so the
+ * audio threads of all players don't fight over the same counters.
+ * Histograms use power of two buckets of microseconds, so recording a frame is a couple of atomic increments.
+ */
+public class AudioTelemetry {
+
+    public static final int WINDOW_SECONDS = 60;
+    public static final long FRAME_MICROS = 20000; // 20ms frames
+    public static final int EXPECTED_FRAMES_PER_WINDOW = (int) (WINDOW_SECONDS * 1000000 / FRAME_MICROS);
+    //bucket 0 holds values below 1µs, bucket i values in [2^(i-1), 2^i) µs, the last one everything above
+    public static final int HISTOGRAM_BUCKETS = 24;
+    //gaps longer than this are pauses in sending, for example while not connected, not jitter
+    private static final long MAX_GAP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final AudioTelemetry[] STRIPES = createStripes(Runtime.getRuntime().availableProcessors() * 4);
+    private static final AudioTelemetry GLOBAL = new AudioTelemetry(null, STRIPES);
+
+    private final AudioTelemetry parent;
+    //the instances this one sums up, only set for the global one, which doesn't record anything itself
+    private final AudioTelemetry[] stripes;
+
+    //a slot is replaced as a whole once its second has passed, so no increment of the current second can get lost
+    private final AtomicReferenceArray<Slot> window = new AtomicReferenceArray<>(WINDOW_SECONDS);
+    private final AtomicLong totalSuccess = new AtomicLong();
+    private final AtomicLong totalLoss = new AtomicLong();
+    private final AtomicLongArray provideHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray gapHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    //only touched by the thread sending the audio of a player
+    private long lastCallNanos = 0;
+
+    AudioTelemetry() {
+        this(STRIPES[ThreadLocalRandom.current().nextInt(STRIPES.length)], null);
+    }
+
+    private AudioTelemetry(AudioTelemetry parent, AudioTelemetry[] stripes) {
+        this.parent = parent;
+        this.stripes = stripes;
+    }
+
+    private static AudioTelemetry[] createStripes(int count) {
+        AudioTelemetry[] stripes = new AudioTelemetry[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AudioTelemetry(null, null);
+        }
+        return stripes;
+    }
+
+    public static AudioTelemetry getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records one canProvide() call of a player
+     *
+     * @param startNanos   System.nanoTime() before calling provide()
+     * @param provideNanos time spent in provide()
+     * @param success      whether a frame was provided
+     */
+    void record(long startNanos, long provideNanos, boolean success) {
+        long gapNanos = lastCallNanos != 0 ? startNanos - lastCallNanos : -1;
+        lastCallNanos = startNanos;
+        record0(startNanos, provideNanos, gapNanos, success);
+        parent.record0(startNanos, provideNanos, gapNanos, success);
+    }
+
+    /**
+     * Records a canProvide() call of a player that isn't expected to provide a frame, because it is paused or not
+     * playing anything
+     */
+    void recordIdle(long startNanos) {
+        lastCallNanos = startNanos;
+    }
+
+    private void record0(long startNanos, long provideNanos, long gapNanos, boolean success) {
+        Slot slot = getSlot(TimeUnit.NANOSECONDS.toSeconds(startNanos));
+        if (success) {
+            Slot.SUCCESS.incrementAndGet(slot);
+            totalSuccess.incrementAndGet();
+        } else {
+            Slot.LOSS.incrementAndGet(slot);
+            totalLoss.incrementAndGet();
+        }
+
+        provideHistogram.incrementAndGet(bucketOf(provideNanos / 1000));
+        if (gapNanos >= 0 && gapNanos < MAX_GAP_NANOS) {
+            gapHistogram.incrementAndGet(bucketOf(gapNanos / 1000));
+        }
+    }
+
+    private Slot getSlot(long second) {
+        int i = (int) Math.floorMod(second, (long) WINDOW_SECONDS);
+        while (true) {
+            Slot slot = window.get(i);
+            if (slot != null && slot.second == second) {
+                return slot;
+            }
+            //first frame of a new second in this slot, forget what it held a window ago
+            Slot fresh = new Slot(second);
+            if (window.compareAndSet(i, slot, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * @return frames provided during the last {@link #WINDOW_SECONDS} seconds
+     */
+    public long getWindowSuccess() {
+        return sumWindow(true);
+    }
+
+    /**
+     * @return frames that could not be provided during the last {@link #WINDOW_SECONDS} seconds
+     */
+    public long getWindowLoss() {
+        return sumWindow(false);
+    }
+
+    /**
+     * @return share of lost frames during the last {@link #WINDOW_SECONDS} seconds, between 0 and 1
+     */
+    public double getLossRate() {
+        long loss = getWindowLoss();
+        long total = loss + getWindowSuccess();
+        return total > 0 ? (double) loss / total : 0;
+    }
+
+    public long getTotalSuccess() {
+        if (stripes != null) {
+            long sum = 0;
+            for (AudioTelemetry stripe : stripes) {
+                sum += stripe.getTotalSuccess();
+            }
+            return sum;
+        }
+        return totalSuccess.get();
+    }
+
+    public long getTotalLoss() {
+        if (stripes != null) {
+            long sum = 0;
+            for (AudioTelemetry stripe : stripes) {
+                sum += stripe.getTotalLoss();
+            }
+            return sum;
+        }
+        return totalLoss.get();
+    }
+
+    public long[] getProvideHistogram() {
+        if (stripes != null) {
+            long[] sum = new long[HISTOGRAM_BUCKETS];
+            for (AudioTelemetry stripe : stripes) {
+                addTo(sum, stripe.provideHistogram);
+            }
+            return sum;
+        }
+        return addTo(new long[HISTOGRAM_BUCKETS], provideHistogram);
+    }
+
+    public long[] getGapHistogram() {
+        if (stripes != null) {
+            long[] sum = new long[HISTOGRAM_BUCKETS];
+            for (AudioTelemetry stripe : stripes) {
+                addTo(sum, stripe.gapHistogram);
+            }
+            return sum;
+        }
+        return addTo(new long[HISTOGRAM_BUCKETS], gapHistogram);
+    }
+
+    /**
+     * @return upper bound in microseconds of the given percentile (0-100) of time spent in provide()
+     */
+    public long getProvidePercentile(double percentile) {
+        return percentile(getProvideHistogram(), percentile);
+    }
+
+    /**
+     * @return upper bound in microseconds of the given percentile (0-100) of gaps between canProvide() calls,
+     * ideally these are {@link #FRAME_MICROS}
+     */
+    public long getGapPercentile(double percentile) {
+        return percentile(getGapHistogram(), percentile);
+    }
+
+    private long sumWindow(boolean success) {
+        if (stripes != null) {
+            long sum = 0;
+            for (AudioTelemetry stripe : stripes) {
+                sum += stripe.sumWindow(success);
+            }
+            return sum;
+        }
+
+        long oldest = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()) - WINDOW_SECONDS + 1;
+        long sum = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            Slot slot = window.get(i);
+            if (slot != null && slot.second >= oldest) {
+                sum += success ? slot.success : slot.loss;
+            }
+        }
+        return sum;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros <= 0) return 0;
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return the exclusive upper bound in microseconds of the given histogram bucket
+     */
+    public static long bucketUpperBound(int bucket) {
+        return bucket == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) return 0;
+
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(counts.length - 1);
+    }
+
+    private static long[] addTo(long[] sum, AtomicLongArray array) {
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += array.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioTelemetry{" +
+                "windowLoss=" + getWindowLoss() +
+                ", windowSuccess=" + getWindowSuccess() +
+                ", provideP99=" + getProvidePercentile(99) + "µs" +
+                ", gapP99=" + getGapPercentile(99) + "µs" +
+                '}';
+    }
+
+    private static class Slot {
+        static final AtomicLongFieldUpdater<Slot> SUCCESS = AtomicLongFieldUpdater.newUpdater(Slot.class, "success");
+        static final AtomicLongFieldUpdater<Slot> LOSS = AtomicLongFieldUpdater.newUpdater(Slot.class, "loss");
+
+        final long second;
+        volatile long success = 0;
+        volatile long loss = 0;
+
+        Slot(long second) {
+            this.second = second;
+        }
+    }
+}
@@ -51,25 +51,27 @@ import org.slf4j.LoggerFactory;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GuildPlayer extends AbstractPlayer {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(GuildPlayer.class);
 
     private final FredBoat shard;
-    private final String guildId;
-    public final Map<String, VideoSelection> selections = new HashMap<>();
+    private final long guildId;
+    //written from the search threads, read by ;;select
+    public final Map<String, VideoSelection> selections = new ConcurrentHashMap<>();
     private String currentTCId;
 
     private final AudioLoader audioLoader;
 
     @SuppressWarnings("LeakingThisInConstructor")
     public GuildPlayer(Guild guild) {
+        super(guild.getIdLong());
         this.shard = FredBoat.getInstance(guild.getJDA());
-        this.guildId = guild.getId();
+        this.guildId = guild.getIdLong();
 
         AudioManager manager = guild.getAudioManager();
         manager.setSendingHandler(this);
@@ -104,12 +106,13 @@ public class GuildPlayer extends AbstractPlayer {
 
         manager.openAudioConnection(targetChannel);
 
-        manager.setConnectionListener(new DebugConnectionListener(guildId, shard.getShardInfo()));
+        manager.setConnectionListener(new DebugConnectionListener(Long.toString(guildId), shard.getShardInfo()));
 
         log.info("Connected to voice channel " + targetChannel);
     }
 
     public void leaveVoiceChannelRequest(TextChannel channel, boolean silent) {
+        audioLoader.cancelImports();
         AudioManager manager = getGuild().getAudioManager();
         if (!silent) {
             if (manager.getConnectedChannel() == null) {
@@ -158,37 +161,38 @@ public class GuildPlayer extends AbstractPlayer {
         play();
     }
 
+    @Override
+    public void stop() {
+        //a playlist import would otherwise keep refilling the queue
+        audioLoader.cancelImports();
+        super.stop();
+    }
+
+    @Override
+    void destroy() {
+        audioLoader.cancelImports();
+        super.destroy();
+    }
+
     public int getSongCount() {
-        return getRemainingTracks().size();
+        return audioTrackProvider.size() + (getPlayingTrack() != null ? 1 : 0);
     }
 
     public long getTotalRemainingMusicTimeSeconds() {
         //Live streams are considered to have a length of 0
-        long millis = 0;
-        for (AudioTrackContext atc : getQueuedTracks()) {
-            if (!atc.getTrack().getInfo().isStream) {
-                millis += atc.getEffectiveDuration();
-            }
-        }
+        long millis = audioTrackProvider.getTotalDuration();
 
         AudioTrackContext atc = getPlayingTrack();
-        if (atc != null && !atc.getTrack().getInfo().isStream) {
+        if (atc != null && !atc.isStream()) {
             millis += Math.max(0, atc.getEffectiveDuration() - atc.getEffectivePosition());
         }
 
         return millis / 1000;
     }
-    
-    public List<AudioTrack> getLiveTracks() {
-        ArrayList<AudioTrack> l = new ArrayList<>();
-        
-        for(AudioTrackContext atc : getRemainingTracks()){
-            if(atc.getTrack().getInfo().isStream){
-                l.add(atc.getTrack());
-            }
-        }
-        
-        return l;
+
+    public int getStreamCount() {
+        AudioTrackContext atc = getPlayingTrack();
+        return audioTrackProvider.getStreamCount() + (atc != null && atc.isStream() ? 1 : 0);
     }
 
     //may return null
@@ -242,6 +246,11 @@ public class GuildPlayer extends AbstractPlayer {
         return getJda().getGuildById(guildId);
     }
 
+    @Override
+    public long getGuildId() {
+        return guildId;
+    }
+
     public RepeatMode getRepeatMode() {
         if (audioTrackProvider instanceof AbstractTrackProvider)
             return ((AbstractTrackProvider) audioTrackProvider).getRepeatMode();
@@ -280,6 +289,17 @@ public class GuildPlayer extends AbstractPlayer {
         this.currentTCId = currentTC.getId();
     }
 
+    String getCurrentTCId() {
+        return currentTCId;
+    }
+
+    @Override
+    public long getIdleMillis() {
+        //a player that is still loading tracks is not idle
+        if (audioLoader.isLoading()) return 0;
+        return super.getIdleMillis();
+    }
+
     /**
      * @return currently used TextChannel or null if there is none
      */
@@ -293,21 +313,36 @@ public class GuildPlayer extends AbstractPlayer {
 
     //Success, fail message
     public Pair<Boolean, String> canMemberSkipTracks(TextChannel textChannel, Member member, List<AudioTrackContext> list) {
-        if (PermsUtil.checkPerms(PermissionLevel.DJ, member)) {
-            return new ImmutablePair<>(true, null);
-        } else {
-            //We are not a mod
-            int otherPeoplesTracks = 0;
-
-            for (AudioTrackContext atc : list) {
-                if(!atc.getMember().equals(member)) otherPeoplesTracks++;
+        long userId = member.getUser().getIdLong();
+        boolean ownsAll = true;
+        for (AudioTrackContext atc : list) {
+            if (atc.getUserId() != userId) {
+                ownsAll = false;
+                break;
             }
+        }
+        return canMemberSkipTracks(member, ownsAll);
+    }
 
-            if (otherPeoplesTracks > 0) {
-                return new ImmutablePair<>(false, I18n.get(getGuild()).getString("skipDeniedTooManyTracks"));
-            } else {
-                return new ImmutablePair<>(true, null);
-            }
+    /**
+     * Like {@link #canMemberSkipTracks(TextChannel, Member, List)} for the whole queue, including the playing track,
+     * without copying the queue.
+     */
+    //Success, fail message
+    public Pair<Boolean, String> canMemberSkipAllTracks(Member member) {
+        long userId = member.getUser().getIdLong();
+        AudioTrackContext playing = getPlayingTrack();
+        boolean ownsAll = audioTrackProvider.getTrackCount(userId) == audioTrackProvider.size()
+                && (playing == null || playing.getUserId() == userId);
+        return canMemberSkipTracks(member, ownsAll);
+    }
+
+    private Pair<Boolean, String> canMemberSkipTracks(Member member, boolean ownsAllTracks) {
+        if (ownsAllTracks || PermsUtil.checkPerms(PermissionLevel.DJ, member)) {
+            return new ImmutablePair<>(true, null);
+        } else {
+            //We are not a mod and there are other peoples tracks
+            return new ImmutablePair<>(false, I18n.get(getGuild()).getString("skipDeniedTooManyTracks"));
         }
     }
 
@@ -369,7 +404,7 @@ public class GuildPlayer extends AbstractPlayer {
     private boolean isTrackAnnounceEnabled() {
         boolean enabled = false;
         try {
-            GuildConfig config = EntityReader.getGuildConfig(guildId);
+            GuildConfig config = EntityReader.getGuildConfig(Long.toString(guildId));
             enabled = config.isTrackAnnounce();
         } catch (DatabaseNotReadyException ignored) {}
 
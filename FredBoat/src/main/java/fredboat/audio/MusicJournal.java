@@ -0,0 +1,411 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the state of the playing players in a single append-only file, so they can be brought back after a restart
+ * or a crash.
+ * <p>
+ * Every checkpoint appends a record for each player that changed since the last one, using the snapshot format of
+ * {@link PlayerHibernation}. A record looks like [magic][body length][crc32 of body][guild id][voice channel id][snapshot],
+ * a record without a voice channel marks the player as gone. Reading stops at the first record that is incomplete or
+ * fails its checksum, so a write that was torn by a crash only loses that last record. Once most of the file is made
+ * up of outdated records, it is rewritten with the latest record of each guild.
+ */
+public class MusicJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(MusicJournal.class);
+
+    private static final File FILE = new File("music_journal");
+    private static final File COMPACTION_FILE = new File("music_journal.compact");
+
+    private static final int MAGIC = 0x46424a31;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+    //the file is only compacted once it is this big and at least twice the size of the live records
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    //playing players are rewritten this often even if nothing else changed, to keep the saved position close
+    private static final long POSITION_REFRESH_MILLIS = 60000;
+
+    private static final MusicJournal instance = new MusicJournal();
+
+    //guild id -> latest record written for it
+    private final Long2ObjectOpenHashMap<Entry> entries = new Long2ObjectOpenHashMap<>();
+    private RandomAccessFile file = null;
+    private long liveBytes = 0;
+    //nothing is written before the previous journal has been read, or we would overwrite it
+    private boolean recovered = false;
+    //records of the previous run whose players haven't been restored yet, they are kept in the journal until then
+    private final Long2ObjectOpenHashMap<Record> carriedOver = new Long2ObjectOpenHashMap<>();
+
+    public static MusicJournal getInstance() {
+        return instance;
+    }
+
+    private MusicJournal() {
+    }
+
+    /**
+     * Reads the journal left behind by the previous run. It is only replaced once the first checkpoint has written
+     * the new journal, which starts out with the records read here.
+     *
+     * @return the latest record of every guild that was playing, by guild id
+     */
+    public synchronized Long2ObjectMap<Record> recover() {
+        Long2ObjectMap<Record> records = new Long2ObjectOpenHashMap<>();
+        if (recovered) {
+            return records;
+        }
+
+        if (FILE.exists()) {
+            try {
+                records = read(FILE);
+            } catch (IOException e) {
+                log.error("Failed to read the music journal", e);
+            }
+        }
+        recovered = true;
+        carriedOver.putAll(records);
+        return records;
+    }
+
+    /**
+     * Appends the players that changed since the last checkpoint, and marks the ones that stopped playing as gone.
+     * This does blocking disk IO and is not meant to be called from audio or event threads.
+     */
+    public synchronized void checkpoint(Collection<GuildPlayer> players) throws IOException {
+        if (!recovered) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (file == null) {
+            start(players, now);
+            return;
+        }
+
+        if (appendChanges(players, now)) {
+            file.getFD().sync();
+            if (file.length() > MIN_COMPACTION_SIZE && file.length() > liveBytes * 2) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Writes a new journal next to the current one, starting with the records carried over from the previous run,
+     * and swaps it in once it is complete. Until then the old journal stays in place.
+     */
+    private void start(Collection<GuildPlayer> players, long now) throws IOException {
+        entries.clear();
+        liveBytes = 0;
+
+        file = new RandomAccessFile(COMPACTION_FILE, "rw");
+        try {
+            file.setLength(0);
+            for (Record record : carriedOver.values()) {
+                append(record.guildId, record.voiceChannelId, record.snapshot, 0, now);
+            }
+            appendChanges(players, now);
+            file.getFD().sync();
+        } finally {
+            file.close();
+            file = null;
+        }
+
+        Files.move(COMPACTION_FILE.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        file = new RandomAccessFile(FILE, "rw");
+    }
+
+    /**
+     * @return true if anything was written
+     */
+    private boolean appendChanges(Collection<GuildPlayer> players, long now) throws IOException {
+        LongSet alive = new LongOpenHashSet();
+        boolean written = false;
+
+        for (GuildPlayer player : players) {
+            VoiceChannel vc = player.getChannel();
+            if (vc == null || player.getLoadedTrack() == null) {
+                continue;
+            }
+            long guildId = player.getGuildId();
+            alive.add(guildId);
+
+            long vcId = vc.getIdLong();
+            int stamp = stamp(player, vcId);
+            Entry entry = entries.get(guildId);
+            if (entry != null && entry.stamp == stamp
+                    && !(player.isPlaying() && now - entry.writtenAt > POSITION_REFRESH_MILLIS)) {
+                continue;
+            }
+
+            byte[] snapshot;
+            try {
+                snapshot = PlayerHibernation.hibernate(player);
+            } catch (Exception e) {
+                log.error("Failed to take a snapshot of the player in guild " + guildId, e);
+                continue;
+            }
+            append(guildId, vcId, snapshot, stamp, now);
+            written = true;
+        }
+
+        LongSet gone = new LongOpenHashSet(entries.keySet());
+        gone.removeAll(alive);
+        gone.removeAll(carriedOver.keySet());
+        for (long guildId : gone) {
+            append(guildId, 0, new byte[0], 0, now);
+            liveBytes -= entries.remove(guildId).length;
+            written = true;
+        }
+        return written;
+    }
+
+    /**
+     * Lets go of the record of a guild that was read by {@link #recover()}, once its player has been restored or
+     * won't be. Until then the record is kept in the journal even though there is no player for it.
+     */
+    public synchronized void settle(long guildId) {
+        carriedOver.remove(guildId);
+    }
+
+    /**
+     * Stops writing to the journal. Used after the final checkpoint on shutdown.
+     */
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        recovered = false;
+        carriedOver.clear();
+    }
+
+    private void append(long guildId, long vcId, byte[] snapshot, int stamp, long now) throws IOException {
+        byte[] record = encode(guildId, vcId, snapshot);
+        long offset = file.length();
+        file.seek(offset);
+        try {
+            file.write(record);
+        } catch (IOException e) {
+            //don't leave a partial record in the middle of the journal
+            file.setLength(offset);
+            throw e;
+        }
+
+        Entry old = entries.put(guildId, new Entry(offset, record.length, stamp, now));
+        liveBytes += record.length - (old != null ? old.length : 0);
+    }
+
+    /**
+     * Rewrites the journal with just the latest record of each guild, and swaps it in once it is complete
+     */
+    private void compact() throws IOException {
+        long before = file.length();
+        Long2ObjectOpenHashMap<Entry> moved = new Long2ObjectOpenHashMap<>();
+
+        try (RandomAccessFile out = new RandomAccessFile(COMPACTION_FILE, "rw")) {
+            out.setLength(0);
+            for (Long2ObjectMap.Entry<Entry> e : entries.long2ObjectEntrySet()) {
+                Entry entry = e.getValue();
+                byte[] record = new byte[entry.length];
+                file.seek(entry.offset);
+                file.readFully(record);
+
+                moved.put(e.getLongKey(), new Entry(out.getFilePointer(), entry.length, entry.stamp, entry.writtenAt));
+                out.write(record);
+            }
+            out.getFD().sync();
+        }
+
+        file.close();
+        file = null;
+        try {
+            Files.move(COMPACTION_FILE.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //our entries still point into the uncompacted journal, keep using it
+            file = new RandomAccessFile(FILE, "rw");
+            throw e;
+        }
+        file = new RandomAccessFile(FILE, "rw");
+
+        entries.clear();
+        entries.putAll(moved);
+        log.info("Compacted the music journal from " + before + " to " + file.length() + " bytes");
+    }
+
+    static byte[] encode(long guildId, long vcId, byte[] snapshot) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + snapshot.length);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeLong(guildId);
+        bodyOut.writeLong(vcId);
+        bodyOut.write(snapshot);
+        byte[] bodyBytes = body.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(HEADER_SIZE + bodyBytes.length);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(MAGIC);
+        out.writeInt(bodyBytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bodyBytes);
+        return record.toByteArray();
+    }
+
+    static Long2ObjectMap<Record> read(File journal) throws IOException {
+        Long2ObjectMap<Record> records = new Long2ObjectOpenHashMap<>();
+        long offset = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (magic != MAGIC || length < 16 || length > MAX_BODY_SIZE) {
+                        log.warn("Ignoring the music journal from offset " + offset + " on, the record header is corrupt");
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    log.warn("Ignoring the incomplete last record of the music journal at offset " + offset);
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Ignoring the music journal from offset " + offset + " on, the checksum does not match");
+                    break;
+                }
+
+                DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+                long guildId = bodyIn.readLong();
+                long vcId = bodyIn.readLong();
+                if (vcId == 0) {
+                    records.remove(guildId);
+                } else {
+                    byte[] snapshot = new byte[length - 16];
+                    bodyIn.readFully(snapshot);
+                    records.put(guildId, new Record(guildId, vcId, snapshot));
+                }
+                offset += HEADER_SIZE + length;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Changes whenever something that ends up in the snapshot changes, except for the position of the playing track
+     */
+    private static int stamp(GuildPlayer player, long vcId) {
+        return Objects.hash(player.getAudioTrackProvider().getModCount(),
+                System.identityHashCode(player.getLoadedTrack()),
+                player.isPaused(),
+                player.getVolume(),
+                player.getRepeatMode(),
+                player.isShuffle(),
+                player.getCurrentTCId(),
+                vcId);
+    }
+
+    public static class Record {
+        private final long guildId;
+        private final long voiceChannelId;
+        private final byte[] snapshot;
+
+        Record(long guildId, long voiceChannelId, byte[] snapshot) {
+            this.guildId = guildId;
+            this.voiceChannelId = voiceChannelId;
+            this.snapshot = snapshot;
+        }
+
+        public long getGuildId() {
+            return guildId;
+        }
+
+        public long getVoiceChannelId() {
+            return voiceChannelId;
+        }
+
+        byte[] getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    private static class Entry {
+        final long offset;
+        final int length;
+        final int stamp;
+        final long writtenAt;
+
+        Entry(long offset, int length, int stamp, long writtenAt) {
+            this.offset = offset;
+            this.length = length;
+            this.stamp = stamp;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+}
@@ -26,16 +26,18 @@
 package fredboat.audio;
 
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import fredboat.Config;
-import fredboat.FredBoat;
+import fredboat.ShardRouter;
 import fredboat.audio.queue.AudioTrackContext;
 import fredboat.audio.queue.RepeatMode;
 import fredboat.audio.queue.SplitAudioTrackContext;
 import fredboat.feature.I18n;
 import fredboat.shared.constant.DistributionEnum;
 import fredboat.shared.constant.ExitCodes;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
@@ -46,39 +48,54 @@ import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MusicPersistenceHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(MusicPersistenceHandler.class);
 
+    //restoring a player opens a voice connection, which is a gateway payload. shards may send 120 of those a minute
+    private static final long RESTORE_INTERVAL_MILLIS = 1000;
+    private static final int RESTORE_PROGRESS_INTERVAL = 50;
+
+    private static final ScheduledExecutorService restoreExecutor = Executors.newScheduledThreadPool(4, r -> {
+        Thread t = new Thread(r, "music-restore");
+        t.setDaemon(true);
+        return t;
+    });
+    //saved players by shard id, read once the first shard is ready
+    private static CompletableFuture<Int2ObjectMap<List<PendingRestore>>> pending = null;
+    private static volatile int restoreTotal = 0;
+    private static final AtomicInteger restored = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+
     private MusicPersistenceHandler() {
     }
 
     public static void handlePreShutdown(int code) {
-        File dir = new File("music_persistence");
-        if (!dir.exists()) {
-            dir.mkdir();
-        }
-        HashMap<String, GuildPlayer> reg = PlayerRegistry.getRegistry();
-
         boolean isUpdate = code == ExitCodes.EXIT_CODE_UPDATE;
         boolean isRestart = code == ExitCodes.EXIT_CODE_RESTART;
 
-        for (String gId : reg.keySet()) {
+        List<GuildPlayer> playing = new ArrayList<>();
+        for (GuildPlayer player : PlayerRegistry.getPlayers()) {
             try {
-                GuildPlayer player = reg.get(gId);
 
                 if (!player.isPlaying()) {
                     continue;//Nothing to see here
                 }
+                playing.add(player);
 
                 String msg;
 
@@ -91,169 +108,250 @@ public class MusicPersistenceHandler {
                 }
 
                 player.getActiveTextChannel().sendMessage(msg).queue();
+            } catch (Exception ex) {
+                log.error("Error when announcing the shutdown", ex);
+            }
+        }
 
-                JSONObject data = new JSONObject();
-                data.put("vc", player.getUserCurrentVoiceChannel(player.getGuild().getSelfMember()).getId());
-                data.put("tc", player.getActiveTextChannel().getId());
-                data.put("isPaused", player.isPaused());
-                data.put("volume", Float.toString(player.getVolume()));
-                data.put("repeatMode", player.getRepeatMode());
-                data.put("shuffle", player.isShuffle());
+        //the journal is up to date except for what changed since the last checkpoint
+        MusicJournal journal = MusicJournal.getInstance();
+        try {
+            journal.checkpoint(PlayerRegistry.getPlayers());
+            journal.close();
+        } catch (IOException ex) {
+            log.error("Error when saving the music journal", ex);
+            for (GuildPlayer player : playing) {
+                player.getActiveTextChannel().sendMessage(MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"), ex.getMessage())).queue();
+            }
+        }
+    }
 
-                if (player.getPlayingTrack() != null) {
-                    data.put("position", player.getPlayingTrack().getEffectivePosition());
-                }
+    /**
+     * Restores the players of the given shard that were saved by the previous run. The saved players are read the
+     * first time this is called, and each shard gets its players back as soon as it is ready. Calling this again for
+     * a shard that has been restored already does nothing.
+     */
+    public static synchronized void reloadPlaylists(JDA jda) {
+        if (pending == null) {
+            pending = CompletableFuture.supplyAsync(MusicPersistenceHandler::loadPending, restoreExecutor);
+        }
+
+        int shardId = jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId();
+        pending.thenAccept(byShard -> {
+            List<PendingRestore> restores;
+            synchronized (byShard) {
+                restores = byShard.remove(shardId);
+            }
+            if (restores == null) {
+                return;
+            }
 
-                ArrayList<JSONObject> identifiers = new ArrayList<>();
+            log.info("Restoring " + restores.size() + " players of shard " + shardId);
+            //each one opens a voice connection, spread them out to stay well below the gateway rate limit of the shard
+            for (int i = 0; i < restores.size(); i++) {
+                PendingRestore restore = restores.get(i);
+                restoreExecutor.schedule(() -> restore(jda, restore), i * RESTORE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }).exceptionally(t -> {
+            log.error("Failed to restore the players of shard " + shardId, t);
+            return null;
+        });
+    }
+
+    private static Int2ObjectMap<List<PendingRestore>> loadPending() {
+        File dir = new File("music_persistence");
+        Int2ObjectMap<List<PendingRestore>> byShard = new Int2ObjectOpenHashMap<>();
 
-                for (AudioTrackContext atc : player.getRemainingTracks()) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    AbstractPlayer.getPlayerManager().encodeTrack(new MessageOutput(baos), atc.getTrack());
+        if(Config.CONFIG.getDistribution() == DistributionEnum.MUSIC) {
+            log.warn("Music persistence loading is currently disabled!");
+            MusicJournal journal = MusicJournal.getInstance();
+            for (long guildId : journal.recover().keySet()) {
+                journal.settle(guildId);
+            }
+            deleteLegacyFiles(dir);
+            return byShard;
+        }
 
-                    JSONObject ident = new JSONObject()
-                            .put("message", Base64.encodeBase64String(baos.toByteArray()))
-                            .put("user", atc.getMember().getUser().getId());
+        log.info("Began reloading playlists");
+        List<PendingRestore> restores = new ArrayList<>();
+        for (MusicJournal.Record record : MusicJournal.getInstance().recover().values()) {
+            restores.add(new PendingRestore(record.getGuildId(), record, null));
+        }
 
-                    if(atc instanceof SplitAudioTrackContext) {
-                        JSONObject split = new JSONObject();
-                        SplitAudioTrackContext c = (SplitAudioTrackContext) atc;
-                        split.put("title", c.getEffectiveTitle())
-                                .put("startPos", c.getStartPosition())
-                                .put("endPos", c.getStartPosition() + c.getEffectiveDuration());
+        //left behind by versions that saved the players as json on shutdown
+        File[] files = dir.listFiles();
+        if (files != null) {
+            log.info("Found persistence data: " + Arrays.toString(files));
+            Arrays.stream(files).parallel()
+                    .map(MusicPersistenceHandler::readLegacyFile)
+                    .filter(Objects::nonNull)
+                    .forEachOrdered(restores::add);
+            deleteLegacyFiles(dir);
+        }
 
-                        ident.put("split", split);
-                    }
+        for (PendingRestore restore : restores) {
+            byShard.computeIfAbsent(ShardRouter.getShardId(restore.guildId), k -> new ArrayList<>()).add(restore);
+        }
+        restoreTotal = restores.size();
+        log.info("Found " + restoreTotal + " players to restore on " + byShard.size() + " shards");
+        return byShard;
+    }
 
-                    identifiers.add(ident);
-                }
+    private static PendingRestore readLegacyFile(File file) {
+        try {
+            JSONObject data = new JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")));
+            return new PendingRestore(Long.parseLong(file.getName()), null, data);
+        } catch (Exception ex) {
+            log.error("Error when reading persistence file " + file, ex);
+            return null;
+        }
+    }
 
-                data.put("sources", identifiers);
+    private static void deleteLegacyFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
 
-                try {
-                    FileUtils.writeStringToFile(new File(dir, gId), data.toString(), Charset.forName("UTF-8"));
-                } catch (IOException ex) {
-                    player.getActiveTextChannel().sendMessage(MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"), ex.getMessage())).queue();
-                }
-            } catch (Exception ex) {
-                log.error("Error when saving persistence file", ex);
+        for (File f : files) {
+            boolean deleted = f.delete();
+            log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
+        }
+        dir.delete();
+    }
+
+    private static void restore(JDA jda, PendingRestore restore) {
+        boolean success = false;
+        try {
+            if (restore.record != null) {
+                success = restoreFromJournal(jda, restore.record);
+            } else {
+                success = restoreLegacy(jda, restore.guildId, restore.legacy);
+            }
+        } catch (Exception ex) {
+            log.error("Error when reloading the player of guild " + restore.guildId, ex);
+        } finally {
+            if (restore.record != null) {
+                //from now on the journal follows the restored player, or forgets the guild if there is none
+                MusicJournal.getInstance().settle(restore.guildId);
             }
         }
+
+        int done = success ? restored.incrementAndGet() + failed.get() : restored.get() + failed.incrementAndGet();
+        if (done % RESTORE_PROGRESS_INTERVAL == 0 || done == restoreTotal) {
+            log.info("Restored " + restored.get() + " of " + restoreTotal + " players, " + failed.get() + " failed");
+        }
     }
 
-    public static void reloadPlaylists() {
-        File dir = new File("music_persistence");
+    private static boolean restoreFromJournal(JDA jda, MusicJournal.Record record) throws IOException {
+        VoiceChannel vc = jda.getVoiceChannelById(record.getVoiceChannelId());
+        if (vc == null) {
+            log.warn("Voice channel " + record.getVoiceChannelId() + " of guild " + record.getGuildId() + " is gone, not reloading its player");
+            return false;
+        }
 
-        if(Config.CONFIG.getDistribution() == DistributionEnum.MUSIC) {
-            log.warn("Music persistence loading is currently disabled!");
+        GuildPlayer player = PlayerRegistry.get(jda, record.getGuildId());
+        player.joinChannel(vc);
+        if (!PlayerHibernation.restore(player, record.getSnapshot())) {
+            player.play();
+        }
 
-            File[] files = dir.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    boolean deleted = f.delete();
-                    log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
-                }
+        player.getActiveTextChannel().sendMessage(MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), player.getSongCount())).queue();
+        return true;
+    }
 
-                dir.delete();
-            }
-            return;
+    private static boolean restoreLegacy(JDA jda, long guildId, JSONObject data) {
+        boolean isPaused = data.getBoolean("isPaused");
+        final JSONArray sources = data.getJSONArray("sources");
+        VoiceChannel vc = jda.getVoiceChannelById(data.getString("vc"));
+        TextChannel tc = jda.getTextChannelById(data.getString("tc"));
+        float volume = Float.parseFloat(data.getString("volume"));
+        RepeatMode repeatMode = data.getEnum(RepeatMode.class, "repeatMode");
+        boolean shuffle = data.getBoolean("shuffle");
+        if (vc == null || tc == null) {
+            log.warn("Channels of guild " + guildId + " are gone, not reloading its player");
+            return false;
         }
 
-        log.info("Began reloading playlists");
-        if (!dir.exists()) {
-            return;
+        GuildPlayer player = PlayerRegistry.get(jda, guildId);
+
+        player.joinChannel(vc);
+        player.setCurrentTC(tc);
+        if(Config.CONFIG.getDistribution().volumeSupported()) {
+            player.setVolume(volume);
         }
-        log.info("Found persistence data: " + Arrays.toString(dir.listFiles()));
+        player.setRepeatMode(repeatMode);
+        player.setShuffle(shuffle);
 
-        for (File file : dir.listFiles()) {
+        final boolean[] isFirst = {true};
+
+        sources.forEach((Object t) -> {
+            JSONObject json = (JSONObject) t;
+            byte[] message = Base64.decodeBase64(json.getString("message"));
+            Member member = vc.getGuild().getMember(vc.getJDA().getUserById(json.getString("user")));
+            if (member == null)
+                member = vc.getGuild().getSelfMember(); //member left the guild meanwhile, set ourselves as the one who added the song
+
+            AudioTrack at;
             try {
-                String gId = file.getName();
-                JSONObject data = new JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")));
-
-                //TODO: Make shard in-specific
-                boolean isPaused = data.getBoolean("isPaused");
-                final JSONArray sources = data.getJSONArray("sources");
-                VoiceChannel vc = FredBoat.getVoiceChannelById(data.getString("vc"));
-                TextChannel tc = FredBoat.getTextChannelById(data.getString("tc"));
-                float volume = Float.parseFloat(data.getString("volume"));
-                RepeatMode repeatMode = data.getEnum(RepeatMode.class, "repeatMode");
-                boolean shuffle = data.getBoolean("shuffle");
-
-                GuildPlayer player = PlayerRegistry.get(vc.getJDA(), gId);
-
-                player.joinChannel(vc);
-                player.setCurrentTC(tc);
-                if(Config.CONFIG.getDistribution().volumeSupported()) {
-                    player.setVolume(volume);
-                }
-                player.setRepeatMode(repeatMode);
-                player.setShuffle(shuffle);
-
-                final boolean[] isFirst = {true};
-
-                sources.forEach((Object t) -> {
-                    JSONObject json = (JSONObject) t;
-                    byte[] message = Base64.decodeBase64(json.getString("message"));
-                    Member member = vc.getGuild().getMember(vc.getJDA().getUserById(json.getString("user")));
-                    if (member == null)
-                        member = vc.getGuild().getSelfMember(); //member left the guild meanwhile, set ourselves as the one who added the song
-
-                    AudioTrack at;
-                    try {
-                        ByteArrayInputStream bais = new ByteArrayInputStream(message);
-                        at = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(bais)).decodedTrack;
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                ByteArrayInputStream bais = new ByteArrayInputStream(message);
+                at = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(bais)).decodedTrack;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
 
-                    if (at == null) {
-                        log.error("Loaded track that was null! Skipping...");
-                        return;
+            if (at == null) {
+                log.error("Loaded track that was null! Skipping...");
+                return;
+            }
+
+            // Handle split tracks
+            AudioTrackContext atc;
+            JSONObject split = json.optJSONObject("split");
+            if(split != null) {
+                atc = new SplitAudioTrackContext(at, member,
+                        split.getLong("startPos"),
+                        split.getLong("endPos"),
+                        split.getString("title")
+                );
+                at.setPosition(split.getLong("startPos"));
+
+                if (isFirst[0]) {
+                    isFirst[0] = false;
+                    if (data.has("position")) {
+                        at.setPosition(split.getLong("startPos") + data.getLong("position"));
                     }
+                }
+            } else {
+                atc = new AudioTrackContext(at, member);
 
-                    // Handle split tracks
-                    AudioTrackContext atc;
-                    JSONObject split = json.optJSONObject("split");
-                    if(split != null) {
-                        atc = new SplitAudioTrackContext(at, member,
-                                split.getLong("startPos"),
-                                split.getLong("endPos"),
-                                split.getString("title")
-                        );
-                        at.setPosition(split.getLong("startPos"));
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false;
-                            if (data.has("position")) {
-                                at.setPosition(split.getLong("startPos") + data.getLong("position"));
-                            }
-                        }
-                    } else {
-                        atc = new AudioTrackContext(at, member);
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false;
-                            if (data.has("position")) {
-                                at.setPosition(data.getLong("position"));
-                            }
-                        }
+                if (isFirst[0]) {
+                    isFirst[0] = false;
+                    if (data.has("position")) {
+                        at.setPosition(data.getLong("position"));
                     }
+                }
+            }
 
-                    player.queue(atc);
-                });
+            player.queue(atc);
+        });
 
-                player.setPause(isPaused);
-                tc.sendMessage(MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), sources.length())).queue();
-            } catch (Exception ex) {
-                log.error("Error when loading persistence file", ex);
-            }
-        }
+        player.setPause(isPaused);
+        tc.sendMessage(MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), sources.length())).queue();
+        return true;
+    }
 
-        for (File f : dir.listFiles()) {
-            boolean deleted = f.delete();
-            log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
-        }
+    private static class PendingRestore {
+        final long guildId;
+        //one of these is set
+        final MusicJournal.Record record;
+        final JSONObject legacy;
 
-        dir.delete();
+        PendingRestore(long guildId, MusicJournal.Record record, JSONObject legacy) {
+            this.guildId = guildId;
+            this.record = record;
+            this.legacy = legacy;
+        }
     }
 
 }
@@ -0,0 +1,366 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.remote.RemoteNode;
+import com.sedmelluq.discord.lavaplayer.remote.message.NodeStatisticsMessage;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which lavaplayer node plays the tracks of a guild, instead of leaving it to lavaplayer's own balancing.
+ * <p>
+ * Every node gets its own player manager, so picking the node of a guild comes down to picking the player manager its
+ * audio player is created with. Nodes are scored by the tracks they are playing, their cpu usage and the frame loss
+ * our own players observe on them, and guilds stick to the node they played on before unless another one is clearly
+ * better. Nodes can be drained for maintenance, and players are moved off drained nodes and nodes that lose too many
+ * frames by {@link fredboat.agent.NodeBalancerAgent}.
+ * <p>
+ * The nodes are looked at through {@link NodeConnection}, so the balancer can be tried out with stand-in nodes.
+ */
+public class NodeBalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeBalancer.class);
+
+    //a fully busy cpu weighs as much as this many playing tracks
+    private static final double CPU_WEIGHT = 100;
+    //a loss rate of 5% weighs as much as 100 playing tracks
+    private static final double LOSS_WEIGHT = 2000;
+    //a guild stays on its previous node unless another node scores better by more than this
+    private static final double AFFINITY_BONUS = 20;
+    //players are moved off nodes losing more frames than this
+    static final double MIGRATION_LOSS_RATE = 0.05;
+    //at least this many frames need to have been expected on a node before its loss rate is trusted
+    private static final long MIN_FRAMES = 3000;
+    //moving many players at once would make a struggling node the next struggling node
+    static final int MAX_MIGRATIONS_PER_CHECK = 5;
+
+    private static NodeBalancer instance;
+
+    private final List<Node> nodes;
+    //guarded by this
+    private final Long2IntOpenHashMap affinity = new Long2IntOpenHashMap();
+
+    NodeBalancer(List<Node> nodes) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        affinity.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return the balancer, or null if we are not playing through remote nodes
+     */
+    public static synchronized NodeBalancer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Sets up one player manager for each of the nodes
+     */
+    static synchronized NodeBalancer init(String[] addresses) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < addresses.length; i++) {
+            AudioPlayerManager manager = AbstractPlayer.registerSourceManagers(new DefaultAudioPlayerManager());
+            manager.getConfiguration().setResamplingQuality(AbstractPlayer.getDefaultResamplingQuality());
+            manager.setFrameBufferDuration(AbstractPlayer.DEFAULT_FRAME_BUFFER_DURATION);
+            manager.useRemoteNodes(addresses[i]);
+            nodes.add(new Node(i, manager, new RemoteNodeConnection(manager)));
+        }
+        instance = new NodeBalancer(nodes);
+        log.info("Balancing players over " + nodes.size() + " nodes");
+        return instance;
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the node the next track of this guild should be played on
+     */
+    public synchronized Node select(long guildId) {
+        return select(guildId, null);
+    }
+
+    /**
+     * @param exclude a node that must not be picked, may be null
+     */
+    synchronized Node select(long guildId, Node exclude) {
+        Node best = null;
+        for (Node node : nodes) {
+            node.score = score(node);
+            if (node != exclude && node.isAvailable() && (best == null || node.score < best.score)) {
+                best = node;
+            }
+        }
+        if (best == null) {
+            //nothing is available right now, lavaplayer keeps trying to reach the nodes so any of them will do
+            return exclude == null && !nodes.isEmpty() ? nodes.get(0) : null;
+        }
+
+        int previous = affinity.get(guildId);
+        if (previous >= 0 && previous != best.index) {
+            Node prev = nodes.get(previous);
+            if (prev != exclude && prev.isAvailable() && prev.score <= best.score + AFFINITY_BONUS) {
+                best = prev;
+            }
+        }
+
+        affinity.put(guildId, best.index);
+        best.decisions++;
+        return best;
+    }
+
+    /**
+     * Lower is better
+     */
+    private static double score(Node node) {
+        NodeConnection connection = node.connection;
+        if (!connection.isOnline()) return Double.POSITIVE_INFINITY;
+
+        int playing = connection.getPlayingTrackCount();
+        double cpu = connection.getCpuUsage();
+        //the node may not have reported anything yet, count our own players in that case
+        return (playing >= 0 ? playing : node.assignedPlayers)
+                + (cpu >= 0 ? cpu : 0) * CPU_WEIGHT
+                + node.getLossRate() * LOSS_WEIGHT;
+    }
+
+    /**
+     * Recalculates the frame loss our players observe on each node
+     */
+    private void updateTelemetry(Collection<? extends AbstractPlayer> players) {
+        long[] lost = new long[nodes.size()];
+        long[] total = new long[nodes.size()];
+        int[] assigned = new int[nodes.size()];
+        for (AbstractPlayer player : players) {
+            Node node = player.getNode();
+            if (node == null) continue;
+
+            AudioTelemetry telemetry = player.getTelemetry();
+            long playerLost = telemetry.getWindowLoss();
+            lost[node.index] += playerLost;
+            total[node.index] += playerLost + telemetry.getWindowSuccess();
+            assigned[node.index]++;
+        }
+        updateTelemetry(lost, total, assigned);
+    }
+
+    /**
+     * @param lost     frames lost on each node within the telemetry window, by node index
+     * @param total    frames expected on each node within the telemetry window
+     * @param assigned players playing on each node
+     */
+    synchronized void updateTelemetry(long[] lost, long[] total, int[] assigned) {
+        for (Node node : nodes) {
+            node.windowLost = lost[node.index];
+            node.windowTotal = total[node.index];
+            node.assignedPlayers = assigned[node.index];
+            node.score = score(node);
+        }
+    }
+
+    /**
+     * Moves players off nodes that are being drained or are losing too many frames, a few at a time
+     *
+     * @return the number of players that have been moved
+     */
+    public int rebalance(Collection<? extends AbstractPlayer> players) {
+        updateTelemetry(players);
+
+        int migrated = 0;
+        for (AbstractPlayer player : players) {
+            if (migrated >= MAX_MIGRATIONS_PER_CHECK) break;
+
+            Node from = player.getNode();
+            if (from == null || !(from.draining || from.isDegraded() || !from.connection.isOnline())) continue;
+
+            Node to = select(player.getGuildId(), from);
+            if (to == null || to.isDegraded()) continue;
+
+            log.info("Moving player of guild " + player.getGuildId() + " from node " + from.index + " to node " + to.index
+                    + (from.draining ? ", node is draining" : String.format(", loss rate %.2f%%", from.getLossRate() * 100)));
+            if (player.migrate(to)) {
+                synchronized (this) {
+                    from.migrationsOut++;
+                    to.migrationsIn++;
+                }
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    public static class Node {
+        private final int index;
+        private final AudioPlayerManager manager;
+        private final NodeConnection connection;
+        private volatile boolean draining = false;
+
+        //the last decision data, only written while holding the balancer's lock
+        //volatile so the stats and the rebalancing can read it without taking the lock
+        private volatile double score = 0;
+        private volatile long windowLost = 0;
+        private volatile long windowTotal = 0;
+        private volatile int assignedPlayers = 0;
+        private volatile long decisions = 0;
+        private volatile long migrationsIn = 0;
+        private volatile long migrationsOut = 0;
+
+        Node(int index, AudioPlayerManager manager, NodeConnection connection) {
+            this.index = index;
+            this.manager = manager;
+            this.connection = connection;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public AudioPlayerManager getManager() {
+            return manager;
+        }
+
+        public NodeConnection getConnection() {
+            return connection;
+        }
+
+        public boolean isDraining() {
+            return draining;
+        }
+
+        /**
+         * A draining node gets no new players, and the ones playing on it are moved to other nodes
+         */
+        public void setDraining(boolean draining) {
+            this.draining = draining;
+            log.info((draining ? "Draining" : "Undraining") + " node " + index);
+        }
+
+        boolean isAvailable() {
+            return !draining && connection.isOnline();
+        }
+
+        boolean isDegraded() {
+            return windowTotal >= MIN_FRAMES && getLossRate() > MIGRATION_LOSS_RATE;
+        }
+
+        public double getLossRate() {
+            return windowTotal > 0 ? (double) windowLost / windowTotal : 0;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public int getAssignedPlayers() {
+            return assignedPlayers;
+        }
+
+        public long getDecisions() {
+            return decisions;
+        }
+
+        public long getMigrationsIn() {
+            return migrationsIn;
+        }
+
+        public long getMigrationsOut() {
+            return migrationsOut;
+        }
+    }
+
+    /**
+     * What the balancer needs to know about a node
+     */
+    public interface NodeConnection {
+
+        boolean isOnline();
+
+        String getState();
+
+        /**
+         * @return the tracks the node reports to be playing, or -1 if it hasn't reported yet
+         */
+        int getPlayingTrackCount();
+
+        /**
+         * @return the cpu usage of the node between 0 and 1, or -1 if it hasn't reported yet
+         */
+        double getCpuUsage();
+    }
+
+    /**
+     * A lavaplayer node, behind a player manager which uses only this node
+     */
+    static class RemoteNodeConnection implements NodeConnection {
+
+        private final AudioPlayerManager manager;
+
+        RemoteNodeConnection(AudioPlayerManager manager) {
+            this.manager = manager;
+        }
+
+        private RemoteNode getNode() {
+            List<RemoteNode> remoteNodes = manager.getRemoteNodeRegistry().getNodes();
+            return remoteNodes.isEmpty() ? null : remoteNodes.get(0);
+        }
+
+        @Override
+        public boolean isOnline() {
+            RemoteNode node = getNode();
+            return node != null && node.getConnectionState() == RemoteNode.ConnectionState.ONLINE;
+        }
+
+        @Override
+        public String getState() {
+            RemoteNode node = getNode();
+            return node == null ? "UNKNOWN" : node.getConnectionState().toString();
+        }
+
+        @Override
+        public int getPlayingTrackCount() {
+            RemoteNode node = getNode();
+            NodeStatisticsMessage statistics = node == null ? null : node.getLastStatistics();
+            return statistics == null ? -1 : statistics.playingTrackCount;
+        }
+
+        @Override
+        public double getCpuUsage() {
+            RemoteNode node = getNode();
+            NodeStatisticsMessage statistics = node == null ? null : node.getLastStatistics();
+            return statistics == null ? -1 : statistics.systemCpuUsage;
+        }
+    }
+}
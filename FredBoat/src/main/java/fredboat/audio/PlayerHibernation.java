@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.audio.queue.AudioTrackContext;
+import fredboat.audio.queue.RepeatMode;
+import fredboat.audio.queue.SplitAudioTrackContext;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns the state of a GuildPlayer into a compact blob and back, so idle players can be dropped from memory.
+ * The blob holds the player settings, the loaded track and its position, and the queue in chronological order.
+ */
+class PlayerHibernation {
+
+    private static final Logger log = LoggerFactory.getLogger(PlayerHibernation.class);
+
+    private static final int VERSION = 1;
+
+    private PlayerHibernation() {
+    }
+
+    static byte[] hibernate(GuildPlayer player) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+
+        out.writeByte(VERSION);
+        out.writeFloat(player.getVolume());
+        out.writeByte(player.getRepeatMode().ordinal());
+        out.writeBoolean(player.isShuffle());
+        out.writeBoolean(player.isPaused());
+        String tcId = player.getCurrentTCId();
+        out.writeLong(tcId != null ? Long.parseLong(tcId) : 0);
+
+        AudioTrackContext loaded = player.getLoadedTrack();
+        out.writeBoolean(loaded != null);
+        if (loaded != null) {
+            out.writeLong(loaded.getEffectivePosition());
+            writeTrack(out, loaded);
+        }
+
+        List<AudioTrackContext> queue = player.getQueuedTracks();
+        out.writeInt(queue.size());
+        for (AudioTrackContext atc : queue) {
+            writeTrack(out, atc);
+        }
+
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return whether the player was paused when it was hibernated
+     */
+    static boolean restore(GuildPlayer player, byte[] blob) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        Guild guild = player.getGuild();
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown hibernation format version " + version);
+        }
+
+        player.setVolume(in.readFloat());
+        player.setRepeatMode(RepeatMode.values()[in.readUnsignedByte()]);
+        player.setShuffle(in.readBoolean());
+        boolean paused = in.readBoolean();
+        TextChannel tc = guild.getTextChannelById(in.readLong());
+        if (tc != null) {
+            player.setCurrentTC(tc);
+        }
+
+        AudioTrackContext loaded = null;
+        long position = 0;
+        if (in.readBoolean()) {
+            position = in.readLong();
+            loaded = readTrack(in, guild);
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            AudioTrackContext atc = readTrack(in, guild);
+            if (atc != null) {
+                player.getAudioTrackProvider().add(atc);
+            }
+        }
+
+        //a loaded track was either paused or is a track that stopped in the middle of playing, keep it paused
+        if (loaded != null) {
+            player.loadPaused(loaded, position);
+        } else if (paused) {
+            player.pause();
+        }
+        return paused;
+    }
+
+    private static void writeTrack(DataOutputStream out, AudioTrackContext atc) throws IOException {
+        byte[] encoded = atc.encode();
+
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        out.writeLong(atc.getUserId());
+        out.writeInt(atc.getRand());
+
+        if (atc instanceof SplitAudioTrackContext) {
+            SplitAudioTrackContext split = (SplitAudioTrackContext) atc;
+            out.writeBoolean(true);
+            out.writeLong(split.getStartPosition());
+            out.writeLong(split.getStartPosition() + split.getEffectiveDuration());
+            out.writeUTF(split.getEffectiveTitle());
+        } else {
+            out.writeBoolean(false);
+        }
+    }
+
+    /**
+     * @return the track, or null if it could not be decoded anymore
+     */
+    private static AudioTrackContext readTrack(DataInputStream in, Guild guild) throws IOException {
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        long userId = in.readLong();
+        int rand = in.readInt();
+
+        AudioTrack at = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(new ByteArrayInputStream(encoded))).decodedTrack;
+        boolean isSplit = in.readBoolean();
+        long startPos = isSplit ? in.readLong() : 0;
+        long endPos = isSplit ? in.readLong() : 0;
+        String title = isSplit ? in.readUTF() : null;
+
+        if (at == null) {
+            log.warn("Could not decode a hibernated track of guild {}, skipping it", guild.getId());
+            return null;
+        }
+
+        AudioTrackContext atc;
+        Member member = getMember(guild, userId);
+        if (isSplit) {
+            at.setPosition(startPos);
+            atc = new SplitAudioTrackContext(at, member, startPos, endPos, title);
+        } else {
+            atc = new AudioTrackContext(at, member);
+        }
+        atc.setRand(rand);
+        return atc;
+    }
+
+    private static Member getMember(Guild guild, long userId) {
+        User user = guild.getJDA().getUserById(userId);
+        Member member = user != null ? guild.getMember(user) : null;
+        //member left the guild meanwhile, set ourselves as the one who added the song
+        return member != null ? member : guild.getSelfMember();
+    }
+
+}
@@ -25,83 +25,361 @@
 
 package fredboat.audio;
 
+import fredboat.Config;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.managers.AudioManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Holds the GuildPlayers of all shards. The players are partitioned by the shard their guild belongs to, every
+ * partition is guarded by its own lock, so shards don't contend with each other.
+ *
+ * Players that have been idle for a while can be hibernated: their state is stored in a compact blob and the player
+ * is dropped. The next time the player of such a guild is requested it is transparently rebuilt from that blob.
+ */
 public class PlayerRegistry {
 
-    private static final HashMap<String, GuildPlayer> REGISTRY = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(PlayerRegistry.class);
+
     public static final float DEFAULT_VOLUME = 1f;
 
-    public static void put(String k, GuildPlayer v) {
-        REGISTRY.put(k, v);
+    private static final File HIBERNATION_DIR = new File("hibernation");
+    //marks hibernated players that have been written to disk
+    private static final byte[] ON_DISK = new byte[0];
+
+    private static final Partition[] PARTITIONS = createPartitions();
+
+    //live counters, kept up to date by the players themselves, see AbstractPlayer#updatePlayState()
+    private static final AtomicInteger PLAYING = new AtomicInteger();
+    private static final AtomicInteger PAUSED = new AtomicInteger();
+    private static final AtomicInteger HIBERNATED = new AtomicInteger();
+
+    private PlayerRegistry() {
     }
 
     public static GuildPlayer get(Guild guild) {
-        return get(guild.getJDA(), guild.getId());
+        return get(guild.getJDA(), guild.getIdLong());
     }
 
-    public static GuildPlayer get(JDA jda, String k) {
-        GuildPlayer player = REGISTRY.get(k);
-        if (player == null) {
-            player = new GuildPlayer(jda.getGuildById(k));
-            player.setVolume(DEFAULT_VOLUME);
-            REGISTRY.put(k, player);
+    public static GuildPlayer get(JDA jda, long guildId) {
+        Partition partition = getPartition(guildId);
+        GuildPlayer player;
+        do {
+            player = getOrWakeUp(jda, guildId, partition);
+            //hibernate() gives up on players that have been touched meanwhile, unless it has already marked them as
+            //retiring, and then we have to look again
+            player.touch();
+        } while (player.isRetiring());
+        attachSendingHandler(jda, guildId, player);
+        return player;
+    }
+
+    private static GuildPlayer getOrWakeUp(JDA jda, long guildId, Partition partition) {
+        CompletableFuture<GuildPlayer> waking;
+        byte[] blob = null;
+        synchronized (partition) {
+            GuildPlayer player = partition.players.get(guildId);
+            if (player != null) {
+                return player;
+            }
+
+            waking = partition.waking.get(guildId);
+            if (waking == null) {
+                blob = partition.hibernated.remove(guildId);
+                if (blob == null) {
+                    player = createPlayer(jda, guildId);
+                    partition.players.put(guildId, player);
+                    return player;
+                }
+                waking = new CompletableFuture<>();
+                partition.waking.put(guildId, waking);
+            }
         }
 
-        // Attempt to set the player as a sending handler. Important after a shard revive
-        if (jda.getGuildById(k) != null) {
-            jda.getGuildById(k).getAudioManager().setSendingHandler(player);
+        if (blob == null) {
+            //someone else is restoring this player already
+            return waking.join();
+        }
+
+        //restoring reads the disk and decodes the whole queue, the other lookups of the shard don't wait for that
+        GuildPlayer player;
+        try {
+            player = createPlayer(jda, guildId);
+        } catch (RuntimeException e) {
+            synchronized (partition) {
+                partition.waking.remove(guildId);
+                partition.hibernated.put(guildId, blob);
+            }
+            waking.completeExceptionally(e);
+            throw e;
         }
+        wakeUp(player, blob);
 
+        synchronized (partition) {
+            partition.players.put(guildId, player);
+            partition.waking.remove(guildId);
+        }
+        waking.complete(player);
+        return player;
+    }
+
+    private static GuildPlayer createPlayer(JDA jda, long guildId) {
+        GuildPlayer player = new GuildPlayer(jda.getGuildById(guildId));
+        player.setVolume(DEFAULT_VOLUME);
         return player;
     }
 
     public static GuildPlayer getExisting(Guild guild) {
-        return getExisting(guild.getJDA(), guild.getId());
+        return getExisting(guild.getJDA(), guild.getIdLong());
     }
 
-    public static GuildPlayer getExisting(JDA jda, String k) {
-        if (REGISTRY.containsKey(k)) {
-            return get(jda, k);
+    /**
+     * @return the player of the guild, or null if there is none. Hibernated players are not woken up by this.
+     */
+    public static GuildPlayer getExisting(JDA jda, long guildId) {
+        Partition partition = getPartition(guildId);
+        GuildPlayer player;
+        synchronized (partition) {
+            player = partition.players.get(guildId);
         }
-        return null;
+        if (player != null) {
+            attachSendingHandler(jda, guildId, player);
+        }
+        return player;
     }
 
-    public static GuildPlayer remove(String k) {
-        return REGISTRY.remove(k);
+    public static GuildPlayer remove(long guildId) {
+        Partition partition = getPartition(guildId);
+        synchronized (partition) {
+            return partition.players.remove(guildId);
+        }
     }
 
-    public static HashMap<String, GuildPlayer> getRegistry() {
-        return REGISTRY;
+    /**
+     * @return a snapshot of all players
+     */
+    public static List<GuildPlayer> getPlayers() {
+        List<GuildPlayer> players = new ArrayList<>();
+        for (Partition partition : PARTITIONS) {
+            synchronized (partition) {
+                players.addAll(partition.players.values());
+            }
+        }
+        return players;
     }
 
+    /**
+     * @return a snapshot of all players that are currently playing
+     */
     public static List<GuildPlayer> getPlayingPlayers() {
-        ArrayList<GuildPlayer> plrs = new ArrayList<>();
+        List<GuildPlayer> plrs = new ArrayList<>();
+        for (Partition partition : PARTITIONS) {
+            collectPlaying(partition, plrs);
+        }
+        return plrs;
+    }
+
+    /**
+     * @return a snapshot of the players of the given shard that are currently playing
+     */
+    public static List<GuildPlayer> getPlayingPlayers(int shardId) {
+        List<GuildPlayer> plrs = new ArrayList<>();
+        if (shardId >= 0 && shardId < PARTITIONS.length) {
+            collectPlaying(PARTITIONS[shardId], plrs);
+        }
+        return plrs;
+    }
 
-        for (GuildPlayer plr : REGISTRY.values()) {
-            if (plr.isPlaying()) {
-                plrs.add(plr);
+    public static int getPlayerCount() {
+        int count = 0;
+        for (Partition partition : PARTITIONS) {
+            synchronized (partition) {
+                count += partition.players.size();
             }
         }
+        return count;
+    }
 
-        return plrs;
+    public static int getPlayingCount() {
+        return PLAYING.get();
+    }
+
+    public static int getPausedCount() {
+        return PAUSED.get();
     }
 
     public static void destroyPlayer(Guild g) {
-        destroyPlayer(g.getJDA(), g.getId());
+        destroyPlayer(g.getJDA(), g.getIdLong());
     }
 
-    public static void destroyPlayer(JDA jda, String g) {
-        GuildPlayer player = getExisting(jda, g);
+    public static void destroyPlayer(JDA jda, long guildId) {
+        GuildPlayer player = remove(guildId);
         if (player != null) {
             player.destroy();
-            remove(g);
         }
+
+        Partition partition = getPartition(guildId);
+        synchronized (partition) {
+            byte[] blob = partition.hibernated.remove(guildId);
+            if (blob != null) {
+                HIBERNATED.decrementAndGet();
+                if (blob == ON_DISK) {
+                    getHibernationFile(guildId).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the state of the player of the given guild and drops it, if it has been idle for at least the given time.
+     *
+     * @return true if the player has been hibernated
+     */
+    public static boolean hibernate(long guildId, long minIdleMillis) {
+        Partition partition = getPartition(guildId);
+        GuildPlayer player;
+        synchronized (partition) {
+            player = partition.players.get(guildId);
+        }
+        if (player == null || player.getIdleMillis() < minIdleMillis) {
+            return false;
+        }
+        long lastActive = player.getLastActive();
+
+        //the blob is built and written without holding the lock, so lookups of the shard don't wait for the disk
+        byte[] blob;
+        try {
+            blob = PlayerHibernation.hibernate(player);
+            if (Config.CONFIG.isHibernateToDisk()) {
+                HIBERNATION_DIR.mkdir();
+                Files.write(getHibernationFile(guildId).toPath(), blob);
+                blob = ON_DISK;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to hibernate player of guild {}, keeping it alive", guildId, e);
+            return false;
+        }
+
+        boolean stale;
+        synchronized (partition) {
+            //marked before checking, so a get() touching the player right now either stops us or looks again
+            player.setRetiring(true);
+            stale = partition.players.get(guildId) != player
+                    || player.getLastActive() != lastActive
+                    || player.getIdleMillis() < minIdleMillis;
+            if (stale) {
+                player.setRetiring(false);
+            } else {
+                partition.players.remove(guildId);
+                partition.hibernated.put(guildId, blob);
+                HIBERNATED.incrementAndGet();
+            }
+        }
+        if (stale) {
+            //the player has been used while we were storing it, the blob is outdated already
+            if (blob == ON_DISK) {
+                getHibernationFile(guildId).delete();
+            }
+            return false;
+        }
+
+        //release everything that still references the old player
+        Guild guild = player.getGuild();
+        if (guild != null) {
+            AudioManager manager = guild.getAudioManager();
+            manager.closeAudioConnection();
+            manager.setSendingHandler(null);
+        }
+        player.destroy();
+        return true;
+    }
+
+    public static int getHibernatedCount() {
+        return HIBERNATED.get();
+    }
+
+    /**
+     * Called by the players whenever they start or stop playing, or get paused or unpaused
+     */
+    static void onPlayStateChanged(boolean wasPlaying, boolean wasPaused, boolean playing, boolean paused) {
+        if (wasPlaying != playing) {
+            PLAYING.addAndGet(playing ? 1 : -1);
+        }
+        if (wasPaused != paused) {
+            PAUSED.addAndGet(paused ? 1 : -1);
+        }
+    }
+
+    private static void attachSendingHandler(JDA jda, long guildId, GuildPlayer player) {
+        // Attempt to set the player as a sending handler. Important after a shard revive
+        Guild guild = jda.getGuildById(guildId);
+        if (guild != null) {
+            guild.getAudioManager().setSendingHandler(player);
+        }
+    }
+
+    /**
+     * Restores the state of a hibernated player into the fresh player, before anyone else gets to see the player
+     */
+    private static void wakeUp(GuildPlayer player, byte[] blob) {
+        HIBERNATED.decrementAndGet();
+        long guildId = player.getGuildId();
+        try {
+            if (blob == ON_DISK) {
+                File file = getHibernationFile(guildId);
+                blob = Files.readAllBytes(file.toPath());
+                file.delete();
+            }
+            PlayerHibernation.restore(player, blob);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to restore hibernated player of guild {}, starting with an empty one", guildId, e);
+        }
+    }
+
+    private static File getHibernationFile(long guildId) {
+        return new File(HIBERNATION_DIR, Long.toString(guildId));
+    }
+
+    private static void collectPlaying(Partition partition, List<GuildPlayer> out) {
+        synchronized (partition) {
+            for (GuildPlayer plr : partition.players.values()) {
+                if (plr.isPlaying()) {
+                    out.add(plr);
+                }
+            }
+        }
+    }
+
+    private static Partition getPartition(long guildId) {
+        //same formula discord uses to assign guilds to shards
+        return PARTITIONS[(int) ((guildId >> 22) % PARTITIONS.length)];
+    }
+
+    private static Partition[] createPartitions() {
+        int count = Config.CONFIG != null ? Math.max(1, Config.CONFIG.getNumShards()) : 1;
+        Partition[] partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = new Partition();
+        }
+        return partitions;
+    }
+
+    private static class Partition {
+        final Long2ObjectOpenHashMap<GuildPlayer> players = new Long2ObjectOpenHashMap<>();
+        final Long2ObjectOpenHashMap<byte[]> hibernated = new Long2ObjectOpenHashMap<>();
+        //players that are being restored from their blob right now
+        final Long2ObjectOpenHashMap<CompletableFuture<GuildPlayer>> waking = new Long2ObjectOpenHashMap<>();
     }
 
 }
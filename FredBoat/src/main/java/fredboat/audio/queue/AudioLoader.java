@@ -48,63 +48,76 @@ import org.slf4j.LoggerFactory;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class AudioLoader implements AudioLoadResultHandler {
+public class AudioLoader {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(AudioLoader.class);
 
     //Matches a timestamp and the description
     private static final Pattern SPLIT_DESCRIPTION_PATTERN = Pattern.compile("(.*?)[( \\[]*((?:\\d?\\d:)?\\d?\\d:\\d\\d)[) \\]]*(.*)");
     private static final int QUEUE_TRACK_LIMIT = 10000;
+    //identifiers that most likely are playlists, these get a lower priority in the load scheduler
+    private static final Pattern PLAYLIST_PATTERN = Pattern.compile("(?i)(list=|/sets/|/playlist|/album/|hastebin|pastebin)");
 
     private final ITrackProvider trackProvider;
     private final AudioPlayerManager playerManager;
+    private final TrackResolutionCache resolutionCache;
     private final GuildPlayer gplayer;
-    private final ConcurrentLinkedQueue<IdentifierContext> identifierQueue = new ConcurrentLinkedQueue<>();
-    private IdentifierContext context = null;
-    private volatile boolean isLoading = false;
+    private final List<SpotifyPlaylistImport> imports = new CopyOnWriteArrayList<>();
+    //loads that have been requested and are not done yet
+    private final AtomicInteger pendingLoads = new AtomicInteger(0);
 
     public AudioLoader(ITrackProvider trackProvider, AudioPlayerManager playerManager, GuildPlayer gplayer) {
         this.trackProvider = trackProvider;
         this.playerManager = playerManager;
+        this.resolutionCache = TrackResolutionCache.getInstance();
         this.gplayer = gplayer;
     }
 
-    public void loadAsync(IdentifierContext ic) {
+    public boolean isLoading() {
+        return pendingLoads.get() > 0 || !imports.isEmpty();
+    }
 
-        if (ratelimitIfSlowLoadingPlaylistAndAnnounce(ic)) {
-            identifierQueue.add(ic);
-            if (!isLoading) {
-                loadNextAsync();
-            }
+    /**
+     * Stops all playlist imports that are still adding tracks to the queue
+     */
+    public void cancelImports() {
+        for (SpotifyPlaylistImport playlistImport : imports) {
+            playlistImport.cancel();
         }
     }
 
-    private void loadNextAsync() {
-        try {
-            IdentifierContext ic = identifierQueue.poll();
-            if (ic != null) {
-                isLoading = true;
-                context = ic;
+    void importFinished(SpotifyPlaylistImport playlistImport) {
+        imports.remove(playlistImport);
+    }
 
-                if (gplayer.getRemainingTracks().size() >= QUEUE_TRACK_LIMIT) {
-                    TextUtils.replyWithName(gplayer.getActiveTextChannel(), context.getMember(),
-                            MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadQueueTrackLimit"), QUEUE_TRACK_LIMIT));
-                    isLoading = false;
-                    return;
-                }
+    /**
+     * Queues the identifier in the {@link LoadScheduler}, which decides when it is loaded
+     */
+    public void loadAsync(IdentifierContext ic) {
+        LoadScheduler.Priority priority = PLAYLIST_PATTERN.matcher(ic.identifier).find()
+                ? LoadScheduler.Priority.PLAYLIST : LoadScheduler.Priority.TRACK;
 
-                playerManager.loadItem(ic.identifier, this);
-            } else {
-                isLoading = false;
-            }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-            isLoading = false;
+        pendingLoads.incrementAndGet();
+        LoadScheduler.getInstance().submit(gplayer.getGuildId(), priority, new IdentifierLoad(ic));
+    }
+
+    /**
+     * @return the spotify source manager if the identifier is a spotify playlist that should be streamed into the
+     * queue, null otherwise
+     */
+    private SpotifyPlaylistSourceManager getStreamingImporter(IdentifierContext ic) {
+        SpotifyPlaylistSourceManager spotify = playerManager.source(SpotifyPlaylistSourceManager.class);
+        if (spotify == null || ic.isSplit() || spotify.parse(ic.identifier) == null) {
+            return null;
         }
+        return spotify;
     }
 
     /**
@@ -126,7 +139,8 @@ public class AudioLoader implements AudioLoadResultHandler {
 
             if (result) {
                 //inform user we are possibly about to do nasty time consuming work
-                if (playlistInfo.getTotalTracks() > 50) {
+                //streamed imports announce themselves along with their progress
+                if (playlistInfo.getTotalTracks() > 50 && getStreamingImporter(ic) == null) {
                     String out = MessageFormat.format(I18n.get(ic.getMember().getGuild()).getString("loadAnnouncePlaylist"),
                             playlistInfo.getName(),
                             playlistInfo.getTotalTracks());
@@ -170,79 +184,6 @@ public class AudioLoader implements AudioLoadResultHandler {
         return playlistInfo;
     }
 
-    @Override
-    public void trackLoaded(AudioTrack at) {
-        try {
-            if(context.isSplit()){
-                loadSplit(at, context);
-            } else {
-
-                if (!context.isQuiet()) {
-                    context.getTextChannel().sendMessage(
-                            gplayer.isPlaying() ?
-                                    MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadSingleTrack"), at.getInfo().title)
-                                    :
-                                    MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadSingleTrackAndPlay"), at.getInfo().title)
-                    ).queue();
-                } else {
-                    log.info("Quietly loaded " + at.getIdentifier());
-                }
-
-                at.setPosition(context.getPosition());
-
-                trackProvider.add(new AudioTrackContext(at, context.getMember()));
-                if (!gplayer.isPaused()) {
-                    gplayer.play();
-                }
-            }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-        }
-        loadNextAsync();
-    }
-
-    @Override
-    public void playlistLoaded(AudioPlaylist ap) {
-        try {
-            if(context.isSplit()){
-                TextUtils.replyWithName(context.getTextChannel(), context.getMember(), I18n.get(context.getTextChannel().getGuild()).getString("loadPlaySplitListFail"));
-                loadNextAsync();
-                return;
-            }
-
-            context.getTextChannel().sendMessage(
-                    MessageFormat.format(I18n.get(context.getTextChannel().getGuild()).getString("loadListSuccess"), ap.getTracks().size(), ap.getName())
-            ).queue();
-
-            for (AudioTrack at : ap.getTracks()) {
-                trackProvider.add(new AudioTrackContext(at, context.getMember()));
-            }
-            if (!gplayer.isPaused()) {
-                gplayer.play();
-            }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-        }
-        loadNextAsync();
-    }
-
-    @Override
-    public void noMatches() {
-        try {
-            context.getTextChannel().sendMessage(MessageFormat.format(I18n.get(context.getTextChannel().getGuild()).getString("loadNoMatches"), context.identifier)).queue();
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-        }
-        loadNextAsync();
-    }
-
-    @Override
-    public void loadFailed(FriendlyException fe) {
-        handleThrowable(context, fe);
-
-        loadNextAsync();
-    }
-
     private void loadSplit(AudioTrack at, IdentifierContext ic){
         if(!(at instanceof YoutubeAudioTrack)){
             ic.getTextChannel().sendMessage(I18n.get(ic.getTextChannel().getGuild()).getString("loadSplitNotYouTube")).queue();
@@ -325,8 +266,140 @@ public class AudioLoader implements AudioLoadResultHandler {
                     .append(MessageFormat.format(I18n.get(ic.getTextChannel().getGuild()).getString("loadPlaylistTooMany"), list.size()));
         }
 
-        context.getTextChannel().sendMessage(mb.build()).queue();
+        ic.getTextChannel().sendMessage(mb.build()).queue();
+
+    }
+
+    private class IdentifierLoad extends LoadScheduler.Load implements AudioLoadResultHandler {
+
+        private final IdentifierContext context;
+        private final AtomicBoolean done = new AtomicBoolean(false);
 
+        IdentifierLoad(IdentifierContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            try {
+                //this may need to fetch the playlist, so it is done on the scheduler's thread instead of the caller's
+                if (!ratelimitIfSlowLoadingPlaylistAndAnnounce(context)) {
+                    done();
+                    return;
+                }
+
+                if (gplayer.getSongCount() >= QUEUE_TRACK_LIMIT) {
+                    TextUtils.replyWithName(gplayer.getActiveTextChannel(), context.getMember(),
+                            MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadQueueTrackLimit"), QUEUE_TRACK_LIMIT));
+                    done();
+                    return;
+                }
+
+                //spotify playlists are streamed into the queue instead of being loaded in one go
+                SpotifyPlaylistSourceManager spotify = getStreamingImporter(context);
+                if (spotify != null) {
+                    SpotifyPlaylistImport playlistImport = new SpotifyPlaylistImport(AudioLoader.this, trackProvider, gplayer, spotify,
+                            playerManager.source(PlaylistImportSourceManager.class), context, QUEUE_TRACK_LIMIT);
+                    imports.add(playlistImport);
+                    playlistImport.start();
+                    done();
+                    return;
+                }
+
+                resolutionCache.loadItem(context.identifier, this);
+            } catch (Throwable th) {
+                handleThrowable(context, th);
+                done();
+            }
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack at) {
+            try {
+                if(context.isSplit()){
+                    loadSplit(at, context);
+                } else {
+
+                    if (!context.isQuiet()) {
+                        context.getTextChannel().sendMessage(
+                                gplayer.isPlaying() ?
+                                        MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadSingleTrack"), at.getInfo().title)
+                                        :
+                                        MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadSingleTrackAndPlay"), at.getInfo().title)
+                        ).queue();
+                    } else {
+                        log.info("Quietly loaded " + at.getIdentifier());
+                    }
+
+                    at.setPosition(context.getPosition());
+
+                    trackProvider.add(new AudioTrackContext(at, context.getMember()));
+                    if (!gplayer.isPaused()) {
+                        gplayer.play();
+                    }
+                }
+            } catch (Throwable th) {
+                handleThrowable(context, th);
+            }
+            done();
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist ap) {
+            try {
+                if(context.isSplit()){
+                    TextUtils.replyWithName(context.getTextChannel(), context.getMember(), I18n.get(context.getTextChannel().getGuild()).getString("loadPlaySplitListFail"));
+                    done();
+                    return;
+                }
+
+                context.getTextChannel().sendMessage(
+                        MessageFormat.format(I18n.get(context.getTextChannel().getGuild()).getString("loadListSuccess"), ap.getTracks().size(), ap.getName())
+                ).queue();
+
+                for (AudioTrack at : ap.getTracks()) {
+                    trackProvider.add(new AudioTrackContext(at, context.getMember()));
+                }
+                if (!gplayer.isPaused()) {
+                    gplayer.play();
+                }
+            } catch (Throwable th) {
+                handleThrowable(context, th);
+            }
+            done();
+        }
+
+        @Override
+        public void noMatches() {
+            try {
+                context.getTextChannel().sendMessage(MessageFormat.format(I18n.get(context.getTextChannel().getGuild()).getString("loadNoMatches"), context.identifier)).queue();
+            } catch (Throwable th) {
+                handleThrowable(context, th);
+            }
+            done();
+        }
+
+        @Override
+        public void loadFailed(FriendlyException fe) {
+            handleThrowable(context, fe);
+
+            done();
+        }
+
+        @Override
+        protected void onTimeout() {
+            //the player must not be kept from hibernating by a load that may never call back
+            if (done.compareAndSet(false, true)) {
+                pendingLoads.decrementAndGet();
+            }
+        }
+
+        private void done() {
+            if (done.compareAndSet(false, true)) {
+                pendingLoads.decrementAndGet();
+                finished();
+            }
+        }
     }
 
     @SuppressWarnings("ThrowableResultIgnored")
@@ -336,20 +409,20 @@ public class AudioLoader implements AudioLoadResultHandler {
                 FriendlyException fe = (FriendlyException) th;
                 if (fe.severity == FriendlyException.Severity.COMMON) {
                     if (ic.getTextChannel() != null) {
-                        context.getTextChannel().sendMessage(MessageFormat.format(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorCommon"), context.identifier, fe.getMessage())).queue();
+                        ic.getTextChannel().sendMessage(MessageFormat.format(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorCommon"), ic.identifier, fe.getMessage())).queue();
                     } else {
                         log.error("Error while loading track ", th);
                     }
                 } else if (ic.getTextChannel() != null) {
-                    context.getTextChannel().sendMessage(MessageFormat.format(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorSusp"), context.identifier)).queue();
+                    ic.getTextChannel().sendMessage(MessageFormat.format(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorSusp"), ic.identifier)).queue();
                     Throwable exposed = fe.getCause() == null ? fe : fe.getCause();
-                    TextUtils.handleException(exposed, context.getTextChannel());
+                    TextUtils.handleException(exposed, ic.getTextChannel());
                 } else {
                     log.error("Error while loading track ", th);
                 }
             } else if (ic.getTextChannel() != null) {
-                context.getTextChannel().sendMessage(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorSusp")).queue();
-                TextUtils.handleException(th, context.getTextChannel());
+                ic.getTextChannel().sendMessage(I18n.get(ic.getTextChannel().getGuild()).getString("loadErrorSusp")).queue();
+                TextUtils.handleException(th, ic.getTextChannel());
             } else {
                 log.error("Error while loading track ", th);
             }
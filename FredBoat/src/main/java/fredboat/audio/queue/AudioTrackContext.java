@@ -25,27 +25,45 @@
 
 package fredboat.audio.queue;
 
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import fredboat.FredBoat;
+import fredboat.audio.AbstractPlayer;
+import fredboat.audio.source.PlaceholderAudioTrack;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class AudioTrackContext implements Comparable<AudioTrackContext> {
 
-    protected final AudioTrack track;
-    private final String userId;
-    private final String guildId;
+    private static final Logger log = LoggerFactory.getLogger(AudioTrackContext.class);
+
+    //either the track is alive, or it is kept encoded in the TrackArena, see compact()
+    private AudioTrack track;
+    private TrackArena.Blob encodedTrack = null;
+    //kept around so the queue statistics don't need to decode compacted tracks, updated when a placeholder is resolved
+    private volatile long duration;
+    private volatile boolean stream;
+    private final long userId;
+    private final long guildId;
     private final FredBoat shard;
     private int rand;
     private final int id; //used to identify this track even when the track gets cloned and the rand reranded
 
     public AudioTrackContext(AudioTrack at, Member member) {
         this.track = at;
-        this.userId = member.getUser().getId();
-        this.guildId = member.getGuild().getId();
+        this.duration = at.getDuration();
+        this.stream = at.getInfo().isStream;
+        this.userId = member.getUser().getIdLong();
+        this.guildId = member.getGuild().getIdLong();
         this.shard = FredBoat.getInstance(member.getJDA());
         this.rand = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
         this.id = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
@@ -53,17 +71,116 @@ public class AudioTrackContext implements Comparable<AudioTrackContext> {
 
     public AudioTrackContext(AudioTrack at, Member member, int chronologicalIndex) {
         this.track = at;
-        this.userId = member.getUser().getId();
-        this.guildId = member.getGuild().getId();
+        this.duration = at.getDuration();
+        this.stream = at.getInfo().isStream;
+        this.userId = member.getUser().getIdLong();
+        this.guildId = member.getGuild().getIdLong();
         this.shard = FredBoat.getInstance(member.getJDA());
         this.rand = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
         this.id = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
     }
 
-    public AudioTrack getTrack() {
+    /**
+     * Decodes the track if it has been compacted
+     */
+    public synchronized AudioTrack getTrack() {
+        if (track == null) {
+            if (encodedTrack == null) {
+                throw new IllegalStateException("Attempted to use a compacted track that has been released");
+            }
+            try {
+                ByteArrayInputStream bais = new ByteArrayInputStream(encodedTrack.read());
+                track = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(bais)).decodedTrack;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to decode compacted track", e);
+            }
+            encodedTrack.release();
+            encodedTrack = null;
+        }
         return track;
     }
 
+    /**
+     * Moves the track into the off heap {@link TrackArena}, leaving only a small handle on the heap. It is decoded
+     * again the next time {@link #getTrack()} is called. Tracks that can't be encoded are kept as they are.
+     *
+     * @return true if the track is compacted
+     */
+    public synchronized boolean compact() {
+        if (track == null) return true;
+
+        byte[] encoded;
+        try {
+            encoded = encode();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not encode track {}, keeping it on the heap", track.getIdentifier(), e);
+            return false;
+        }
+
+        encodedTrack = TrackArena.getInstance().store(encoded);
+        track = null;
+        return true;
+    }
+
+    /**
+     * Frees the off heap copy of a compacted track. Called once the track has left the queue for good, a compacted
+     * track can't be used anymore afterwards. Tracks that are alive are not affected.
+     */
+    public synchronized void release() {
+        if (encodedTrack != null) {
+            encodedTrack.release();
+            encodedTrack = null;
+        }
+    }
+
+    /**
+     * Replaces the track with a fresh clone, so it can be played after the old one has already been started once
+     */
+    public synchronized void renewTrack() {
+        AudioTrack old = getTrack();
+        track = old.makeClone();
+        track.setPosition(getStartPosition());
+    }
+
+    /**
+     * Swaps a placeholder for the track it has been resolved to, unless the placeholder isn't our track anymore or
+     * couldn't be resolved
+     */
+    public synchronized void replacePlaceholder(PlaceholderAudioTrack placeholder, AudioTrack resolved) {
+        if (track != placeholder || resolved == null) return;
+
+        //the resolved track is shared with the clones of the placeholder
+        AudioTrack replacement = resolved.makeClone();
+        replacement.setPosition(placeholder.getPosition());
+        track = replacement;
+        duration = resolved.getDuration();
+        stream = resolved.getInfo().isStream;
+    }
+
+    /**
+     * Encodes the track, without decoding it first if it is compacted
+     */
+    public synchronized byte[] encode() throws IOException {
+        if (track == null) {
+            if (encodedTrack == null) {
+                throw new IOException("The compacted track has been released");
+            }
+            return encodedTrack.read();
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        AbstractPlayer.getPlayerManager().encodeTrack(new MessageOutput(baos), track);
+        return baos.toByteArray();
+    }
+
+    public synchronized boolean isCompacted() {
+        return track == null;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+
     public Member getMember() {
         //if we can't find the user anymore
         //work around tons of null pointer exceptions throwing/handling by setting fredboat as the owner of the song
@@ -77,6 +194,10 @@ public class AudioTrackContext implements Comparable<AudioTrackContext> {
         return songOwner;
     }
 
+    public long getUserId() {
+        return userId;
+    }
+
     public int getRand() {
         return rand;
     }
@@ -95,23 +216,23 @@ public class AudioTrackContext implements Comparable<AudioTrackContext> {
     }
 
     public AudioTrackContext makeClone() {
-        return new AudioTrackContext(track.makeClone(), getMember());
+        return new AudioTrackContext(getTrack().makeClone(), getMember());
     }
 
     public long getEffectiveDuration() {
-        return track.getDuration();
+        return duration;
     }
 
     public long getEffectivePosition() {
-        return track.getPosition();
+        return getTrack().getPosition();
     }
 
     public void setEffectivePosition(long position) {
-        track.setPosition(position);
+        getTrack().setPosition(position);
     }
 
     public String getEffectiveTitle() {
-        return track.getInfo().title;
+        return getTrack().getInfo().title;
     }
 
     public long getStartPosition() {
@@ -136,18 +257,19 @@ public class AudioTrackContext implements Comparable<AudioTrackContext> {
 
         AudioTrackContext that = (AudioTrackContext) o;
 
+        //compare ids instead of the tracks, which may be compacted
         if (getRand() != that.getRand()) return false;
-        if (!getTrack().equals(that.getTrack())) return false;
-        if (!userId.equals(that.userId)) return false;
-        return guildId.equals(that.guildId);
+        if (getId() != that.getId()) return false;
+        if (userId != that.userId) return false;
+        return guildId == that.guildId;
 
     }
 
     @Override
     public int hashCode() {
-        int result = getTrack().hashCode();
-        result = 31 * result + userId.hashCode();
-        result = 31 * result + guildId.hashCode();
+        int result = getId();
+        result = 31 * result + Long.hashCode(userId);
+        result = 31 * result + Long.hashCode(guildId);
         result = 31 * result + getRand();
         return result;
     }
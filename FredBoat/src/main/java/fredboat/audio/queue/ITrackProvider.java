@@ -31,6 +31,10 @@ public interface ITrackProvider {
     
     AudioTrackContext provideAudioTrack(boolean skipped);
     
+    /**
+     * @return the track that the next call of provideAudioTrack(false) is going to return, respecting the repeat mode,
+     * or null if there is none. Tracks returned by this are not removed from the queue.
+     */
     AudioTrackContext getNext();
 
     List<AudioTrackContext> getAsList();
@@ -41,6 +45,9 @@ public interface ITrackProvider {
     
     void add(AudioTrackContext track);
     
+    /**
+     * Tracks that are removed or cleared from the queue are released, see {@link AudioTrackContext#release()}
+     */
     void clear();
 
     boolean remove(AudioTrackContext atc);
@@ -48,5 +55,24 @@ public interface ITrackProvider {
     AudioTrackContext removeAt(int i);
 
     List<AudioTrackContext> getInRange(int startIndex, int endIndex);
-    
+
+    /**
+     * The following statistics are kept up to date as the queue changes and are cheap to call
+     */
+    int size();
+
+    /**
+     * @return total duration of all queued tracks in milliseconds, not counting live streams
+     */
+    long getTotalDuration();
+
+    int getStreamCount();
+
+    int getTrackCount(long userId);
+
+    /**
+     * @return a counter that changes whenever the content or the order of the queue changes
+     */
+    long getModCount();
+
 }
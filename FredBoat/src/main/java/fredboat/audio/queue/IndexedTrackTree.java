@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An order statistic tree (a treap) of tracks, sorted by a pair of long keys.
+ * <p>
+ * Inserting, removing and accessing tracks by their position all take O(log n), so huge queues can be listed and
+ * skipped through without copying and sorting them first.
+ * <p>
+ * This class is not thread safe, the track provider owning it has to take care of that.
+ */
+class IndexedTrackTree {
+
+    private Node root = null;
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    void clear() {
+        root = null;
+    }
+
+    /**
+     * Keys have to be unique, inserting a track with a key that is already present results in undefined ordering.
+     */
+    void insert(long primary, long secondary, AudioTrackContext track) {
+        Node[] parts = split(root, primary, secondary);
+        root = merge(merge(parts[0], new Node(primary, secondary, track)), parts[1]);
+    }
+
+    /**
+     * @return the removed track or null if there is no track with the given keys
+     */
+    AudioTrackContext remove(long primary, long secondary) {
+        Node[] parts = split(root, primary, secondary);
+        Node[] rest = splitAt(parts[1], 1);
+        Node match = rest[0];
+
+        if (match != null && match.primary == primary && match.secondary == secondary) {
+            root = merge(parts[0], rest[1]);
+            return match.track;
+        }
+
+        root = merge(parts[0], merge(rest[0], rest[1]));
+        return null;
+    }
+
+    /**
+     * @return the track at the given position or null if the index is out of bounds
+     */
+    AudioTrackContext get(int index) {
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.track;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all tracks inclusively between the two positions, in order
+     */
+    List<AudioTrackContext> getInRange(int startIndex, int endIndex) {
+        List<AudioTrackContext> result = new ArrayList<>(Math.max(0, Math.min(endIndex, size() - 1) - startIndex + 1));
+        collect(root, 0, startIndex, endIndex, result);
+        return result;
+    }
+
+    List<AudioTrackContext> toList() {
+        return getInRange(0, size() - 1);
+    }
+
+    private static void collect(Node node, int offset, int startIndex, int endIndex, List<AudioTrackContext> out) {
+        if (node == null) return;
+
+        int index = offset + size(node.left);
+        if (startIndex < index) collect(node.left, offset, startIndex, endIndex, out);
+        if (index >= startIndex && index <= endIndex) out.add(node.track);
+        if (endIndex > index) collect(node.right, index + 1, startIndex, endIndex, out);
+    }
+
+    /**
+     * Splits the tree into nodes with keys lower than the given ones [0] and nodes with keys equal or higher [1]
+     */
+    private static Node[] split(Node node, long primary, long secondary) {
+        if (node == null) return new Node[2];
+
+        Node[] parts;
+        if (node.compareTo(primary, secondary) < 0) {
+            parts = split(node.right, primary, secondary);
+            node.right = parts[0];
+            parts[0] = node.update();
+        } else {
+            parts = split(node.left, primary, secondary);
+            node.left = parts[1];
+            parts[1] = node.update();
+        }
+        return parts;
+    }
+
+    /**
+     * Splits the tree into the first count nodes [0] and the remaining ones [1]
+     */
+    private static Node[] splitAt(Node node, int count) {
+        if (node == null) return new Node[2];
+
+        Node[] parts;
+        int leftSize = size(node.left);
+        if (leftSize < count) {
+            parts = splitAt(node.right, count - leftSize - 1);
+            node.right = parts[0];
+            parts[0] = node.update();
+        } else {
+            parts = splitAt(node.left, count);
+            node.left = parts[1];
+            parts[1] = node.update();
+        }
+        return parts;
+    }
+
+    /**
+     * All keys of the left tree have to be lower than the keys of the right tree
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return left.update();
+        } else {
+            right.left = merge(left, right.left);
+            return right.update();
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static class Node {
+        final long primary;
+        final long secondary;
+        final AudioTrackContext track;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(long primary, long secondary, AudioTrackContext track) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.track = track;
+        }
+
+        int compareTo(long otherPrimary, long otherSecondary) {
+            int result = Long.compare(primary, otherPrimary);
+            return result != 0 ? result : Long.compare(secondary, otherSecondary);
+        }
+
+        Node update() {
+            size = 1 + size(left) + size(right);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio.queue;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which of the loads requested by all guilds run next.
+ * <p>
+ * Every guild has its own queue of loads, and the guilds take turns in a weighted fair manner (stride scheduling):
+ * a guild whose next load is a single track gets several turns for each turn of a guild loading a playlist, and a guild
+ * can't have more than a few loads running at once, no matter how many it requested. Loads of the same guild run in
+ * the order they were requested.
+ * <p>
+ * The number of loads running at the same time over all guilds is capped. The cap grows while loads are fast and
+ * shrinks when they get slow, so a struggling source isn't buried under even more requests. A load that doesn't finish
+ * in time gives up its place, so a hanging source can't use up the cap for good.
+ */
+public class LoadScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadScheduler.class);
+
+    //loads a single guild may have running at the same time, more than one may add tracks out of order
+    private static final int GUILD_IN_FLIGHT_LIMIT = 1;
+    private static final int MIN_CONCURRENCY = 8;
+    public static final int MAX_CONCURRENCY = 200;
+    private static final int INITIAL_CONCURRENCY = 50;
+    //loads taking longer than this on average make the cap shrink
+    private static final long TARGET_LATENCY_MILLIS = 2000;
+    //a load still running after this long counts as finished
+    private static final long LOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long DECREASE_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final double EWMA_WEIGHT = 0.1;
+    private static final long STRIDE = 1 << 20;
+
+    private static LoadScheduler instance;
+
+    //all fields below are guarded by this
+    private final Long2ObjectOpenHashMap<Flow> flows = new Long2ObjectOpenHashMap<>();
+    //flows with queued loads that are allowed to run another one, ordered by their pass
+    private final PriorityQueue<Flow> ready = new PriorityQueue<>((a, b) -> Long.compare(a.pass, b.pass));
+    private long virtualTime = 0;
+    private double concurrencyLimit = INITIAL_CONCURRENCY;
+    private long lastDecrease = 0;
+    private int inFlight = 0;
+    private int queued = 0;
+    private double avgWaitMillis = 0;
+    private double avgLoadMillis = 0;
+
+    private final AtomicLong started = new AtomicLong();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timeouts;
+
+    LoadScheduler() {
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        //the loads hand most of their work off to lavaplayer, the threads only run their preparations
+        //loads that timed out may still hold on to a thread, so the pool is capped on its own, too
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "load-scheduler-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        workers = pool;
+        timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-scheduler-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static synchronized LoadScheduler getInstance() {
+        if (instance == null) {
+            instance = new LoadScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Queues a load of a guild. It is started on one of the scheduler's threads once it is its turn, and has to report
+     * back through {@link Load#finished()} when it is done.
+     */
+    public void submit(long guildId, Priority priority, Load load) {
+        load.scheduler = this;
+        load.guildId = guildId;
+        load.priority = priority;
+        load.enqueued = System.currentTimeMillis();
+
+        synchronized (this) {
+            Flow flow = flows.get(guildId);
+            if (flow == null) {
+                flow = new Flow();
+                flows.put(guildId, flow);
+            }
+            flow.queue.add(load);
+            queued++;
+
+            if (flow.queue.size() == 1 && flow.inFlight < GUILD_IN_FLIGHT_LIMIT) {
+                //a guild that had nothing to do doesn't get to make up for the time it was idle
+                flow.pass = Math.max(flow.pass, virtualTime);
+                ready.add(flow);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts as many loads as the concurrency cap allows
+     */
+    private void dispatch() {
+        while (true) {
+            Load load;
+            synchronized (this) {
+                if (inFlight >= (int) concurrencyLimit || ready.isEmpty()) {
+                    return;
+                }
+
+                Flow flow = ready.poll();
+                load = flow.queue.poll();
+                queued--;
+                inFlight++;
+                flow.inFlight++;
+                virtualTime = flow.pass;
+                flow.pass += STRIDE / load.priority.weight;
+                if (!flow.queue.isEmpty() && flow.inFlight < GUILD_IN_FLIGHT_LIMIT) {
+                    ready.add(flow);
+                }
+
+                long now = System.currentTimeMillis();
+                load.started = now;
+                avgWaitMillis += EWMA_WEIGHT * ((now - load.enqueued) - avgWaitMillis);
+            }
+
+            started.incrementAndGet();
+            load.timeout = timeouts.schedule(() -> onTimeout(load), LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            workers.execute(() -> {
+                try {
+                    load.run();
+                } catch (Throwable t) {
+                    log.error("Uncaught exception while starting a load", t);
+                    load.finished();
+                }
+            });
+        }
+    }
+
+    private void onTimeout(Load load) {
+        synchronized (this) {
+            if (load.done) return;
+        }
+        log.warn("A load of guild " + load.guildId + " didn't finish within " + LOAD_TIMEOUT_MILLIS + "ms, no longer waiting for it");
+        try {
+            load.onTimeout();
+        } catch (Throwable t) {
+            log.error("Uncaught exception while timing out a load", t);
+        }
+        onFinished(load);
+    }
+
+    private void onFinished(Load load) {
+        synchronized (this) {
+            if (load.done) return;
+            load.done = true;
+            ScheduledFuture<?> timeout = load.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+
+            long now = System.currentTimeMillis();
+            long took = now - load.started;
+            avgLoadMillis += EWMA_WEIGHT * (took - avgLoadMillis);
+
+            //additive increase while we are using the whole cap, multiplicative decrease when loads got slow
+            if (avgLoadMillis > TARGET_LATENCY_MILLIS) {
+                if (now - lastDecrease > DECREASE_COOLDOWN_MILLIS && concurrencyLimit > MIN_CONCURRENCY) {
+                    concurrencyLimit = Math.max(MIN_CONCURRENCY, concurrencyLimit * 0.75);
+                    lastDecrease = now;
+                    log.info("Loads take " + (long) avgLoadMillis + "ms on average, lowering the concurrency cap to " + (int) concurrencyLimit);
+                }
+            } else if (inFlight >= (int) concurrencyLimit) {
+                concurrencyLimit = Math.min(MAX_CONCURRENCY, concurrencyLimit + 1 / concurrencyLimit);
+            }
+
+            inFlight--;
+            Flow flow = flows.get(load.guildId);
+            flow.inFlight--;
+            if (flow.queue.isEmpty()) {
+                if (flow.inFlight == 0) {
+                    flows.remove(load.guildId);
+                }
+            } else if (flow.inFlight == GUILD_IN_FLIGHT_LIMIT - 1) {
+                //the flow was waiting for this load to finish
+                ready.add(flow);
+            }
+        }
+        dispatch();
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getConcurrencyLimit() {
+        return (int) concurrencyLimit;
+    }
+
+    /**
+     * @return moving average of the time loads waited in the queue before they were started
+     */
+    public synchronized long getAverageWaitMillis() {
+        return (long) avgWaitMillis;
+    }
+
+    /**
+     * @return moving average of the time loads took once started
+     */
+    public synchronized long getAverageLoadMillis() {
+        return (long) avgLoadMillis;
+    }
+
+    /**
+     * @return how long the load that has been waiting the longest has been waiting so far
+     */
+    public synchronized long getLongestWaitMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Flow flow : flows.values()) {
+            Load head = flow.queue.peek();
+            if (head != null) {
+                oldest = Math.min(oldest, head.enqueued);
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public enum Priority {
+        //single tracks and searches, people are waiting for these
+        TRACK(4),
+        //playlists, which may take a while anyways
+        PLAYLIST(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A load waiting for its turn. Implementations must call {@link #finished()} exactly once when they are done,
+     * otherwise their guild waits for the timeout, see {@link #onTimeout()}.
+     */
+    public abstract static class Load implements Runnable {
+        private LoadScheduler scheduler;
+        private long guildId;
+        private Priority priority;
+        private long enqueued;
+        private long started;
+        private volatile ScheduledFuture<?> timeout;
+        private boolean done = false;
+
+        protected void finished() {
+            scheduler.onFinished(this);
+        }
+
+        /**
+         * Called when the scheduler stopped waiting for this load, which counts as finished from now on. The load
+         * may still be running and call back later.
+         */
+        protected void onTimeout() {
+        }
+    }
+
+    private static class Flow {
+        final ArrayDeque<Load> queue = new ArrayDeque<>();
+        int inFlight = 0;
+        long pass = 0;
+    }
+}
@@ -25,179 +25,280 @@
 
 package fredboat.audio.queue;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.audio.source.PlaceholderAudioTrack;
+import fredboat.feature.togglz.FeatureFlags;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
 
 public class SimpleTrackProvider extends AbstractTrackProvider {
 
-    private volatile ConcurrentLinkedQueue<AudioTrackContext> queue = new ConcurrentLinkedQueue<>();
+    //this many tracks at the head of the queue are kept decoded and have their placeholders resolved
+    private static final int HEAD_SIZE = 3;
+
+    //the queue is kept in two trees, one in the order tracks have been added and one in shuffled order
+    //this keeps positional access and removal at O(log n) for both modes, no matter how often shuffle is toggled
+    private final IndexedTrackTree chronological = new IndexedTrackTree();
+    private final IndexedTrackTree shuffled = new IndexedTrackTree();
+    private final Map<AudioTrackContext, QueueEntry> entries = new IdentityHashMap<>();
+    private long nextSequence = 0;
     private AudioTrackContext lastTrack = null;
-    private List<AudioTrackContext> cachedShuffledQueue = new ArrayList<>();
-    private boolean shouldUpdateShuffledQueue = true;
+    //clone of the last track handed out by getNext() when repeating, so the same object will be provided afterwards
+    private AudioTrackContext nextClone = null;
+
+    //running aggregates of the queue
+    private long totalDuration = 0;
+    private int streamCount = 0;
+    private final Long2IntOpenHashMap userTrackCounts = new Long2IntOpenHashMap();
+    private long modCount = 0;
 
     @Override
-    public AudioTrackContext getNext() {
-        if (!isShuffle()) {
-            return queue.peek();
-        } else {
-            return getAsListOrdered().get(0);
+    public synchronized AudioTrackContext getNext() {
+        if (lastTrack != null
+                && (getRepeatMode() == RepeatMode.SINGLE || (getRepeatMode() == RepeatMode.ALL && entries.isEmpty()))) {
+            return getNextClone();
         }
+        return getOrderedTree().get(0);
     }
 
     @Override
-    public AudioTrackContext provideAudioTrack(boolean skipped) {
+    public synchronized AudioTrackContext provideAudioTrack(boolean skipped) {
         if (getRepeatMode() == RepeatMode.SINGLE && !skipped && lastTrack != null) {
-            return lastTrack.makeClone();
+            AudioTrackContext clone = getNextClone();
+            nextClone = null;
+            return clone;
         }
         if (getRepeatMode() == RepeatMode.ALL && lastTrack != null) {
             //add a fresh copy of the last track back to the queue, if the queue is being repeated
-            AudioTrackContext clone = lastTrack.makeClone();
+            AudioTrackContext clone = getNextClone();
             if (isShuffle()) {
                 clone.setRand(Integer.MAX_VALUE); //put it at the back of the shuffled queue
-                shouldUpdateShuffledQueue = true;
             }
-            queue.add(clone);
+            insert(clone);
         }
-        if (isShuffle()) {
-            List<AudioTrackContext> list = getAsListOrdered();
+        nextClone = null;
 
-            if (list.isEmpty()) {
-                return null;
-            }
-
-            shouldUpdateShuffledQueue = true;
-            lastTrack = list.get(0);
-            queue.remove(lastTrack);
-            return lastTrack;
-        } else {
-            lastTrack = queue.poll();
-            return lastTrack;
+        lastTrack = getOrderedTree().get(0);
+        if (lastTrack != null) {
+            //the track is about to be played, so it must not be released
+            detach(lastTrack);
+            prepareHead();
         }
+        return lastTrack;
     }
 
-    public boolean remove(AudioTrackContext atc) {
-        if (queue.remove(atc)) {
-            shouldUpdateShuffledQueue = true;
-            return true;
-        } else {
+    @Override
+    public synchronized boolean remove(AudioTrackContext atc) {
+        if (!detach(atc)) {
             return false;
         }
+        atc.release();
+        //other tracks may have moved up into the head
+        prepareHead();
+        return true;
     }
 
     @Override
-    public AudioTrackContext removeAt(int i) {
-        if (queue.size() < i) {
-            return null;
-        } else {
-            int i2 = 0;
-            for (AudioTrackContext obj : getAsListOrdered()) {
-                if (i == i2) {
-                    shouldUpdateShuffledQueue = true;
-                    //noinspection SuspiciousMethodCalls
-                    queue.remove(obj);
-                    return obj;
-                }
-                i2++;
-            }
+    public synchronized AudioTrackContext removeAt(int i) {
+        AudioTrackContext atc = getOrderedTree().get(i);
+        if (atc != null) {
+            remove(atc);
         }
-
-        return null;
+        return atc;
     }
 
     /**
      * Returns all songs inclusively from one index till the another in a non-bitching way.
      */
     @Override
-    public List<AudioTrackContext> getInRange(int indexA, int indexB) {
+    public synchronized List<AudioTrackContext> getInRange(int indexA, int indexB) {
 
         //make sure startIndex <= endIndex
         int startIndex = indexA < indexB ? indexA : indexB;
         int endIndex = indexA < indexB ? indexB : indexA;
 
-        //Collect tracks inclusively between the two indices
-        int i = 0;
-        List<AudioTrackContext> result = new ArrayList<>();
-        for (AudioTrackContext atc : getAsListOrdered()) {
-            if (i >= startIndex && i <= endIndex)
-                result.add(atc);
-            i++;
-            if (i > endIndex) break;//abort early if we're done
+        return getOrderedTree().getInRange(startIndex, endIndex);
+    }
+
+    @Override
+    public synchronized List<AudioTrackContext> getAsList() {
+        return chronological.toList();
+    }
+
+    public synchronized void reshuffle() {
+        //every rand changes, so rebuilding the shuffled tree is as cheap as it gets
+        shuffled.clear();
+        for (Map.Entry<AudioTrackContext, QueueEntry> e : entries.entrySet()) {
+            QueueEntry entry = new QueueEntry(e.getValue().sequence, e.getKey().randomize());
+            e.setValue(entry);
+            shuffled.insert(entry.rand, entry.sequence, e.getKey());
         }
+        modCount++;
+        prepareHead();
+    }
 
-        //trigger shuffle queue update if we found tracks to remove
-        if (result.size() > 0) shouldUpdateShuffledQueue = true;
-        return result;
+    @Override
+    public synchronized List<AudioTrackContext> getAsListOrdered() {
+        return getOrderedTree().toList();
     }
 
     @Override
-    public List<AudioTrackContext> getAsList() {
-        return new ArrayList<>(queue);
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
     }
 
     @Override
-    public void setShuffle(boolean shuffle) {
-        super.setShuffle(shuffle);
-        //this is needed because, related to the repeat all mode, turning shuffle off, skipping a track, turning shuffle
-        //on will cause an incorrect playlist to show with the list command and may lead to a bug of an
-        //IllegalStateException due to trying to play the same AudioTrack object twice
-        if (shuffle) shouldUpdateShuffledQueue = true;
+    public synchronized void add(AudioTrackContext track) {
+        insert(track);
     }
 
-    public synchronized void reshuffle() {
-        queue.forEach(AudioTrackContext::randomize);
-        shouldUpdateShuffledQueue = true;
+    @Override
+    public synchronized void clear() {
+        lastTrack = null;
+        nextClone = null;
+        entries.keySet().forEach(AudioTrackContext::release);
+        chronological.clear();
+        shuffled.clear();
+        entries.clear();
+        totalDuration = 0;
+        streamCount = 0;
+        userTrackCounts.clear();
+        modCount++;
     }
 
     @Override
-    public synchronized List<AudioTrackContext> getAsListOrdered() {
-        if (!isShuffle()) {
-            return getAsList();
-        }
+    public synchronized int size() {
+        return entries.size();
+    }
 
-        if (!shouldUpdateShuffledQueue) {
-            return cachedShuffledQueue;
+    @Override
+    public synchronized long getTotalDuration() {
+        return totalDuration;
+    }
+
+    @Override
+    public synchronized int getStreamCount() {
+        return streamCount;
+    }
+
+    @Override
+    public synchronized int getTrackCount(long userId) {
+        return userTrackCounts.get(userId);
+    }
+
+    @Override
+    public synchronized long getModCount() {
+        return modCount;
+    }
+
+    @Override
+    public synchronized void setShuffle(boolean shuffle) {
+        super.setShuffle(shuffle);
+        modCount++;
+        prepareHead();
+    }
+
+    private AudioTrackContext getNextClone() {
+        if (nextClone == null) {
+            nextClone = lastTrack.makeClone();
         }
+        return nextClone;
+    }
 
-        List<AudioTrackContext> newList = new ArrayList<>();
+    private IndexedTrackTree getOrderedTree() {
+        return isShuffle() ? shuffled : chronological;
+    }
 
-        //Update the new queue
-        newList.addAll(getAsList());
+    /**
+     * Takes the track out of the queue without releasing it
+     *
+     * @return false if the track was not queued
+     */
+    private boolean detach(AudioTrackContext atc) {
+        QueueEntry entry = entries.remove(atc);
+        if (entry == null) {
+            return false;
+        }
 
-        Collections.sort(newList);
+        chronological.remove(entry.sequence, 0);
+        shuffled.remove(entry.rand, entry.sequence);
+        account(atc, -1);
+        modCount++;
+        return true;
+    }
 
-        //adjust rand values so they are evenly spread out
-        int i = 0;
-        int size = newList.size();
-        for (AudioTrackContext atc : newList) {
-            //this will calculate a value between 0.0 < rand < 1.0 multiplied by the full integer range
-            int rand = (int) (((i / (size + 1.0)) + (1.0 / (size + 1.0))) * Integer.MAX_VALUE);
-            atc.setRand(rand);
-            i++;
+    private void insert(AudioTrackContext track) {
+        if (entries.containsKey(track)) {
+            //lavaplayer can't play the very same track object twice anyways
+            return;
         }
 
-        cachedShuffledQueue = newList;
+        //the rand of a track may change while it is queued, so we remember the one it has been sorted in with
+        QueueEntry entry = new QueueEntry(nextSequence++, track.getRand());
+        entries.put(track, entry);
+        chronological.insert(entry.sequence, 0, track);
+        shuffled.insert(entry.rand, entry.sequence, track);
+        account(track, 1);
+        modCount++;
 
-        shouldUpdateShuffledQueue = false;
-        return newList;
+        if (entries.size() > HEAD_SIZE && FeatureFlags.COMPACT_QUEUE.isActive()) {
+            track.compact();
+        } else if (entries.size() <= HEAD_SIZE) {
+            prepareHead();
+        }
     }
 
-    @Override
-    public boolean isEmpty() {
-        return queue.isEmpty();
+    /**
+     * Decodes the tracks that are about to be played and starts looking up the placeholders among them, so they are
+     * ready when needed
+     */
+    private void prepareHead() {
+        for (AudioTrackContext atc : getOrderedTree().getInRange(0, HEAD_SIZE - 1)) {
+            AudioTrack track = atc.getTrack();
+            if (track instanceof PlaceholderAudioTrack) {
+                PlaceholderAudioTrack placeholder = (PlaceholderAudioTrack) track;
+                placeholder.resolve().thenAccept(resolved -> replacePlaceholder(atc, placeholder, resolved));
+            }
+        }
     }
 
-    @Override
-    public void add(AudioTrackContext track) {
-        shouldUpdateShuffledQueue = true;
-        queue.add(track);
+    private synchronized void replacePlaceholder(AudioTrackContext atc, PlaceholderAudioTrack placeholder, AudioTrack resolved) {
+        //once the track has left the queue it may be playing already, and has to resolve itself
+        if (entries.containsKey(atc)) {
+            //the placeholder counted with a length of 0, the queue aggregates need the real one
+            account(atc, -1);
+            atc.replacePlaceholder(placeholder, resolved);
+            account(atc, 1);
+            modCount++;
+        }
     }
 
-    @Override
-    public void clear() {
-        lastTrack = null;
-        shouldUpdateShuffledQueue = true;
-        queue.clear();
+    /**
+     * Updates the running aggregates for a track being added (sign = 1) or removed (sign = -1)
+     */
+    private void account(AudioTrackContext track, int sign) {
+        //Live streams are considered to have a length of 0
+        if (track.isStream()) {
+            streamCount += sign;
+        } else {
+            totalDuration += sign * track.getEffectiveDuration();
+        }
+
+        if (userTrackCounts.addTo(track.getUserId(), sign) + sign <= 0) {
+            userTrackCounts.remove(track.getUserId());
+        }
+    }
+
+    private static class QueueEntry {
+        final long sequence;
+        final int rand;
+
+        QueueEntry(long sequence, int rand) {
+            this.sequence = sequence;
+            this.rand = rand;
+        }
     }
 }
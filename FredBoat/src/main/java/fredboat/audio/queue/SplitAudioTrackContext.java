@@ -48,12 +48,12 @@ public class SplitAudioTrackContext extends AudioTrackContext {
 
     @Override
     public long getEffectivePosition() {
-        return track.getPosition() - startPos;
+        return getTrack().getPosition() - startPos;
     }
 
     @Override
     public void setEffectivePosition(long position) {
-        track.setPosition(startPos + position);
+        getTrack().setPosition(startPos + position);
     }
 
     @Override
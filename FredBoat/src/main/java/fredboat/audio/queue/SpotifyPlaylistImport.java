@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio.queue;
+
+import fredboat.audio.GuildPlayer;
+import fredboat.audio.source.PlaceholderAudioTrack;
+import fredboat.audio.source.PlaylistImportSourceManager;
+import fredboat.audio.source.SpotifyPlaylistSourceManager;
+import fredboat.feature.I18n;
+import fredboat.util.TextUtils;
+import fredboat.util.rest.SpotifyAPIWrapper;
+import net.dv8tion.jda.core.entities.Message;
+import org.slf4j.LoggerFactory;
+
+import java.text.MessageFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports a Spotify playlist into the queue of a guild while it is still being fetched.
+ * <p>
+ * The tracks of each page are queued in playlist order as soon as the page arrives, as placeholders that are searched
+ * for once they are about to be played (see {@link PlaceholderAudioTrack}), so the first song starts playing right
+ * away no matter how big the playlist is.
+ */
+class SpotifyPlaylistImport implements Runnable {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(SpotifyPlaylistImport.class);
+
+    private static final long PROGRESS_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    //fetching the pages takes a while, but there is no point in fetching many at once
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+    private static final ExecutorService IMPORTS = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "playlist-import-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AudioLoader loader;
+    private final ITrackProvider trackProvider;
+    private final GuildPlayer gplayer;
+    private final SpotifyPlaylistSourceManager spotify;
+    private final PlaylistImportSourceManager placeholderSource;
+    private final IdentifierContext context;
+    private final int queueTrackLimit;
+
+    //guarded by this
+    private String playlistName = "Spotify Playlist";
+    private int tracksTotal = 0;
+    private int tracksLoaded = 0;
+    private boolean finished = false;
+    private Message progressMessage = null;
+    private long lastProgressUpdate = 0;
+
+    private volatile boolean cancelled = false;
+    private volatile Future<?> task = null;
+
+    SpotifyPlaylistImport(AudioLoader loader, ITrackProvider trackProvider, GuildPlayer gplayer,
+                          SpotifyPlaylistSourceManager spotify, PlaylistImportSourceManager placeholderSource,
+                          IdentifierContext context, int queueTrackLimit) {
+        this.loader = loader;
+        this.trackProvider = trackProvider;
+        this.gplayer = gplayer;
+        this.spotify = spotify;
+        this.placeholderSource = placeholderSource;
+        this.context = context;
+        this.queueTrackLimit = queueTrackLimit;
+    }
+
+    void start() {
+        task = IMPORTS.submit(this);
+    }
+
+    /**
+     * Stops the import. Tracks that have been added to the queue already stay there.
+     */
+    void cancel() {
+        cancelled = true;
+        Future<?> t = task;
+        if (t != null) {
+            t.cancel(true);
+        }
+        finish();
+    }
+
+    @Override
+    public void run() {
+        String[] data = spotify.parse(context.identifier);
+        SpotifyAPIWrapper api = SpotifyAPIWrapper.getApi();
+        try {
+            PlaylistInfo plData = api.getPlaylistDataBlocking(data[0], data[1]);
+            synchronized (this) {
+                if (plData.getName() != null && !"".equals(plData.getName())) {
+                    playlistName = plData.getName();
+                }
+                tracksTotal = plData.getTotalTracks();
+            }
+            log.info("Retrieved playlist data for " + playlistName + " from Spotify, streaming " + tracksTotal + " tracks");
+
+            context.getTextChannel().sendMessage(getProgressText()).queue(message -> {
+                synchronized (this) {
+                    progressMessage = message;
+                }
+            });
+
+            api.getPlaylistTracksSearchTermsBlocking(data[0], data[1], page -> {
+                for (String searchTerm : page) {
+                    if (cancelled) {
+                        return false;
+                    }
+                    if (gplayer.getSongCount() >= queueTrackLimit) {
+                        TextUtils.replyWithName(gplayer.getActiveTextChannel(), context.getMember(),
+                                MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadQueueTrackLimit"), queueTrackLimit));
+                        cancel();
+                        return false;
+                    }
+
+                    trackProvider.add(new AudioTrackContext(PlaceholderAudioTrack.forSearch(searchTerm, placeholderSource), context.getMember()));
+                    synchronized (this) {
+                        tracksLoaded++;
+                    }
+                }
+
+                if (!gplayer.isPaused()) {
+                    gplayer.play();
+                }
+                synchronized (this) {
+                    if (System.currentTimeMillis() - lastProgressUpdate > PROGRESS_INTERVAL_MILLIS) {
+                        updateProgress();
+                    }
+                }
+                return !cancelled;
+            });
+
+            finish();
+        } catch (Exception e) {
+            if (cancelled) return;
+
+            log.warn("Could not retrieve playlist " + data[1] + " of user " + data[0], e);
+            cancel();
+            context.getTextChannel().sendMessage(MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadErrorCommon"),
+                    context.identifier, "Couldn't load playlist. Either Spotify is down or the playlist does not exist.")).queue();
+        }
+    }
+
+    private synchronized void finish() {
+        if (finished) return;
+        finished = true;
+
+        updateProgress();
+        loader.importFinished(this);
+        if (!cancelled) {
+            context.getTextChannel().sendMessage(
+                    MessageFormat.format(I18n.get(context.getTextChannel().getGuild()).getString("loadListSuccess"), tracksLoaded, playlistName)
+            ).queue();
+        }
+    }
+
+    private synchronized void updateProgress() {
+        lastProgressUpdate = System.currentTimeMillis();
+        if (progressMessage != null) {
+            progressMessage.editMessage(getProgressText()).queue();
+        }
+    }
+
+    private synchronized String getProgressText() {
+        return MessageFormat.format(I18n.get(context.getMember().getGuild()).getString("loadAnnouncePlaylist"), playlistName, tracksTotal)
+                + " `[" + tracksLoaded + "/" + tracksTotal + "]`";
+    }
+}
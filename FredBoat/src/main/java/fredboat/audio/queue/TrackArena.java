@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps encoded tracks in direct memory, outside of the java heap.
+ * <p>
+ * Blobs are appended to big chunks of direct memory. A chunk is given back as soon as all blobs stored in it have been
+ * released, so the arena may hold on to some released blobs until their neighbours have been played or removed, too.
+ * Queued tracks release their blob when they leave the queue, see {@link AudioTrackContext#release()}.
+ */
+public class TrackArena {
+
+    private static final int CHUNK_SIZE = 1024 * 1024; // 1 MB
+
+    private static final TrackArena INSTANCE = new TrackArena(CHUNK_SIZE);
+
+    public static TrackArena getInstance() {
+        return INSTANCE;
+    }
+
+    private final int chunkSize;
+    private Chunk current = null;
+
+    private long reservedBytes = 0;
+    private long usedBytes = 0;
+    private long blobCount = 0;
+
+    TrackArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public synchronized Blob store(byte[] data) {
+        Chunk chunk;
+        if (data.length > chunkSize) {
+            //oversized blobs get a chunk of their own
+            chunk = newChunk(data.length);
+        } else {
+            if (current == null || current.buffer.remaining() < data.length) {
+                current = newChunk(chunkSize);
+            }
+            chunk = current;
+        }
+
+        int offset = chunk.buffer.position();
+        chunk.buffer.put(data);
+        chunk.liveBlobs++;
+        usedBytes += data.length;
+        blobCount++;
+        return new Blob(this, chunk, offset, data.length);
+    }
+
+    private synchronized byte[] read(Blob blob) {
+        if (blob.released) {
+            throw new IllegalStateException("Attempted to read a released blob");
+        }
+
+        byte[] data = new byte[blob.length];
+        ByteBuffer view = blob.chunk.buffer.duplicate();
+        view.position(blob.offset);
+        view.get(data);
+        return data;
+    }
+
+    private synchronized void release(Blob blob) {
+        if (blob.released) return;
+
+        blob.released = true;
+        blob.chunk.liveBlobs--;
+        usedBytes -= blob.length;
+        blobCount--;
+
+        //the chunk is dropped once nothing references it anymore, which frees the direct memory
+        if (blob.chunk.liveBlobs == 0) {
+            reservedBytes -= blob.chunk.buffer.capacity();
+            if (blob.chunk == current) {
+                current = null;
+            }
+        }
+    }
+
+    private Chunk newChunk(int size) {
+        reservedBytes += size;
+        return new Chunk(ByteBuffer.allocateDirect(size));
+    }
+
+    /**
+     * @return direct memory held by this arena in bytes
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return bytes of direct memory that are used by stored blobs
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getBlobCount() {
+        return blobCount;
+    }
+
+    private static class Chunk {
+        final ByteBuffer buffer;
+        int liveBlobs = 0;
+
+        Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    public static class Blob {
+        private final TrackArena arena;
+        private final Chunk chunk;
+        private final int offset;
+        private final int length;
+        private boolean released = false;
+
+        private Blob(TrackArena arena, Chunk chunk, int offset, int length) {
+            this.arena = arena;
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public byte[] read() {
+            return arena.read(this);
+        }
+
+        /**
+         * Frees the space of this blob. It can't be read anymore afterwards.
+         */
+        public void release() {
+            arena.release(this);
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
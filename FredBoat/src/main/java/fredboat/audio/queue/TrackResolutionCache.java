@@ -0,0 +1,532 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.Config;
+import fredboat.audio.AbstractPlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Caches what identifiers resolved to, so popular tracks and playlists don't need to be looked up again and again.
+ * <p>
+ * Results are kept encoded and every hit decodes fresh tracks from them, without going through the item loader
+ * thread pool of lavaplayer. Identifiers that are already being loaded are not loaded a second time, the result of the
+ * running load is handed to everyone who asked for it. A load that doesn't call back in time fails for everyone waiting
+ * on it, so the identifier can be loaded again. The least recently used results are evicted once the cache is full, and
+ * results expire after a while since sources change.
+ */
+public class TrackResolutionCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackResolutionCache.class);
+
+    private static final int MAX_ENTRIES = 5000;
+    //playlists bigger than this would take up a lot of the cache for little benefit
+    private static final int MAX_PLAYLIST_SIZE = 500;
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    //loads still running after this long are given up on
+    private static final long FLIGHT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final File PERSISTENCE_FILE = new File("track_cache");
+    private static final int PERSISTENCE_VERSION = 1;
+
+    private static TrackResolutionCache instance;
+
+    private final AudioPlayerManager playerManager;
+    //guarded by itself; access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<String, CachedResult> cache = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    //loads that are currently running, guarded by the cache
+    private final Map<String, Flight> inFlight = new LinkedHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final ScheduledExecutorService flightTimeouts;
+
+    TrackResolutionCache(AudioPlayerManager playerManager) {
+        this.playerManager = playerManager;
+        this.flightTimeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "track-cache-flight-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static synchronized TrackResolutionCache getInstance() {
+        if (instance == null) {
+            instance = new TrackResolutionCache(AbstractPlayer.getPlayerManager());
+            if (isPersistenceEnabled()) {
+                instance.loadFromDisk();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Resolves the identifier, either straight from the cache on the calling thread, or by having lavaplayer load it.
+     */
+    public void loadItem(String identifier, AudioLoadResultHandler handler) {
+        String key = normalise(identifier);
+        CachedResult cached;
+        Flight flight = null;
+        synchronized (cache) {
+            cached = cache.get(key);
+            if (cached != null && cached.isExpired()) {
+                cache.remove(key);
+                cached = null;
+            }
+
+            if (cached == null) {
+                Flight running = inFlight.get(key);
+                if (running != null) {
+                    coalesced.incrementAndGet();
+                    running.waiters.add(handler);
+                    return;
+                }
+                flight = new Flight(handler);
+                inFlight.put(key, flight);
+                Flight expiring = flight;
+                flight.timeout = flightTimeouts.schedule(() -> expire(key, expiring), FLIGHT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (cached != null) {
+            hits.incrementAndGet();
+            if (!deliverCached(cached, handler)) {
+                //the cached result is gone now, so this loads it for real
+                loadItem(identifier, handler);
+            }
+        } else {
+            misses.incrementAndGet();
+            try {
+                playerManager.loadItem(identifier, new RecordingHandler(key, flight));
+            } catch (RuntimeException e) {
+                log.error("Failed to start loading {}", identifier, e);
+                FriendlyException failure = new FriendlyException("Failed to load the track", FriendlyException.Severity.FAULT, e);
+                for (AudioLoadResultHandler waiter : land(key, flight)) {
+                    deliver(key, waiter, w -> w.loadFailed(failure));
+                }
+            }
+        }
+    }
+
+    private void expire(String key, Flight flight) {
+        List<AudioLoadResultHandler> waiters = land(key, flight);
+        if (waiters.isEmpty()) return;
+
+        log.warn("Loading {} didn't finish within {}ms, no longer waiting for it", key, FLIGHT_TIMEOUT_MILLIS);
+        FriendlyException failure = new FriendlyException("Loading the track timed out", FriendlyException.Severity.SUSPICIOUS, null);
+        for (AudioLoadResultHandler waiter : waiters) {
+            deliver(key, waiter, w -> w.loadFailed(failure));
+        }
+    }
+
+    /**
+     * @return false if the cached result could not be decoded, it is removed from the cache then
+     */
+    private boolean deliverCached(CachedResult cached, AudioLoadResultHandler handler) {
+        List<AudioTrack> tracks;
+        try {
+            tracks = cached.decodeTracks(playerManager);
+        } catch (IOException e) {
+            log.warn("Failed to decode a cached result, loading it again", e);
+            synchronized (cache) {
+                cache.values().remove(cached);
+            }
+            return false;
+        }
+
+        if (cached.isPlaylist) {
+            AudioTrack selected = cached.selectedTrack >= 0 ? tracks.get(cached.selectedTrack) : null;
+            handler.playlistLoaded(new BasicAudioPlaylist(cached.name, tracks, selected, cached.isSearchResult));
+        } else {
+            handler.trackLoaded(tracks.get(0));
+        }
+        return true;
+    }
+
+    /**
+     * Turns equivalent identifiers into the same key, for example the different kinds of youtube links to a video
+     */
+    static String normalise(String identifier) {
+        String trimmed = identifier.trim();
+        String folded = trimmed.toLowerCase(Locale.ROOT);
+        if (folded.startsWith("ytsearch:") || folded.startsWith("scsearch:")) {
+            //searches don't care about case and spacing, unlike video ids and the like
+            return folded.replaceAll("\\s+", " ");
+        }
+
+        URI uri;
+        try {
+            uri = new URI(trimmed);
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+
+        if (uri.getHost() == null) {
+            //anything that isn't a link, bare youtube ids for example
+            return trimmed;
+        }
+
+        String host = uri.getHost().toLowerCase(Locale.ROOT);
+        if (host.startsWith("www.") || host.startsWith("m.")) {
+            host = host.substring(host.indexOf('.') + 1);
+        }
+        String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+        String query = uri.getRawQuery();
+
+        if (host.equals("youtube.com") || host.equals("youtu.be")) {
+            String video = host.equals("youtu.be") ? path.replaceFirst("^/", "") : getQueryParam(query, "v");
+            String list = getQueryParam(query, "list");
+            if (video != null || list != null) {
+                return "youtube:" + (video != null ? video : "") + (list != null ? "&list=" + list : "");
+            }
+        }
+
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return host + path + (query != null ? "?" + query : "");
+    }
+
+    private static String getQueryParam(String query, String name) {
+        if (query == null) return null;
+        for (String param : query.split("&")) {
+            if (param.startsWith(name + "=") && param.length() > name.length() + 1) {
+                return param.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private void store(String key, AudioTrack track, AudioPlaylist playlist) {
+        CachedResult result;
+        try {
+            if (playlist != null) {
+                if (playlist.getTracks().size() > MAX_PLAYLIST_SIZE) return;
+                int selected = playlist.getSelectedTrack() != null ? playlist.getTracks().indexOf(playlist.getSelectedTrack()) : -1;
+                result = new CachedResult(true, playlist.getName(), playlist.isSearchResult(), selected,
+                        encodeAll(playlist.getTracks()), System.currentTimeMillis() + TTL_MILLIS);
+            } else {
+                //live streams change all the time, don't hold on to them
+                if (track.getInfo().isStream) return;
+                List<AudioTrack> single = new ArrayList<>();
+                single.add(track);
+                result = new CachedResult(false, null, false, -1, encodeAll(single), System.currentTimeMillis() + TTL_MILLIS);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not encode the result for {}, not caching it", key, e);
+            return;
+        }
+
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+    }
+
+    private List<byte[]> encodeAll(List<AudioTrack> tracks) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(tracks.size());
+        for (AudioTrack track : tracks) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            playerManager.encodeTrack(new MessageOutput(baos), track);
+            encoded.add(baos.toByteArray());
+        }
+        return encoded;
+    }
+
+    /**
+     * Ends the flight, whether it succeeded, failed or timed out. Only the first call gets the waiters.
+     */
+    private List<AudioLoadResultHandler> land(String key, Flight flight) {
+        synchronized (cache) {
+            if (inFlight.get(key) == flight) {
+                inFlight.remove(key);
+            }
+            if (flight.landed) {
+                return Collections.emptyList();
+            }
+            flight.landed = true;
+            if (flight.timeout != null) {
+                flight.timeout.cancel(false);
+            }
+            return flight.waiters;
+        }
+    }
+
+    private static void deliver(String key, AudioLoadResultHandler waiter, Consumer<AudioLoadResultHandler> delivery) {
+        try {
+            delivery.accept(waiter);
+        } catch (Exception e) {
+            log.error("A handler waiting for {} failed", key, e);
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public static boolean isPersistenceEnabled() {
+        return Config.CONFIG != null && Config.CONFIG.isTrackCachePersistent();
+    }
+
+    /**
+     * Writes all results that haven't expired yet to disk, so they can be loaded after a restart
+     */
+    public void saveToDisk() {
+        List<Map.Entry<String, CachedResult>> entries;
+        synchronized (cache) {
+            entries = new ArrayList<>(cache.entrySet());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(PERSISTENCE_FILE)))) {
+            out.writeInt(PERSISTENCE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, CachedResult> e : entries) {
+                out.writeUTF(e.getKey());
+                e.getValue().write(out);
+            }
+            log.info("Saved " + entries.size() + " cached track resolutions");
+        } catch (IOException e) {
+            log.error("Failed to save the track resolution cache", e);
+        }
+    }
+
+    private void loadFromDisk() {
+        if (!PERSISTENCE_FILE.exists()) return;
+
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(PERSISTENCE_FILE)))) {
+            if (in.readInt() != PERSISTENCE_VERSION) {
+                log.warn("Ignoring track resolution cache of an unknown version");
+                return;
+            }
+            int count = in.readInt();
+            synchronized (cache) {
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    CachedResult result = CachedResult.read(in);
+                    if (!result.isExpired()) {
+                        cache.put(key, result);
+                        loaded++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to load the track resolution cache, loaded " + loaded + " entries", e);
+        }
+        log.info("Loaded " + loaded + " cached track resolutions");
+    }
+
+    //guarded by the cache
+    private static class Flight {
+        final List<AudioLoadResultHandler> waiters = new ArrayList<>();
+        ScheduledFuture<?> timeout;
+        boolean landed = false;
+
+        Flight(AudioLoadResultHandler first) {
+            waiters.add(first);
+        }
+    }
+
+    private static class CachedResult {
+        final boolean isPlaylist;
+        final String name;
+        final boolean isSearchResult;
+        final int selectedTrack;
+        final List<byte[]> tracks;
+        final long expires;
+
+        CachedResult(boolean isPlaylist, String name, boolean isSearchResult, int selectedTrack, List<byte[]> tracks, long expires) {
+            this.isPlaylist = isPlaylist;
+            this.name = name;
+            this.isSearchResult = isSearchResult;
+            this.selectedTrack = selectedTrack;
+            this.tracks = tracks;
+            this.expires = expires;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+
+        List<AudioTrack> decodeTracks(AudioPlayerManager playerManager) throws IOException {
+            List<AudioTrack> decoded = new ArrayList<>(tracks.size());
+            for (byte[] encoded : tracks) {
+                AudioTrack track = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded))).decodedTrack;
+                if (track == null) {
+                    throw new IOException("Cached track could not be decoded");
+                }
+                decoded.add(track);
+            }
+            return decoded;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(isPlaylist);
+            out.writeUTF(name != null ? name : "");
+            out.writeBoolean(isSearchResult);
+            out.writeInt(selectedTrack);
+            out.writeLong(expires);
+            out.writeInt(tracks.size());
+            for (byte[] track : tracks) {
+                out.writeInt(track.length);
+                out.write(track);
+            }
+        }
+
+        static CachedResult read(DataInputStream in) throws IOException {
+            boolean isPlaylist = in.readBoolean();
+            String name = in.readUTF();
+            boolean isSearchResult = in.readBoolean();
+            int selectedTrack = in.readInt();
+            long expires = in.readLong();
+            int count = in.readInt();
+            List<byte[]> tracks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] track = new byte[in.readInt()];
+                in.readFully(track);
+                tracks.add(track);
+            }
+            return new CachedResult(isPlaylist, name, isSearchResult, selectedTrack, tracks, expires);
+        }
+    }
+
+    /**
+     * Stores the result of a load and hands it to everyone waiting for it, each with their own track objects. A
+     * waiter that throws doesn't keep the others from getting the result.
+     */
+    private class RecordingHandler implements AudioLoadResultHandler {
+
+        private final String key;
+        private final Flight flight;
+
+        RecordingHandler(String key, Flight flight) {
+            this.key = key;
+            this.flight = flight;
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            store(key, track, null);
+            boolean first = true;
+            for (AudioLoadResultHandler waiter : land(key, flight)) {
+                AudioTrack result = first ? track : track.makeClone();
+                deliver(key, waiter, w -> w.trackLoaded(result));
+                first = false;
+            }
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            store(key, null, playlist);
+            boolean first = true;
+            for (AudioLoadResultHandler waiter : land(key, flight)) {
+                AudioPlaylist result = first ? playlist : clonePlaylist(playlist);
+                deliver(key, waiter, w -> w.playlistLoaded(result));
+                first = false;
+            }
+        }
+
+        @Override
+        public void noMatches() {
+            for (AudioLoadResultHandler waiter : land(key, flight)) {
+                deliver(key, waiter, AudioLoadResultHandler::noMatches);
+            }
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            for (AudioLoadResultHandler waiter : land(key, flight)) {
+                deliver(key, waiter, w -> w.loadFailed(exception));
+            }
+        }
+
+        private AudioPlaylist clonePlaylist(AudioPlaylist playlist) {
+            List<AudioTrack> tracks = new ArrayList<>(playlist.getTracks().size());
+            AudioTrack selected = null;
+            for (AudioTrack track : playlist.getTracks()) {
+                AudioTrack clone = track.makeClone();
+                if (track == playlist.getSelectedTrack()) {
+                    selected = clone;
+                }
+                tracks.add(clone);
+            }
+            return new BasicAudioPlaylist(playlist.getName(), tracks, selected, playlist.isSearchResult());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import fredboat.audio.queue.TrackResolutionCache;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A queue entry of an imported playlist that has not been looked up yet. It only knows the identifier or the search
+ * term of the track it stands for, and is resolved when it comes close to the head of the queue, or at the latest when
+ * it is played.
+ */
+public class PlaceholderAudioTrack extends DelegatedAudioTrack {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(PlaceholderAudioTrack.class);
+
+    //the queue resolves its head ahead of time, so playback only has to wait for lookups that are almost done
+    private static final long RESOLVE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final boolean search;
+    private final PlaylistImportSourceManager sourceManager;
+    //shared with the clones of this placeholder, so the track is looked up only once
+    private final AtomicReference<CompletableFuture<AudioTrack>> resolution;
+
+    public PlaceholderAudioTrack(AudioTrackInfo trackInfo, boolean search, PlaylistImportSourceManager sourceManager) {
+        this(trackInfo, search, sourceManager, new AtomicReference<>());
+    }
+
+    private PlaceholderAudioTrack(AudioTrackInfo trackInfo, boolean search, PlaylistImportSourceManager sourceManager,
+                                  AtomicReference<CompletableFuture<AudioTrack>> resolution) {
+        super(trackInfo);
+        this.search = search;
+        this.sourceManager = sourceManager;
+        this.resolution = resolution;
+    }
+
+    /**
+     * @param identifier anything our player manager can load
+     */
+    public static PlaceholderAudioTrack forIdentifier(String identifier, PlaylistImportSourceManager sourceManager) {
+        return new PlaceholderAudioTrack(new AudioTrackInfo(identifier, "", 0, identifier, false, identifier),
+                false, sourceManager);
+    }
+
+    /**
+     * @param searchTerm name and artists of the track, which will be looked up on YouTube and SoundCloud
+     */
+    public static PlaceholderAudioTrack forSearch(String searchTerm, PlaylistImportSourceManager sourceManager) {
+        return new PlaceholderAudioTrack(new AudioTrackInfo(searchTerm, "", 0, SpotifyPlaylistSourceManager.toQuery(searchTerm), false, ""),
+                true, sourceManager);
+    }
+
+    public boolean isSearch() {
+        return search;
+    }
+
+    /**
+     * Starts looking up the track, if that hasn't happened yet.
+     *
+     * @return a future of the track this placeholder stands for, which is null if it couldn't be found. It never
+     * completes exceptionally.
+     */
+    public CompletableFuture<AudioTrack> resolve() {
+        CompletableFuture<AudioTrack> future = resolution.get();
+        if (future != null) {
+            return future;
+        }
+
+        future = new CompletableFuture<>();
+        if (!resolution.compareAndSet(null, future)) {
+            return resolution.get();
+        }
+
+        if (search) {
+            CompletableFuture<AudioTrack> result = future;
+            SpotifyPlaylistSourceManager.searchSingleTrack(getIdentifier())
+                    .whenComplete((track, t) -> result.complete(t == null ? track : null));
+        } else {
+            TrackResolutionCache.getInstance()
+                    .loadItem(getIdentifier(), new ResolutionHandler(future));
+        }
+        return future;
+    }
+
+    /**
+     * Waits for {@link #resolve()} for a few seconds at most, this is called on the threads that start playback
+     *
+     * @return the track this placeholder stands for, or null if it couldn't be found in time
+     */
+    public AudioTrack awaitResolution() {
+        try {
+            return resolve().get(RESOLVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out resolving {}", getIdentifier());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        AudioTrack resolved = awaitResolution();
+
+        if (resolved == null) {
+            throw new FriendlyException("Could not find a track for " + getInfo().title, FriendlyException.Severity.COMMON, null);
+        }
+
+        //the resolved track is shared with our clones, and a track can only be played once
+        processDelegate((InternalAudioTrack) resolved.makeClone(), executor);
+    }
+
+    @Override
+    public AudioTrack makeClone() {
+        return new PlaceholderAudioTrack(getInfo(), search, sourceManager, resolution);
+    }
+
+    @Override
+    public PlaylistImportSourceManager getSourceManager() {
+        return sourceManager;
+    }
+
+    private class ResolutionHandler implements AudioLoadResultHandler {
+
+        private final CompletableFuture<AudioTrack> result;
+
+        private ResolutionHandler(CompletableFuture<AudioTrack> result) {
+            this.result = result;
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            result.complete(track);
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            log.info("Attempt to load a playlist recursively, skipping");
+            result.complete(null);
+        }
+
+        @Override
+        public void noMatches() {
+            result.complete(null);
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            log.debug("Failed loading placeholder track " + getIdentifier(), exception);
+            result.complete(null);
+        }
+    }
+}
@@ -27,32 +27,21 @@ package fredboat.audio.source;
 
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
-import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
-import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.*;
-import fredboat.audio.AbstractPlayer;
 import fredboat.audio.queue.PlaylistInfo;
-import org.slf4j.LoggerFactory;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 
 public class PlaylistImportSourceManager implements AudioSourceManager, PlaylistImporter {
 
-    private static final org.slf4j.Logger log = LoggerFactory.getLogger(PlaylistImportSourceManager.class);
-
-    private static final AudioPlayerManager PRIVATE_MANAGER = AbstractPlayer
-            .registerSourceManagers(new DefaultAudioPlayerManager());
-
     @Override
     public String getSourceName() {
         return "playlist_import";
@@ -71,39 +60,32 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
             return null;
         }
         List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
-
-        PasteServiceAudioResultHandler handler = new PasteServiceAudioResultHandler();
-        Future<Void> lastFuture = null;
-        for (String id : trackIds) {
-            lastFuture = PRIVATE_MANAGER.loadItemOrdered(handler, id, handler);
-        }
-
-        if (lastFuture == null) {
+        if (trackIds.isEmpty()) {
             return null;
         }
 
-        try {
-            lastFuture.get();
-        } catch (InterruptedException | ExecutionException ex) {
-            throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, ex);
+        //the tracks are looked up once they are about to be played, see PlaceholderAudioTrack
+        List<AudioTrack> placeholders = new ArrayList<>(trackIds.size());
+        for (String id : trackIds) {
+            placeholders.add(PlaceholderAudioTrack.forIdentifier(id, this));
         }
 
-        return new BasicAudioPlaylist(pasteId, handler.getLoadedTracks(), null, false);
+        return new BasicAudioPlaylist(pasteId, placeholders, null, false);
     }
 
     @Override
     public boolean isTrackEncodable(AudioTrack track) {
-        return false;
+        return track instanceof PlaceholderAudioTrack;
     }
 
     @Override
     public void encodeTrack(AudioTrack track, DataOutput output) throws IOException {
-        throw new UnsupportedOperationException("This source manager is only for loading playlists");
+        output.writeBoolean(((PlaceholderAudioTrack) track).isSearch());
     }
 
     @Override
     public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) throws IOException {
-        throw new UnsupportedOperationException("This source manager is only for loading playlists");
+        return new PlaceholderAudioTrack(trackInfo, input.readBoolean(), this);
     }
 
     @Override
@@ -183,38 +165,4 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         return new PlaylistInfo(trackIds.size(), pasteId, PlaylistInfo.Source.PASTESERVICE);
     }
 
-    private class PasteServiceAudioResultHandler implements AudioLoadResultHandler {
-
-        private final List<AudioTrack> loadedTracks;
-
-        private PasteServiceAudioResultHandler() {
-            this.loadedTracks = new ArrayList<>();
-        }
-
-        @Override
-        public void trackLoaded(AudioTrack track) {
-            loadedTracks.add(track);
-        }
-
-        @Override
-        public void playlistLoaded(AudioPlaylist playlist) {
-            log.info("Attempt to load a playlist recursively, skipping");
-        }
-
-        @Override
-        public void noMatches() {
-            // ignore
-        }
-
-        @Override
-        public void loadFailed(FriendlyException exception) {
-            log.debug("Failed loading track provided via the paste service", exception);
-        }
-
-        public List<AudioTrack> getLoadedTracks() {
-            return loadedTracks;
-        }
-
-    }
-
 }
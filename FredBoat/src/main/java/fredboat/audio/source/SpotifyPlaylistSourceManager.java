@@ -28,11 +28,9 @@ import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.*;
-import fredboat.FredBoat;
 import fredboat.audio.queue.PlaylistInfo;
 import fredboat.util.rest.SearchUtil;
 import fredboat.util.rest.SpotifyAPIWrapper;
-import org.json.JSONException;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInput;
@@ -41,7 +39,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,6 +55,8 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
 
     //https://regex101.com/r/AEWyxi/3
     private static final Pattern PLAYLIST_PATTERN = Pattern.compile("https?://.*\\.spotify\\.com/user/(.*)/playlist/([^?/\\s]*)");
+    //searches for playlists queue up behind each other, so give them plenty of time
+    private static final int SEARCH_TIMEOUT = 60000;
 
 
     @Override
@@ -87,7 +86,6 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
         if (playlistName == null || "".equals(playlistName)) playlistName = "Spotify Playlist";
         int tracksTotal = plData.getTotalTracks();
 
-        final List<AudioTrack> trackList = new ArrayList<>();
         final List<String> trackListSearchTerms;
 
         try {
@@ -98,80 +96,66 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
         }
         log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + tracksTotal + " tracks");
 
-        //build a task list
-        List<CompletableFuture<AudioTrack>> taskList = new ArrayList<>();
-        for (final String s : trackListSearchTerms) {
-            //remove all punctuation
-            final String query = s.replaceAll("[.,/#!$%\\^&*;:{}=\\-_`~()]", "");
-
-            CompletableFuture<AudioTrack> f = CompletableFuture.supplyAsync(() -> searchSingleTrack(query), FredBoat.executor);
-            taskList.add(f);
-        }
-
-        //build a tracklist from that task list
-        for (CompletableFuture<AudioTrack> futureTrack : taskList) {
-            try {
-                final AudioTrack audioItem = futureTrack.get();
-                if (audioItem == null) {
-                    continue; //skip the track if we couldn't find it
-                }
-                trackList.add(audioItem);
-            } catch (InterruptedException | ExecutionException e) {
-                //this is fine, loop will go for the next item
-            }
+        //the tracks are searched for once they are about to be played, see PlaceholderAudioTrack
+        PlaylistImportSourceManager placeholderSource = manager.source(PlaylistImportSourceManager.class);
+        final List<AudioTrack> trackList = new ArrayList<>(trackListSearchTerms.size());
+        for (String searchTerm : trackListSearchTerms) {
+            trackList.add(PlaceholderAudioTrack.forSearch(searchTerm, placeholderSource));
         }
         return new BasicAudioPlaylist(playlistName, trackList, null, true);
     }
 
+    /**
+     * @return the search term of a Spotify track turned into a query for the search providers
+     */
+    public static String toQuery(String searchTerm) {
+        //remove all punctuation
+        return searchTerm.replaceAll("[.,/#!$%\\^&*;:{}=\\-_`~()]", "");
+    }
+
     /**
      * Searches all available searching sources for a single track.
      * <p>
      * Will go Youtube > SoundCloud > return null
-     * This could probably be moved to SearchUtil
      *
      * @param query Term that shall be searched
-     * @return An AudioTrack likely corresponding to the query term or null.
+     * @return A future of an AudioTrack likely corresponding to the query term or null.
      */
-    private AudioTrack searchSingleTrack(final String query) {
-        boolean gotYoutubeResult = true;
-        AudioPlaylist list = null;
-        try {
-            list = SearchUtil.searchForTracks(SearchUtil.SearchProvider.YOUTUBE, query, 60000);
-            if (list == null || list.getTracks().size() == 0) {
-                gotYoutubeResult = false;
-            }
-        } catch (final JSONException e) {
-            log.debug("YouTube search exception", e);
-            gotYoutubeResult = false;
-        }
-
-        //got a result from youtube? return it
-        if (gotYoutubeResult)
-            return list.getTracks().get(0);
-
-
-        //continue looking for the track on SoundCloud
-        try {
-            list = SearchUtil.searchForTracks(SearchUtil.SearchProvider.SOUNDCLOUD, query, 60000);
-        } catch (final JSONException e) {
-            log.debug("SoundCloud search exception", e);
-        }
-
-        //didn't find anything, or youtube & soundcloud not available
-        if (list == null || list.getTracks().size() == 0) {
-            return null;
-        }
-
-        //pick topmost result, and hope it's what the user wants to listen to
-        //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
-        //dozens of tracks. youtube search is probably good enough for this
-        //
-        //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
-        //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
-        //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
-        //conclusion: there's room for improvement to this whole method
-        return list.getTracks().get(0);
-
+    public static CompletableFuture<AudioTrack> searchSingleTrack(final String query) {
+        return SearchUtil.searchForTracks(SearchUtil.SearchProvider.YOUTUBE, query, SEARCH_TIMEOUT)
+                .exceptionally(t -> {
+                    log.debug("YouTube search exception", t);
+                    return null;
+                })
+                .thenCompose(list -> {
+                    //got a result from youtube? return it
+                    if (list != null && list.getTracks().size() > 0) {
+                        return CompletableFuture.completedFuture(list.getTracks().get(0));
+                    }
+
+                    //continue looking for the track on SoundCloud
+                    return SearchUtil.searchForTracks(SearchUtil.SearchProvider.SOUNDCLOUD, query, SEARCH_TIMEOUT)
+                            .exceptionally(t -> {
+                                log.debug("SoundCloud search exception", t);
+                                return null;
+                            })
+                            .thenApply(scList -> {
+                                //didn't find anything, or youtube & soundcloud not available
+                                if (scList == null || scList.getTracks().size() == 0) {
+                                    return null;
+                                }
+
+                                //pick topmost result, and hope it's what the user wants to listen to
+                                //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
+                                //dozens of tracks. youtube search is probably good enough for this
+                                //
+                                //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
+                                //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
+                                //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
+                                //conclusion: there's room for improvement to this whole method
+                                return scList.getTracks().get(0);
+                            });
+                });
     }
 
     @Override
@@ -197,7 +181,7 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
     /**
      * @return null or a string array containing spotifyUser at [0] and playlistId at [1] of the requested playlist
      */
-    private String[] parse(String identifier) {
+    public String[] parse(String identifier) {
         String[] result = new String[2];
         final Matcher m = PLAYLIST_PATTERN.matcher(identifier);
 
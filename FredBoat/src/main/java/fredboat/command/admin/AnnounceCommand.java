@@ -27,6 +27,7 @@ package fredboat.command.admin;
 
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.util.TextUtils;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -62,7 +63,7 @@ public class AnnounceCommand extends Command implements ICommandRestricted {
         if (players.isEmpty()) {
             return;
         }
-        String input = message.getRawContent().substring(args[0].length() + 1);
+        String input = CommandParser.getRemainder(message);
         String msg = HEAD + input;
 
         Message status;
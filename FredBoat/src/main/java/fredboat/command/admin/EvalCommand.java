@@ -27,6 +27,7 @@ package fredboat.command.admin;
 
 import fredboat.audio.AbstractPlayer;
 import fredboat.audio.PlayerRegistry;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommand;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -67,7 +68,7 @@ public class EvalCommand extends Command implements ICommand, ICommandRestricted
 
         channel.sendTyping().queue();
 
-        final String source = message.getRawContent().substring(args[0].length() + 1);
+        final String source = CommandParser.getRemainder(message);
 
         engine.put("jda", jda);
         engine.put("api", jda);
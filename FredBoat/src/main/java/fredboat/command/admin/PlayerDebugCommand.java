@@ -49,7 +49,7 @@ public class PlayerDebugCommand extends Command implements ICommand, ICommandRes
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         JSONArray a = new JSONArray();
         
-        for(GuildPlayer gp : PlayerRegistry.getRegistry().values()){
+        for(GuildPlayer gp : PlayerRegistry.getPlayers()){
             JSONObject data = new JSONObject();
             data.put("name", gp.getGuild().getName());
             data.put("id", gp.getGuild().getId());
@@ -57,6 +57,9 @@ public class PlayerDebugCommand extends Command implements ICommand, ICommandRes
             data.put("isPlaying", gp.isPlaying());
             data.put("isPaused", gp.isPaused());
             data.put("songCount", gp.getSongCount());
+            data.put("lossRate", gp.getTelemetry().getLossRate());
+            data.put("provideP99", gp.getTelemetry().getProvidePercentile(99));
+            data.put("gapP99", gp.getTelemetry().getGapPercentile(99));
             
             a.put(data);
         }
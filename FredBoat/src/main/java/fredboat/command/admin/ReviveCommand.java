@@ -25,8 +25,8 @@
 
 package fredboat.command.admin;
 
-import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.ShardRouter;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -49,14 +49,12 @@ public class ReviveCommand extends Command implements ICommandRestricted {
         int shardId;
         try {
             if (args[1].equals("guild")) {
-                long guildId = Long.valueOf(args[2]);
-                //https://discordapp.com/developers/docs/topics/gateway#sharding
-                shardId = (int) ((guildId >> 22) % Config.CONFIG.getNumShards());
+                shardId = ShardRouter.getShardId(Long.valueOf(args[2]));
             } else
                 shardId = Integer.parseInt(args[1]);
 
         } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
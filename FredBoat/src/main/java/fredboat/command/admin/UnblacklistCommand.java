@@ -24,7 +24,6 @@
 
 package fredboat.command.admin;
 
-import fredboat.Config;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
@@ -54,7 +53,7 @@ public class UnblacklistCommand extends Command implements ICommandRestricted {
             return;
         }
 
-        String command = args[0].substring(Config.CONFIG.getPrefix().length());
+        String command = args[0];
         if (message.getMentionedUsers().isEmpty()) {
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
@@ -27,6 +27,7 @@ package fredboat.command.fun;
 
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IFunCommand;
 import net.dv8tion.jda.core.entities.Guild;
@@ -50,7 +51,7 @@ public class JokeCommand extends Command implements IFunCommand {
             }
             
             String joke = object.getJSONObject("value").getString("joke");
-            String remainder = message.getContent().substring(args[0].length()).trim();
+            String remainder = CommandParser.getRemainder(message).trim();
             
             if(message.getMentionedUsers().size() > 0){
                 joke = joke.replaceAll("Chuck Norris", "<@"+message.getMentionedUsers().get(0).getId()+">");
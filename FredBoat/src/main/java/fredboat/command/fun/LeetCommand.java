@@ -55,7 +55,7 @@ public class LeetCommand extends Command implements IFunCommand {
         channel.sendTyping().queue();
 
         if(args.length < 2) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -25,6 +25,7 @@
 
 package fredboat.command.fun;
 
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IFunCommand;
 import net.dv8tion.jda.core.entities.Guild;
@@ -36,7 +37,7 @@ public class RiotCommand extends Command implements IFunCommand {
 
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
-        channel.sendMessage("ヽ༼ຈل͜ຈ༽ﾉ **" + message.getContent().replaceFirst("\\S*\\s+", "").toUpperCase()+"** ヽ༼ຈل͜ຈ༽ﾉ").queue();
+        channel.sendMessage("ヽ༼ຈل͜ຈ༽ﾉ **" + CommandParser.getRemainder(message).toUpperCase()+"** ヽ༼ຈل͜ຈ༽ﾉ").queue();
     }
 
     @Override
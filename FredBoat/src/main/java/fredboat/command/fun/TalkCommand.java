@@ -25,8 +25,8 @@
 
 package fredboat.command.fun;
 
-import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IFunCommand;
 import fredboat.feature.togglz.FeatureFlags;
@@ -41,7 +41,7 @@ public class TalkCommand extends Command implements IFunCommand {
 
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
-        String question = message.getRawContent().substring(Config.CONFIG.getPrefix().length() + 5);
+        String question = CommandParser.getRemainder(message);
 
         talk(invoker, channel, question);
     }
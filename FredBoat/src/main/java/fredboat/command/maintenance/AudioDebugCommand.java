@@ -25,7 +25,8 @@
 
 package fredboat.command.maintenance;
 
-import fredboat.audio.AudioLossCounter;
+import fredboat.agent.AudioQualityAgent;
+import fredboat.audio.AudioTelemetry;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.commandmeta.abs.Command;
@@ -46,18 +47,34 @@ public class AudioDebugCommand extends Command implements IMaintenanceCommand {
         if(guildPlayer == null) {
             msg = msg + "No GuildPlayer found.\n";
         } else {
-            int deficit = AudioLossCounter.EXPECTED_PACKET_COUNT_PER_MIN - (guildPlayer.getAudioLossCounter().getLastMinuteLoss() + guildPlayer.getAudioLossCounter().getLastMinuteSuccess());
-
-            msg = msg + "Last minute's packet stats:```\n"
-                + "Packets sent:   " + guildPlayer.getAudioLossCounter().getLastMinuteSuccess() + "\n"
-                + "Null packets:   " + guildPlayer.getAudioLossCounter().getLastMinuteLoss() + "\n"
-                + "Packet deficit: " + deficit + "\n```";
+            msg = msg + "Last minute's packet stats:```\n" + formatTelemetry(guildPlayer.getTelemetry()) + "```";
         }
 
+        msg = msg + "All players:```\n" + formatTelemetry(AudioTelemetry.getGlobal()) + "```";
+
+        msg = msg + "Audio quality:```\n"
+                + "Resampling quality: " + AudioQualityAgent.getResamplingQuality() + "\n"
+                + "Frame buffer:       " + AudioQualityAgent.getFrameBufferDuration() + "ms\n"
+                + "Global loss:        " + String.format("%.2f%%", AudioQualityAgent.getLossRate() * 100) + "\n"
+                + "Struggling players: " + AudioQualityAgent.getStrugglingPlayers() + "\n"
+                + "Last decision:      " + AudioQualityAgent.getLastDecision() + "\n```";
+
         TextUtils.replyWithName(channel, invoker, msg);
 
     }
 
+    private static String formatTelemetry(AudioTelemetry telemetry) {
+        long sent = telemetry.getWindowSuccess();
+        long lost = telemetry.getWindowLoss();
+        return "Packets sent:   " + sent + "\n"
+                + "Null packets:   " + lost + "\n"
+                + "Loss rate:      " + String.format("%.2f%%", telemetry.getLossRate() * 100) + "\n"
+                + "provide() p50:  " + telemetry.getProvidePercentile(50) + "µs\n"
+                + "provide() p99:  " + telemetry.getProvidePercentile(99) + "µs\n"
+                + "Send gap p50:   " + telemetry.getGapPercentile(50) + "µs\n"
+                + "Send gap p99:   " + telemetry.getGapPercentile(99) + "µs\n";
+    }
+
     @Override
     public String help(Guild guild) {
         return "{0}{1}\n#Show audio related debug information.";
@@ -25,7 +25,6 @@
 
 package fredboat.command.maintenance;
 
-import fredboat.Config;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IMaintenanceCommand;
@@ -44,7 +43,7 @@ public class FuzzyUserSearchCommand extends Command implements IMaintenanceComma
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         if(args.length == 1){
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
         } else {
             List<Member> list = ArgumentUtil.fuzzyMemberSearch(guild, args[1], true);
@@ -25,9 +25,8 @@
 
 package fredboat.command.maintenance;
 
-import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.remote.RemoteNode;
-import fredboat.audio.AbstractPlayer;
+import fredboat.audio.NodeBalancer;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IMaintenanceCommand;
 import fredboat.perms.PermsUtil;
@@ -44,8 +43,12 @@ public class NodesCommand extends Command implements IMaintenanceCommand {
 
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
-        AudioPlayerManager pm = AbstractPlayer.getPlayerManager();
-        List<RemoteNode> nodes = pm.getRemoteNodeRegistry().getNodes();
+        NodeBalancer balancer = NodeBalancer.getInstance();
+        if (balancer == null) {
+            TextUtils.replyWithName(channel, invoker, "We are not using any lava nodes.");
+            return;
+        }
+        List<NodeBalancer.Node> nodes = balancer.getNodes();
         boolean showHost = false;
 
         if (args.length == 2 && args[1].equals("host")) {
@@ -54,30 +57,59 @@ public class NodesCommand extends Command implements IMaintenanceCommand {
             } else {
                 TextUtils.replyWithName(channel, invoker, "You do not have permission to view the hosts!");
             }
+        } else if (args.length == 3 && (args[1].equals("drain") || args[1].equals("undrain"))) {
+            if (!PermsUtil.isUserBotOwner(invoker.getUser())) {
+                TextUtils.replyWithName(channel, invoker, "You do not have permission to drain nodes!");
+                return;
+            }
+
+            int index;
+            try {
+                index = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                index = -1;
+            }
+            if (index < 0 || index >= nodes.size()) {
+                TextUtils.replyWithName(channel, invoker, "There is no node " + args[2] + "!");
+                return;
+            }
+
+            boolean drain = args[1].equals("drain");
+            nodes.get(index).setDraining(drain);
+            TextUtils.replyWithName(channel, invoker, drain
+                    ? "Node " + index + " is draining, its players will be moved to other nodes."
+                    : "Node " + index + " is taking new players again.");
+            return;
         }
 
         MessageBuilder mb = new MessageBuilder();
         mb.append("```\n");
-        int i = 0;
-        for (RemoteNode node : nodes) {
-            mb.append("Node " + i + "\n");
+        for (NodeBalancer.Node node : nodes) {
+            NodeBalancer.NodeConnection connection = node.getConnection();
+            mb.append("Node " + node.getIndex() + (node.isDraining() ? " (draining)" : "") + "\n");
             if (showHost) {
-                mb.append(node.getAddress())
+                List<RemoteNode> remoteNodes = node.getManager().getRemoteNodeRegistry().getNodes();
+                mb.append(remoteNodes.isEmpty() ? "UNKNOWN" : remoteNodes.get(0).getAddress())
                         .append("\n");
             }
             mb.append("Status: ")
-                    .append(node.getConnectionState().toString())
+                    .append(connection.getState())
                     .append("\nPlaying: ")
-                    .append(node.getLastStatistics() == null ? "UNKNOWN" : node.getLastStatistics().playingTrackCount)
+                    .append(connection.getPlayingTrackCount() < 0 ? "UNKNOWN" : connection.getPlayingTrackCount())
                     .append("\nCPU: ")
-                    .append(node.getLastStatistics() == null ? "UNKNOWN" : node.getLastStatistics().systemCpuUsage * 100 + "%")
-                    .append("\n");
-
-            mb.append(node.getBalancerPenaltyDetails());
+                    .append(connection.getCpuUsage() < 0 ? "UNKNOWN" : connection.getCpuUsage() * 100 + "%")
+                    .append("\nOur players: ")
+                    .append(node.getAssignedPlayers())
+                    .append(String.format("\nLoss rate: %.2f%%", node.getLossRate() * 100))
+                    .append(String.format("\nScore: %.1f", node.getScore()))
+                    .append("\nPicked: ")
+                    .append(node.getDecisions())
+                    .append(" times, players moved in/out: ")
+                    .append(node.getMigrationsIn())
+                    .append("/")
+                    .append(node.getMigrationsOut());
 
             mb.append("\n\n");
-
-            i++;
         }
 
         mb.append("```");
@@ -86,6 +118,6 @@ public class NodesCommand extends Command implements IMaintenanceCommand {
 
     @Override
     public String help(Guild guild) {
-        return "{0}{1} OR {0}{1} host\n#Show information about the connected lava nodes.";
+        return "{0}{1} OR {0}{1} host OR {0}{1} drain|undrain <node>\n#Show information about the connected lava nodes, or take one out of rotation.";
     }
 }
@@ -25,8 +25,8 @@
 
 package fredboat.command.moderation;
 
-import fredboat.Config;
 import fredboat.command.util.HelpCommand;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.IModerationCommand;
@@ -64,6 +64,7 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
                 .append(MessageFormat.format(I18n.get(guild).getString("configNoArgs") + "\n", guild.getName()))
                 .append("track_announce = ").append(gc.isTrackAnnounce()).append("\n")
                 .append("auto_resume = ").append(gc.isAutoResume()).append("\n")
+                .append("prefix = ").append(PrefixCache.getPrefix(guild)).append("\n")
                 .append("```");
 
         channel.sendMessage(mb.build()).queue();
@@ -77,7 +78,7 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
         }
 
         if(args.length != 3) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -105,12 +106,34 @@ public class ConfigCommand extends Command implements IModerationCommand, IComma
                     channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("configMustBeBoolean"), invoker.getEffectiveName())).queue();
                 }
                 break;
+            case "prefix":
+                //"reset" goes back to the default prefix of the bot
+                String prefix = val.equalsIgnoreCase("reset") ? null : val;
+                if (prefix != null && !isValidPrefix(prefix)) {
+                    HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, args[0]);
+                    break;
+                }
+                PrefixCache.setPrefix(guild, prefix);
+                TextUtils.replyWithName(channel, invoker, "`prefix` " + MessageFormat.format(I18n.get(guild).getString("configSetTo"), PrefixCache.getPrefix(guild)));
+                break;
             default:
                 channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("configUnknownKey"), invoker.getEffectiveName())).queue();
                 break;
         }
     }
 
+    private static boolean isValidPrefix(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > PrefixCache.MAX_PREFIX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.isWhitespace(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public String help(Guild guild) {
         String usage = "{0}{1} OR {0}{1} <key> <value>\n#";
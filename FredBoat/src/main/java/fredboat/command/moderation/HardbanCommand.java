@@ -24,7 +24,6 @@
 
 package fredboat.command.moderation;
 
-import fredboat.Config;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IModerationCommand;
@@ -59,7 +58,7 @@ public class HardbanCommand extends Command implements IModerationCommand {
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         //Ensure we have a search term
         if (args.length == 1) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -26,6 +26,7 @@
 package fredboat.command.moderation;
 
 import fredboat.Config;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IModerationCommand;
 import fredboat.feature.I18n;
@@ -71,7 +72,7 @@ public class LanguageCommand extends Command implements IModerationCommand {
 
     private void handleNoArgs(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         MessageBuilder mb = new MessageBuilder()
-                .append(I18n.get(guild).getString("langInfo").replace(Config.DEFAULT_PREFIX, Config.CONFIG.getPrefix()))
+                .append(I18n.get(guild).getString("langInfo").replace(Config.DEFAULT_PREFIX, PrefixCache.getPrefix(guild)))
                 .append("\n\n");
 
         List<String> keys = new ArrayList<>(I18n.LANGS.keySet());
@@ -25,9 +25,9 @@
 
 package fredboat.command.music.control;
 
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.IMusicCommand;
@@ -52,7 +52,7 @@ public class PauseCommand extends Command implements IMusicCommand, ICommandRest
             channel.sendMessage(I18n.get(guild).getString("pauseAlreadyPaused")).queue();
         } else {
             player.pause();
-            channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("pauseSuccess"), Config.CONFIG.getPrefix())).queue();
+            channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("pauseSuccess"), PrefixCache.getPrefix(guild))).queue();
         }
     }
 
@@ -27,10 +27,11 @@ package fredboat.command.music.control;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.audio.VideoSelection;
+import fredboat.commandmeta.CommandParser;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.IMusicCommand;
@@ -46,13 +47,10 @@ import net.dv8tion.jda.core.entities.Message.Attachment;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.exceptions.RateLimitedException;
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONException;
 import org.slf4j.LoggerFactory;
 
 import java.text.MessageFormat;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class PlayCommand extends Command implements IMusicCommand, ICommandRestricted {
 
@@ -140,61 +138,67 @@ public class PlayCommand extends Command implements IMusicCommand, ICommandRestr
     }
 
     private void searchForVideos(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) throws RateLimitedException {
-        Matcher m = Pattern.compile("\\S+\\s+(.*)").matcher(message.getRawContent());
-        m.find();
-        String query = m.group(1);
+        String query = CommandParser.getRemainder(message);
         
         //Now remove all punctuation
         query = query.replaceAll("[.,/#!$%\\^&*;:{}=\\-_`~()]", "");
 
         String finalQuery = query;
-        channel.sendMessage(I18n.get(guild).getString("playSearching").replace("{q}", query)).queue(outMsg -> {
-            AudioPlaylist list;
-            try {
-                list = SearchUtil.searchForTracks(searchProvider, finalQuery);
-            } catch (JSONException e) {
-                channel.sendMessage(I18n.get(guild).getString("playYoutubeSearchError")).queue();
-                log.debug("YouTube search exception", e);
-                return;
-            }
+        channel.sendMessage(I18n.get(guild).getString("playSearching").replace("{q}", query)).queue(outMsg ->
+                SearchUtil.searchForTracks(searchProvider, finalQuery).whenComplete((list, t) -> {
+                    //the future would swallow anything thrown in here
+                    try {
+                        onSearchResult(guild, channel, invoker, outMsg, finalQuery, list, t);
+                    } catch (Exception e) {
+                        TextUtils.handleException(e, channel, invoker);
+                    }
+                }));
+    }
 
-            if (list == null || list.getTracks().size() == 0) {
-                outMsg.editMessage(I18n.get(guild).getString("playSearchNoResults").replace("{q}", finalQuery)).queue();
-            } else {
-                //Clean up any last search by this user
-                GuildPlayer player = PlayerRegistry.get(guild);
+    private void onSearchResult(Guild guild, TextChannel channel, Member invoker, Message outMsg, String query,
+                                AudioPlaylist list, Throwable t) {
+        if (t != null) {
+            channel.sendMessage(I18n.get(guild).getString("playYoutubeSearchError")).queue();
+            log.debug("YouTube search exception", t);
+            return;
+        }
 
-                //Get at most 5 tracks
-                List<AudioTrack> selectable = list.getTracks().subList(0, Math.min(5, list.getTracks().size()));
+        if (list == null || list.getTracks().size() == 0) {
+            outMsg.editMessage(I18n.get(guild).getString("playSearchNoResults").replace("{q}", query)).queue();
+        } else {
+            //Clean up any last search by this user
+            GuildPlayer player = PlayerRegistry.get(guild);
 
-                VideoSelection oldSelection = player.selections.get(invoker.getUser().getId());
-                if(oldSelection != null) {
-                    channel.deleteMessageById(oldSelection.getOutMsgId()).queue();
-                }
+            //Get at most 5 tracks
+            List<AudioTrack> selectable = list.getTracks().subList(0, Math.min(5, list.getTracks().size()));
 
-                MessageBuilder builder = new MessageBuilder();
-                builder.append(MessageFormat.format(I18n.get(guild).getString("playSelectVideo"), Config.CONFIG.getPrefix()));
+            VideoSelection oldSelection = player.selections.get(invoker.getUser().getId());
+            if(oldSelection != null) {
+                channel.deleteMessageById(oldSelection.getOutMsgId()).queue();
+            }
 
-                int i = 1;
-                for (AudioTrack track : selectable) {
-                    builder.append("\n**")
-                            .append(String.valueOf(i))
-                            .append(":** ")
-                            .append(track.getInfo().title)
-                            .append(" (")
-                            .append(TextUtils.formatTime(track.getInfo().length))
-                            .append(")");
+            MessageBuilder builder = new MessageBuilder();
+            builder.append(MessageFormat.format(I18n.get(guild).getString("playSelectVideo"), PrefixCache.getPrefix(guild)));
 
-                    i++;
-                }
+            int i = 1;
+            for (AudioTrack track : selectable) {
+                builder.append("\n**")
+                        .append(String.valueOf(i))
+                        .append(":** ")
+                        .append(track.getInfo().title)
+                        .append(" (")
+                        .append(TextUtils.formatTime(track.getInfo().length))
+                        .append(")");
 
-                outMsg.editMessage(builder.build().getRawContent()).queue();
+                i++;
+            }
 
-                player.setCurrentTC(channel);
+            outMsg.editMessage(builder.build().getRawContent()).queue();
 
-                player.selections.put(invoker.getUser().getId(), new VideoSelection(selectable, outMsg));
-            }
-        });
+            player.setCurrentTC(channel);
+
+            player.selections.put(invoker.getUser().getId(), new VideoSelection(selectable, outMsg));
+        }
     }
 
     @Override
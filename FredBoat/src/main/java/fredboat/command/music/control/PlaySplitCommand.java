@@ -25,7 +25,6 @@
 
 package fredboat.command.music.control;
 
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.audio.queue.IdentifierContext;
@@ -46,7 +45,7 @@ public class PlaySplitCommand extends Command implements IMusicCommand, ICommand
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         if (args.length < 2) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -25,7 +25,6 @@
 
 package fredboat.command.music.control;
 
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.audio.queue.RepeatMode;
@@ -47,7 +46,7 @@ public class RepeatCommand extends Command implements IMusicCommand, ICommandRes
         GuildPlayer player = PlayerRegistry.get(guild);
 
         if (args.length < 2) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -71,7 +70,7 @@ public class RepeatCommand extends Command implements IMusicCommand, ICommandRes
                 break;
             case "help":
             default:
-                String command = args[0].substring(Config.CONFIG.getPrefix().length());
+                String command = args[0];
                 HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
                 return;
         }
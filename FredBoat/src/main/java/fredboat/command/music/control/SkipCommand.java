@@ -25,7 +25,6 @@
 
 package fredboat.command.music.control;
 
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.audio.queue.AudioTrackContext;
@@ -95,7 +94,7 @@ public class SkipCommand extends Command implements IMusicCommand, ICommandRestr
         } else if (args.length == 2 && trackRangePattern.matcher(args[1]).matches()) {
             skipInRange(player, channel, invoker, args);
         } else {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
         }
     }
@@ -119,15 +118,15 @@ public class SkipCommand extends Command implements IMusicCommand, ICommandRestr
             return;
         }
 
-        if (player.getRemainingTracks().size() < givenIndex) {
-            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), givenIndex, player.getRemainingTracks().size())).queue();
+        if (player.getSongCount() < givenIndex) {
+            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), givenIndex, player.getSongCount())).queue();
             return;
         } else if (givenIndex < 1) {
             channel.sendMessage(I18n.get(channel.getGuild()).getString("skipNumberTooLow")).queue();
             return;
         }
 
-        AudioTrackContext atc = player.getAudioTrackProvider().getAsListOrdered().get(givenIndex - 2);
+        AudioTrackContext atc = player.getAudioTrackProvider().getInRange(givenIndex - 2, givenIndex - 2).get(0);
         player.skipTracksForMemberPerms(channel, invoker, atc);
 
         Pair<Boolean, String> result = player.skipTracksForMemberPerms(channel, invoker, atc);
@@ -149,7 +148,7 @@ public class SkipCommand extends Command implements IMusicCommand, ICommandRestr
             tmp = trackMatch.group(2);
             endTrackIndex = Integer.parseInt(tmp);
         } catch (NumberFormatException e) {
-            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), tmp, player.getRemainingTracks().size())).queue();
+            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), tmp, player.getSongCount())).queue();
             return;
         }
 
@@ -159,8 +158,8 @@ public class SkipCommand extends Command implements IMusicCommand, ICommandRestr
         } else if (endTrackIndex < startTrackIndex) {
             channel.sendMessage(I18n.get(channel.getGuild()).getString("skipRangeInvalid")).queue();
             return;
-        } else if (player.getRemainingTracks().size() < endTrackIndex) {
-            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), endTrackIndex, player.getRemainingTracks().size())).queue();
+        } else if (player.getSongCount() < endTrackIndex) {
+            channel.sendMessage(MessageFormat.format(I18n.get(channel.getGuild()).getString("skipOutOfBounds"), endTrackIndex, player.getSongCount())).queue();
             return;
         }
 
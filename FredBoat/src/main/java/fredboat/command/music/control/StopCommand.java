@@ -27,7 +27,6 @@ package fredboat.command.music.control;
 
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
-import fredboat.audio.queue.AudioTrackContext;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.IMusicCommand;
@@ -41,7 +40,6 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.text.MessageFormat;
-import java.util.List;
 
 public class StopCommand extends Command implements IMusicCommand, ICommandRestricted {
 
@@ -49,13 +47,13 @@ public class StopCommand extends Command implements IMusicCommand, ICommandRestr
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         GuildPlayer player = PlayerRegistry.get(guild);
         player.setCurrentTC(channel);
-        List<AudioTrackContext> tracks = player.getRemainingTracks();
+        int trackCount = player.getSongCount();
 
-        Pair<Boolean, String> pair = player.canMemberSkipTracks(channel, invoker, tracks);
+        Pair<Boolean, String> pair = player.canMemberSkipAllTracks(invoker);
         //skipping allowed
         if(pair.getLeft()) {
             player.stop();
-            switch (tracks.size()) {
+            switch (trackCount) {
                 case 0:
                     channel.sendMessage(I18n.get(guild).getString("stopAlreadyEmpty")).queue();
                     break;
@@ -63,7 +61,7 @@ public class StopCommand extends Command implements IMusicCommand, ICommandRestr
                     channel.sendMessage(I18n.get(guild).getString("stopEmptyOne")).queue();
                     break;
                 default:
-                    channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("stopEmptySeveral"), tracks.size())).queue();
+                    channel.sendMessage(MessageFormat.format(I18n.get(guild).getString("stopEmptySeveral"), trackCount)).queue();
                     break;
             }
             player.leaveVoiceChannelRequest(channel, true);
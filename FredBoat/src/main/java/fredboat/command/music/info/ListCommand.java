@@ -70,20 +70,20 @@ public class ListCommand extends Command implements IMusicCommand {
             }
         }
 
-        List<AudioTrackContext> tracks = player.getRemainingTracksOrdered();
+        int trackCount = player.getSongCount();
 
-        int maxPages = (int) Math.ceil(((double) tracks.size() - 1d)) / PAGE_SIZE + 1;
+        int maxPages = (int) Math.ceil(((double) trackCount - 1d)) / PAGE_SIZE + 1;
 
         page = Math.max(page, 1);
         page = Math.min(page, maxPages);
 
         int i = (page - 1) * PAGE_SIZE;
         int listEnd = (page - 1) * PAGE_SIZE + PAGE_SIZE;
-        listEnd = Math.min(listEnd, player.getRemainingTracksOrdered().size());
+        listEnd = Math.min(listEnd, trackCount);
 
         int numberLength = Integer.toString(listEnd).length();
 
-        List<AudioTrackContext> sublist = tracks.subList(i, listEnd);
+        List<AudioTrackContext> sublist = player.getTracksInRange(i, listEnd - 1);
 
         if (player.isShuffle()) {
             mb.append(I18n.get(guild).getString("listShowShuffled"));
@@ -126,8 +126,8 @@ public class ListCommand extends Command implements IMusicCommand {
         long t = player.getTotalRemainingMusicTimeSeconds();
         String timestamp = TextUtils.formatTime(t * 1000L);
 
-        int numTracks = player.getRemainingTracks().size() - player.getLiveTracks().size();
-        int streams = player.getLiveTracks().size();
+        int streams = player.getStreamCount();
+        int numTracks = trackCount - streams;
 
         String desc;
 
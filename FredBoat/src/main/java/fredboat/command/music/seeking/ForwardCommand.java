@@ -26,7 +26,6 @@
 package fredboat.command.music.seeking;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import fredboat.Config;
 import fredboat.audio.GuildPlayer;
 import fredboat.audio.PlayerRegistry;
 import fredboat.audio.queue.AudioTrackContext;
@@ -56,7 +55,7 @@ public class ForwardCommand extends Command implements IMusicCommand, ICommandRe
         }
 
         if(args.length == 1) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
@@ -65,7 +64,7 @@ public class ForwardCommand extends Command implements IMusicCommand, ICommandRe
         try {
             t = TextUtils.parseTimeString(args[1]);
         } catch (IllegalStateException e){
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
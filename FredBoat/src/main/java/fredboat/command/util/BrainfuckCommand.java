@@ -25,7 +25,7 @@
 
 package fredboat.command.util;
 
-import fredboat.Config;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IUtilCommand;
 import fredboat.feature.I18n;
@@ -118,12 +118,12 @@ public class BrainfuckCommand extends Command implements IUtilCommand {
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
 
         if (args.length == 1) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
 
-        code = message.getContent().replaceFirst(args[0], "").toCharArray();
+        code = CommandParser.getRemainder(message).toCharArray();
         bytes = ByteBuffer.allocateDirect(1024 * 1024 * 8);
         String inputArg = "";
 
@@ -24,10 +24,10 @@
 
 package fredboat.command.util;
 
-import fredboat.Config;
 import fredboat.command.fun.RemoteFileCommand;
 import fredboat.command.fun.TextCommand;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.*;
 import fredboat.feature.I18n;
 import fredboat.perms.PermissionLevel;
@@ -129,7 +129,7 @@ public class CommandsCommand extends Command implements IUtilCommand {
             out += "\n" + owner;
         }
 
-        out += "\n\n" + MessageFormat.format(I18n.get(guild).getString("commandsMoreHelp"), "`" + Config.CONFIG.getPrefix() + "help <command>`");
+        out += "\n\n" + MessageFormat.format(I18n.get(guild).getString("commandsMoreHelp"), "`" + PrefixCache.getPrefix(guild) + "help <command>`");
         channel.sendMessage(out).queue();
     }
 
@@ -25,11 +25,11 @@
 
 package fredboat.command.util;
 
-import fredboat.Config;
 import fredboat.command.fun.TalkCommand;
 import fredboat.command.music.control.SelectCommand;
 import fredboat.commandmeta.CommandManager;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.IMusicBackupCommand;
@@ -74,7 +74,7 @@ public class HelpCommand extends Command implements IMusicBackupCommand, IUtilCo
         invoker.getUser().openPrivateChannel().queue(privateChannel -> {
             privateChannel.sendMessage(getHelpDmMsg(guild)).queue();
             String out = I18n.get(guild).getString("helpSent");
-            out += "\n" + MessageFormat.format(I18n.get(guild).getString("helpCommandsPromotion"), "`" + Config.CONFIG.getPrefix() + "commands`");
+            out += "\n" + MessageFormat.format(I18n.get(guild).getString("helpCommandsPromotion"), "`" + PrefixCache.getPrefix(guild) + "commands`");
             TextUtils.replyWithName(channel, invoker, out);
         });
     }
@@ -89,12 +89,12 @@ public class HelpCommand extends Command implements IMusicBackupCommand, IUtilCo
         else if (command instanceof SelectCommand)
             thirdParam = "play";
 
-        return MessageFormat.format(helpStr, Config.CONFIG.getPrefix(), commandOrAlias, thirdParam);
+        return MessageFormat.format(helpStr, PrefixCache.getPrefix(guild), commandOrAlias, thirdParam);
     }
 
     public static void sendFormattedCommandHelp(Message message) {
-        String[] args = CommandManager.commandToArguments(message.getRawContent());
-        String command = args[0].substring(Config.CONFIG.getPrefix().length());
+        String[] args = CommandManager.commandToArguments(message);
+        String command = args[0];
         sendFormattedCommandHelp(message.getGuild(), message.getTextChannel(), message.getMember(), command);
     }
 
@@ -102,8 +102,8 @@ public class HelpCommand extends Command implements IMusicBackupCommand, IUtilCo
 
         CommandRegistry.CommandEntry commandEntry = CommandRegistry.getCommand(commandOrAlias);
         if (commandEntry == null) {
-            String out = Config.CONFIG.getPrefix() + commandOrAlias + ": " + I18n.get(guild).getString("helpUnknownCommand");
-            out += "\n" + MessageFormat.format(I18n.get(guild).getString("helpCommandsPromotion"), "`" + Config.CONFIG.getPrefix() + "commands`");
+            String out = PrefixCache.getPrefix(guild) + commandOrAlias + ": " + I18n.get(guild).getString("helpUnknownCommand");
+            out += "\n" + MessageFormat.format(I18n.get(guild).getString("helpCommandsPromotion"), "`" + PrefixCache.getPrefix(guild) + "commands`");
             TextUtils.replyWithName(channel, invoker, out);
             return;
         }
@@ -30,6 +30,7 @@ import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IUtilCommand;
 import fredboat.feature.I18n;
@@ -53,19 +54,18 @@ import java.util.regex.Pattern;
 public class MALCommand extends Command implements IUtilCommand {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(MALCommand.class);
-    private static Pattern regex = Pattern.compile("^\\S+\\s+([\\W\\w]*)");
 
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
-        Matcher matcher = regex.matcher(message.getContent());
+        String remainder = CommandParser.getRemainder(message);
 
-        if (!matcher.find()) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+        if (remainder.isEmpty()) {
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
 
-        String term = matcher.group(1).replace(' ', '+').trim();
+        String term = remainder.replace(' ', '+').trim();
         log.debug("TERM:" + term);
 
         //MALs API is currently wonky af, so we are setting rather strict timeouts for its requests
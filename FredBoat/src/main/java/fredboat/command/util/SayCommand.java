@@ -24,7 +24,7 @@
  */
 package fredboat.command.util;
 
-import fredboat.Config;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.abs.Command;
 import fredboat.commandmeta.abs.IUtilCommand;
 import fredboat.event.EventListenerBoat;
@@ -43,11 +43,11 @@ public class SayCommand extends Command implements IUtilCommand {
     @Override
     public void onInvoke(Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
         if (args.length < 2) {
-            String command = args[0].substring(Config.CONFIG.getPrefix().length());
+            String command = args[0];
             HelpCommand.sendFormattedCommandHelp(guild, channel, invoker, command);
             return;
         }
-        String res = message.getRawContent().substring(args[0].length() + 1);
+        String res = CommandParser.getRemainder(message);
         channel.sendMessage('\u200b' + res).queue(
                 message1 -> EventListenerBoat.messagesToDeleteIfIdDeleted.put(message.getId(), message1.getId())
         );
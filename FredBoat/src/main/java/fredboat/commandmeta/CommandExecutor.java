@@ -0,0 +1,331 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.commandmeta;
+
+import fredboat.commandmeta.abs.Command;
+import fredboat.commandmeta.abs.ICommandRestricted;
+import fredboat.commandmeta.abs.IMaintenanceCommand;
+import fredboat.commandmeta.abs.IModerationCommand;
+import fredboat.commandmeta.abs.IMusicBackupCommand;
+import fredboat.commandmeta.abs.IMusicCommand;
+import fredboat.feature.I18n;
+import fredboat.metrics.Metrics;
+import fredboat.perms.PermissionLevel;
+import fredboat.util.TextUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.TextChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands away from the event threads of JDA, so a command waiting on a slow request can't hold up the events
+ * of its whole shard.
+ * <p>
+ * Commands are split into lanes by what they usually wait on, each with its own threads, queue limit and timeout, so
+ * a third party API going down only fills up its own lane. Music commands of a guild run one after another, in the
+ * order they have been sent.
+ */
+public class CommandExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandExecutor.class);
+
+    //music commands of a single guild that may wait for their turn, anything beyond is rejected
+    private static final int GUILD_QUEUE_LIMIT = 5;
+
+    private static final Metrics.Counter commandCounter = Metrics.counter("fredboat_commands_total",
+            "Commands invoked, by command", "command");
+    private static final Metrics.Counter commandErrors = Metrics.counter("fredboat_command_errors_total",
+            "Commands that threw an exception, by command", "command");
+    private static final Metrics.Counter commandTimeouts = Metrics.counter("fredboat_command_timeouts_total",
+            "Commands that have been interrupted for running too long, by command", "command");
+    private static final Metrics.Counter commandsRejected = Metrics.counter("fredboat_commands_rejected_total",
+            "Commands that have been turned away because their lane was full, by lane", "lane");
+    private static final Metrics.Histogram commandDuration = Metrics.histogram("fredboat_command_duration_seconds",
+            "Time spent running commands, by command", "command");
+    private static final Metrics.Histogram commandWait = Metrics.histogram("fredboat_command_queue_seconds",
+            "Time commands waited for a thread, by lane", "lane");
+
+    private static CommandExecutor instance;
+
+    private final ScheduledExecutorService watchdog;
+
+    //guild id -> music commands waiting for the one of that guild that is running. a guild has an entry as long as
+    //one of its music commands is queued or running. guarded by itself
+    private final Long2ObjectOpenHashMap<ArrayDeque<Task>> guildQueues = new Long2ObjectOpenHashMap<>();
+
+    CommandExecutor() {
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "command-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (Lane lane : Lane.values()) {
+            lane.start();
+        }
+
+        Metrics.gauge("fredboat_command_queue_depth", "Commands waiting for a thread, by lane", new String[]{"lane"},
+                sink -> {
+                    for (Lane lane : Lane.values()) {
+                        sink.accept(lane.pool.getQueue().size(), lane.getName());
+                    }
+                });
+        Metrics.gauge("fredboat_commands_running", "Commands currently running, by lane", new String[]{"lane"},
+                sink -> {
+                    for (Lane lane : Lane.values()) {
+                        sink.accept(lane.pool.getActiveCount(), lane.getName());
+                    }
+                });
+    }
+
+    public static synchronized CommandExecutor getInstance() {
+        if (instance == null) {
+            instance = new CommandExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Hands a command off to the threads of its lane. If the lane is full the command is not run, and the invoker is
+     * told so.
+     */
+    public void submit(Command invoked, Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
+        Lane lane = Lane.of(invoked);
+        Task task = new Task(lane, invoked, guild, channel, invoker, message, args);
+
+        try {
+            if (lane == Lane.MUSIC) {
+                submitMusic(guild.getIdLong(), task);
+            } else {
+                lane.pool.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            reject(task);
+        }
+    }
+
+    private void reject(Task task) {
+        commandsRejected.inc(task.lane.getName());
+        log.warn("Rejected " + task.invoked.getClass().getSimpleName() + " in guild " + task.guild.getId()
+                + " because the " + task.lane.getName() + " lane is full");
+        TextUtils.replyWithName(task.channel, task.invoker, I18n.get(task.guild).getString("ratelimitedGeneralInfo"));
+    }
+
+    private void submitMusic(long guildId, Task task) {
+        synchronized (guildQueues) {
+            ArrayDeque<Task> queue = guildQueues.get(guildId);
+            if (queue != null) {
+                //a command of this guild is running already, this one will be started once it's done
+                if (queue.size() >= GUILD_QUEUE_LIMIT) {
+                    throw new RejectedExecutionException("Too many music commands queued in guild " + guildId);
+                }
+                queue.add(task);
+                return;
+            }
+
+            Lane.MUSIC.pool.execute(task);
+            guildQueues.put(guildId, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Starts the next music command of a guild, if there is one. Commands that don't fit into the lane anymore are
+     * turned away, the same as if they had just been sent.
+     */
+    private void musicFinished(long guildId) {
+        List<Task> rejected = new ArrayList<>();
+        synchronized (guildQueues) {
+            ArrayDeque<Task> queue = guildQueues.get(guildId);
+            while (true) {
+                Task next = queue != null ? queue.poll() : null;
+                if (next == null) {
+                    guildQueues.remove(guildId);
+                    break;
+                }
+
+                try {
+                    Lane.MUSIC.pool.execute(next);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    rejected.add(next);
+                }
+            }
+        }
+        rejected.forEach(this::reject);
+    }
+
+    private void runCommand(Task task) {
+        Command invoked = task.invoked;
+        String commandName = invoked.getClass().getSimpleName();
+        commandWait.observe((System.nanoTime() - task.submitted) / 1e9, task.lane.getName());
+        commandCounter.inc(commandName);
+
+        ScheduledFuture<?> timeout = null;
+        if (task.lane.timeoutSeconds > 0) {
+            Thread worker = Thread.currentThread();
+            timeout = watchdog.schedule(() -> task.interrupt(worker), task.lane.timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        long started = System.nanoTime();
+        try {
+            invoked.onInvoke(task.guild, task.channel, task.invoker, task.message, task.args);
+        } catch (Exception e) {
+            if (task.isTimedOut()) {
+                log.warn("Interrupted " + commandName + " after " + task.lane.timeoutSeconds + " seconds", e);
+            } else {
+                commandErrors.inc(commandName);
+                TextUtils.handleException(e, task.channel, task.invoker);
+            }
+        } finally {
+            commandDuration.observe((System.nanoTime() - started) / 1e9, commandName);
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            task.finish();
+            //don't let an interrupt leak into the next command run by this thread
+            Thread.interrupted();
+
+            if (task.lane == Lane.MUSIC) {
+                musicFinished(task.guild.getIdLong());
+            }
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final Lane lane;
+        private final Command invoked;
+        private final Guild guild;
+        private final TextChannel channel;
+        private final Member invoker;
+        private final Message message;
+        private final String[] args;
+        private final long submitted = System.nanoTime();
+
+        //guarded by this
+        private boolean finished = false;
+        private boolean timedOut = false;
+
+        Task(Lane lane, Command invoked, Guild guild, TextChannel channel, Member invoker, Message message, String[] args) {
+            this.lane = lane;
+            this.invoked = invoked;
+            this.guild = guild;
+            this.channel = channel;
+            this.invoker = invoker;
+            this.message = message;
+            this.args = args;
+        }
+
+        @Override
+        public void run() {
+            runCommand(this);
+        }
+
+        synchronized void interrupt(Thread worker) {
+            //the worker may have moved on to another command already
+            if (finished) {
+                return;
+            }
+            timedOut = true;
+            commandTimeouts.inc(invoked.getClass().getSimpleName());
+            worker.interrupt();
+        }
+
+        synchronized void finish() {
+            finished = true;
+        }
+
+        synchronized boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+
+    private enum Lane {
+        //serialized per guild, on top of that the queue of each guild is limited
+        MUSIC("music", 8, 200, 30),
+        //everyone's commands, most of them wait for third party APIs
+        EXTERNAL("external", 16, 200, 30),
+        MODERATION("moderation", 4, 100, 60),
+        //bot admin commands may legitimately take minutes, like building the bot
+        ADMIN("admin", 2, 20, 0);
+
+        private final String name;
+        private final int threads;
+        private final int queueLimit;
+        private final int timeoutSeconds;
+        private ThreadPoolExecutor pool;
+
+        Lane(String name, int threads, int queueLimit, int timeoutSeconds) {
+            this.name = name;
+            this.threads = threads;
+            this.queueLimit = queueLimit;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        static Lane of(Command command) {
+            if (command instanceof IMusicCommand || command instanceof IMusicBackupCommand) {
+                return MUSIC;
+            } else if (command instanceof ICommandRestricted
+                    && ((ICommandRestricted) command).getMinimumPerms().getLevel() >= PermissionLevel.BOT_ADMIN.getLevel()) {
+                return ADMIN;
+            } else if (command instanceof IModerationCommand || command instanceof IMaintenanceCommand) {
+                return MODERATION;
+            }
+            return EXTERNAL;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        private void start() {
+            AtomicInteger threadCounter = new AtomicInteger(0);
+            pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(queueLimit), r -> {
+                Thread t = new Thread(r, "command-" + name + "-" + threadCounter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }
+    }
+
+}
@@ -58,7 +58,7 @@ public class CommandManager {
     public static final AtomicInteger commandsExecuted = new AtomicInteger(0);
 
     public static void prefixCalled(Command invoked, Guild guild, TextChannel channel, Member invoker, Message message) {
-        String[] args = commandToArguments(message.getRawContent());
+        String[] args = commandToArguments(message);
         commandsExecuted.getAndIncrement();
 
         if (invoked instanceof IMusicBackupCommand
@@ -79,7 +79,7 @@ public class CommandManager {
                 && DiscordUtil.isPatronBotPresentAndOnline(guild)
                 && guild.getMemberById(BotConstants.PATRON_BOT_ID) != null
                 && guild.getMemberById(BotConstants.PATRON_BOT_ID).hasPermission(channel, Permission.MESSAGE_WRITE, Permission.MESSAGE_READ)
-                && Config.CONFIG.getPrefix().equals(Config.DEFAULT_PREFIX)
+                && PrefixCache.getPrefix(guild).equals(Config.DEFAULT_PREFIX)
                 && !guild.getId().equals(BotConstants.FREDBOAT_HANGOUT_ID)) {
             log.info("Ignored command because patron bot is able to user that channel");
             return;
@@ -123,59 +123,19 @@ public class CommandManager {
             }
         }
 
-        try {
-            invoked.onInvoke(guild, channel, invoker, message, args);
-        } catch (Exception e) {
-            TextUtils.handleException(e, channel, invoker);
-        }
-
+        CommandExecutor.getInstance().submit(invoked, guild, channel, invoker, message, args);
     }
 
     public static String[] commandToArguments(String cmd) {
-        ArrayList<String> a = new ArrayList<>();
-        int argi = 0;
-        boolean isInQuote = false;
-
-        for (Character ch : cmd.toCharArray()) {
-            if (Character.isWhitespace(ch) && !isInQuote) {
-                String arg = null;
-                try {
-                    arg = a.get(argi);
-                } catch (IndexOutOfBoundsException e) {
-                }
-                if (arg != null) {
-                    argi++;//On to the next arg
-                }//else ignore
-
-            } else if (ch.equals('"')) {
-                isInQuote = !isInQuote;
-            } else {
-                a = writeToArg(a, argi, ch);
-            }
-        }
-
-        String[] newA = new String[a.size()];
-        int i = 0;
-        for (String str : a) {
-            newA[i] = str;
-            i++;
-        }
-
-        return newA;
+        return CommandParser.parse(cmd).toArray();
     }
 
-    private static ArrayList<String> writeToArg(ArrayList<String> a, int argi, char ch) {
-        String arg = null;
-        try {
-            arg = a.get(argi);
-        } catch (IndexOutOfBoundsException ignored) {
-        }
-        if (arg == null) {
-            a.add(argi, String.valueOf(ch));
-        } else {
-            a.set(argi, arg + ch);
-        }
-
-        return a;
+    /**
+     * The prefix is not part of the arguments, so the first argument is the name the command has been called with
+     */
+    public static String[] commandToArguments(Message message) {
+        String raw = message.getRawContent();
+        int from = Math.max(PrefixCache.matchPrefix(raw, message.getGuild()), 0);
+        return CommandParser.parse(raw, CommandParser.findNameStart(raw, from)).toArray();
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.commandmeta;
+
+import net.dv8tion.jda.core.entities.Message;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Parses commands straight from the raw content of a message in a single pass, without copying the parts of it that
+ * are not needed.
+ */
+public class CommandParser {
+
+    private CommandParser() {
+    }
+
+    /**
+     * Finds the command of a message that starts with the prefix. Like before, the name is the first run of word
+     * characters after the prefix, so {@code <<play} and {@code << play} both find the play command.
+     *
+     * @return the command, or null if the message does not start with the prefix or names no known command
+     */
+    public static CommandRegistry.CommandEntry findCommand(String raw, String prefix) {
+        if (!raw.startsWith(prefix)) {
+            return null;
+        }
+        return findCommand(raw, prefix.length());
+    }
+
+    /**
+     * @param from index at which the prefix of the message ends
+     * @return the command, or null if the message names no known command
+     */
+    public static CommandRegistry.CommandEntry findCommand(String raw, int from) {
+        int start = findNameStart(raw, from);
+        int end = findNameEnd(raw, start);
+        return start < end ? CommandRegistry.getCommand(raw, start, end) : null;
+    }
+
+    /**
+     * @param from index at which the prefix of the message ends
+     * @return index of the first character of the command name
+     */
+    public static int findNameStart(String raw, int from) {
+        int start = from;
+        while (start < raw.length() && !isWordChar(raw.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return the text following the command name of a message, which has been called with the prefix of its guild
+     * or a mention of the bot
+     */
+    public static String getRemainder(Message message) {
+        String raw = message.getRawContent();
+        int from = Math.max(PrefixCache.matchPrefix(raw, message.getGuild()), 0);
+        int i = findNameEnd(raw, findNameStart(raw, from));
+        while (i < raw.length() && Character.isWhitespace(raw.charAt(i))) {
+            i++;
+        }
+        return raw.substring(i);
+    }
+
+    /**
+     * Splits a message into arguments at whitespace. Whitespace inside of double quotes does not split, the quotes
+     * themselves are dropped.
+     */
+    public static Arguments parse(String raw) {
+        return parse(raw, 0);
+    }
+
+    /**
+     * Same as {@link #parse(String)}, but ignores everything before an index, like the prefix of the message.
+     */
+    public static Arguments parse(String raw, int from) {
+        Arguments args = new Arguments(raw);
+        boolean inQuote = false;
+        boolean hasQuote = false;
+        int start = -1;
+
+        for (int i = from; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (Character.isWhitespace(c) && !inQuote) {
+                if (start >= 0) {
+                    args.add(start, i, hasQuote);
+                    start = -1;
+                    hasQuote = false;
+                }
+                continue;
+            }
+
+            if (start < 0) {
+                start = i;
+            }
+            if (c == '"') {
+                inQuote = !inQuote;
+                hasQuote = true;
+            }
+        }
+        if (start >= 0) {
+            args.add(start, raw.length(), hasQuote);
+        }
+        return args;
+    }
+
+    private static int findNameEnd(String raw, int start) {
+        int end = start;
+        while (end < raw.length() && isWordChar(raw.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isWordChar(char c) {
+        //same as \w of a regex
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * The arguments of a message as ranges of the message. They are only copied into strings when asked for.
+     */
+    public static class Arguments {
+
+        private final String raw;
+        //start, end and whether there are quotes in it, for each argument
+        private int[] bounds = new int[24];
+        private int size = 0;
+
+        private Arguments(String raw) {
+            this.raw = raw;
+        }
+
+        private void add(int start, int end, boolean hasQuote) {
+            //an argument of just quotes is no argument
+            if (hasQuote && isOnlyQuotes(start, end)) {
+                return;
+            }
+            if (size * 3 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[size * 3] = start;
+            bounds[size * 3 + 1] = end;
+            bounds[size * 3 + 2] = hasQuote ? 1 : 0;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the argument as a view of the message, unless it had quotes in it that had to be removed
+         */
+        public CharSequence get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Argument " + i + " of " + size);
+            }
+            if (bounds[i * 3 + 2] != 0) {
+                return stripQuotes(bounds[i * 3], bounds[i * 3 + 1]);
+            }
+            return CharBuffer.wrap(raw, bounds[i * 3], bounds[i * 3 + 1]);
+        }
+
+        public String[] toArray() {
+            String[] out = new String[size];
+            for (int i = 0; i < size; i++) {
+                int start = bounds[i * 3];
+                int end = bounds[i * 3 + 1];
+                out[i] = bounds[i * 3 + 2] != 0 ? stripQuotes(start, end) : raw.substring(start, end);
+            }
+            return out;
+        }
+
+        private boolean isOnlyQuotes(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (raw.charAt(i) != '"') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String stripQuotes(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                char c = raw.charAt(i);
+                if (c != '"') {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -37,17 +37,28 @@ import java.util.Set;
 public class CommandRegistry {
 
     private static HashMap<String, CommandEntry> registry = new HashMap<>();
+    //the same commands, for looking them up ignoring case
+    private static final CommandTrie trie = new CommandTrie();
 
     public static void registerCommand(String name, Command command, String... aliases) {
         CommandEntry entry = new CommandEntry(command, name);
         registry.put(name, entry);
+        trie.put(name, entry);
         for (String alias : aliases) {
             registry.put(alias, entry);
+            trie.put(alias, entry);
         }
     }
 
     public static CommandEntry getCommand(String name) {
-        return registry.get(name);
+        return trie.get(name, 0, name.length());
+    }
+
+    /**
+     * Looks up the command named by a part of a longer text, like a message
+     */
+    public static CommandEntry getCommand(CharSequence text, int start, int end) {
+        return trie.get(text, start, end);
     }
 
     public static int getSize() {
@@ -72,6 +83,7 @@ public class CommandRegistry {
         }, name);
 
         registry.put(name, entry);
+        trie.put(name, entry);
     }
 
     public static class CommandEntry {
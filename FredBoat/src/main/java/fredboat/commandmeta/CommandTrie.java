@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.commandmeta;
+
+import java.util.Arrays;
+
+/**
+ * Command names and aliases by their lower case letters, so a command can be looked up straight from a slice of a
+ * message, without cutting the name out of it or lower casing it first.
+ */
+class CommandTrie {
+
+    private final Node root = new Node();
+
+    synchronized void put(String name, CommandRegistry.CommandEntry entry) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.getOrAddChild(Character.toLowerCase(name.charAt(i)));
+        }
+        node.entry = entry;
+    }
+
+    /**
+     * @return the command with exactly the name found between start (inclusive) and end (exclusive), ignoring case,
+     * or null if there is none
+     */
+    CommandRegistry.CommandEntry get(CharSequence text, int start, int end) {
+        Node node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.getChild(Character.toLowerCase(text.charAt(i)));
+        }
+        return node != null ? node.entry : null;
+    }
+
+    private static class Node {
+        //command names are short and use few distinct letters, so a linear scan over the children beats hashing
+        private volatile char[] keys = new char[0];
+        private volatile Node[] children = new Node[0];
+        private volatile CommandRegistry.CommandEntry entry;
+
+        Node getChild(char c) {
+            char[] k = keys;
+            Node[] ch = children;
+            for (int i = 0; i < k.length && i < ch.length; i++) {
+                if (k[i] == c) {
+                    return ch[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                Node[] grownChildren = Arrays.copyOf(children, children.length + 1);
+                grownChildren[children.length] = child;
+                char[] grownKeys = Arrays.copyOf(keys, keys.length + 1);
+                grownKeys[keys.length] = c;
+                //children first, readers only look as far as both arrays go
+                children = grownChildren;
+                keys = grownKeys;
+            }
+            return child;
+        }
+    }
+
+}
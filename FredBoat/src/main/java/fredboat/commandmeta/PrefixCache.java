@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.commandmeta;
+
+import fredboat.Config;
+import fredboat.db.EntityReader;
+import fredboat.db.EntityWriter;
+import fredboat.db.entity.GuildConfig;
+import fredboat.shared.constant.DistributionEnum;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.dv8tion.jda.core.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * The command prefixes of the guilds, kept in memory so checking a message never has to go to the database.
+ * Besides its prefix, a guild can always address the bot by mentioning it.
+ * <p>
+ * Prefixes are set with ;;config, which only the music bot has. Its changes are only seen by the process they are
+ * made in, so the other bot sticks to the default prefix instead of picking up whatever it finds on startup.
+ */
+public class PrefixCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PrefixCache.class);
+
+    public static final int MAX_PREFIX_LENGTH = 16;
+
+    //guild id -> prefix, only for guilds that have set their own. the map is replaced instead of changed, so it can be
+    //read without locking
+    private static volatile Long2ObjectOpenHashMap<String> prefixes = new Long2ObjectOpenHashMap<>();
+
+    private PrefixCache() {
+    }
+
+    /**
+     * Loads the prefixes of all guilds, unless this is a distribution without ;;config. Needs to be done before the
+     * shards start receiving messages.
+     */
+    public static void warm() {
+        DistributionEnum distribution = Config.CONFIG.getDistribution();
+        if (distribution != DistributionEnum.DEVELOPMENT && distribution != DistributionEnum.MUSIC
+                && distribution != DistributionEnum.PATRON) {
+            return;
+        }
+
+        try {
+            List<Object[]> rows = EntityReader.loadGuildPrefixes();
+            Long2ObjectOpenHashMap<String> loaded = new Long2ObjectOpenHashMap<>(rows.size());
+            for (Object[] row : rows) {
+                loaded.put(Long.parseLong((String) row[0]), (String) row[1]);
+            }
+            prefixes = loaded;
+            log.info("Loaded the prefixes of " + loaded.size() + " guilds");
+        } catch (Exception e) {
+            log.error("Failed to load the guild prefixes, using the default prefix everywhere", e);
+        }
+    }
+
+    public static String getPrefix(Guild guild) {
+        return getPrefix(guild.getIdLong());
+    }
+
+    public static String getPrefix(long guildId) {
+        String prefix = prefixes.get(guildId);
+        return prefix != null ? prefix : Config.CONFIG.getPrefix();
+    }
+
+    /**
+     * Saves the prefix of a guild, and uses it right away.
+     *
+     * @param prefix the new prefix, or null to go back to the default one
+     */
+    public static void setPrefix(Guild guild, String prefix) {
+        GuildConfig config = EntityReader.getGuildConfig(guild.getId());
+        config.setPrefix(prefix);
+        EntityWriter.mergeGuildConfig(config);
+
+        synchronized (PrefixCache.class) {
+            Long2ObjectOpenHashMap<String> changed = prefixes.clone();
+            if (prefix == null) {
+                changed.remove(guild.getIdLong());
+            } else {
+                changed.put(guild.getIdLong(), prefix);
+            }
+            prefixes = changed;
+        }
+    }
+
+    /**
+     * @return the index at which the prefix of the message ends, or -1 if it doesn't start with the prefix of the
+     * guild or a mention of the bot
+     */
+    public static int matchPrefix(String raw, Guild guild) {
+        String prefix = getPrefix(guild.getIdLong());
+        if (raw.startsWith(prefix)) {
+            return prefix.length();
+        }
+        return matchMention(raw, guild.getJDA().getSelfUser().getIdLong());
+    }
+
+    /**
+     * Matches both {@code <@id>} and the nickname form {@code <@!id>}
+     */
+    static int matchMention(String raw, long userId) {
+        if (raw.length() < 4 || raw.charAt(0) != '<' || raw.charAt(1) != '@') {
+            return -1;
+        }
+
+        int i = raw.charAt(2) == '!' ? 3 : 2;
+        long id = 0;
+        int digits = 0;
+        for (; i < raw.length() && digits < 20; i++, digits++) {
+            char c = raw.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            id = id * 10 + (c - '0');
+        }
+
+        if (digits == 0 || i >= raw.length() || raw.charAt(i) != '>' || id != userId) {
+            return -1;
+        }
+        return i + 1;
+    }
+
+}
@@ -25,7 +25,13 @@
 package fredboat.commandmeta.init;
 
 import fredboat.Config;
+import fredboat.agent.AudioQualityAgent;
+import fredboat.agent.MusicJournalAgent;
+import fredboat.agent.NodeBalancerAgent;
+import fredboat.agent.PlayerHibernationAgent;
 import fredboat.agent.VoiceChannelCleanupAgent;
+import fredboat.audio.AbstractPlayer;
+import fredboat.audio.NodeBalancer;
 import fredboat.command.admin.*;
 import fredboat.command.maintenance.*;
 import fredboat.command.moderation.ConfigCommand;
@@ -124,6 +130,24 @@ public class MusicCommandInitializer {
         } else {
             log.info("Skipped setting up the VoiceChannelCleanupAgent since we are running as PATRON distribution.");
         }
+
+        new AudioQualityAgent().start();
+
+        if (Config.CONFIG != null && Config.CONFIG.isLavaplayerNodesEnabled()) {
+            //the player manager sets up the balancer
+            AbstractPlayer.getPlayerManager();
+        }
+        if (NodeBalancer.getInstance() != null) {
+            new NodeBalancerAgent(NodeBalancer.getInstance()).start();
+        }
+
+        if (Config.CONFIG != null && Config.CONFIG.getHibernationIdleMinutes() > 0) {
+            new PlayerHibernationAgent(Config.CONFIG.getHibernationIdleMinutes()).start();
+        }
+
+        if (Config.CONFIG != null && Config.CONFIG.getMusicJournalIntervalSeconds() > 0) {
+            new MusicJournalAgent(Config.CONFIG.getMusicJournalIntervalSeconds()).start();
+        }
     }
 
 }
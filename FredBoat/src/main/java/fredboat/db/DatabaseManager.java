@@ -27,8 +27,12 @@ package fredboat.db;
 
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.Session;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import fredboat.Config;
 import fredboat.FredBoat;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.jpa.HibernatePersistenceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -247,6 +251,20 @@ public class DatabaseManager {
         return state;
     }
 
+    /**
+     * @return the statistics of the connection pool, or null if the database isn't running
+     */
+    public HikariPoolMXBean getPoolStats() {
+        EntityManagerFactory factory = emf;
+        if (state != DatabaseState.READY || factory == null || !factory.isOpen()) {
+            return null;
+        }
+
+        ConnectionProvider provider = factory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        return provider.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+    }
+
     public enum DatabaseState {
         UNINITIALIZED,
         INITIALIZING,
@@ -87,7 +87,10 @@ public class EntityReader {
         }
     }
 
-    public static List<BlacklistEntry> loadBlacklist() {
+    /**
+     * @return entries of ids that have been blacklisted after the given time
+     */
+    public static List<BlacklistEntry> loadBlacklist(long blacklistedSince) {
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (!dbManager.isAvailable()) {
             throw new DatabaseNotReadyException("The database is not available currently. Please try again later.");
@@ -95,7 +98,48 @@ public class EntityReader {
         EntityManager em = dbManager.getEntityManager();
         List<BlacklistEntry> result;
         try {
-            result = em.createQuery("SELECT b FROM BlacklistEntry b", BlacklistEntry.class).getResultList();
+            result = em.createQuery("SELECT b FROM BlacklistEntry b WHERE b.level >= 0 AND b.blacklistedTimestamp > :since",
+                    BlacklistEntry.class)
+                    .setParameter("since", blacklistedSince)
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the entry of the id, or null if it has none
+     */
+    public static BlacklistEntry getBlacklistEntry(long id) {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (!dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException("The database is not available currently. Please try again later.");
+        }
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            return em.find(BlacklistEntry.class, id);
+        } catch (PersistenceException e) {
+            log.error("Error while trying to find the blacklist entry of id {}", id, e);
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return guild id and prefix of every guild that has set its own prefix
+     */
+    public static List<Object[]> loadGuildPrefixes() {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (!dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException("The database is not available currently. Please try again later.");
+        }
+        EntityManager em = dbManager.getEntityManager();
+        List<Object[]> result;
+        try {
+            result = em.createQuery("SELECT g.guildId, g.prefix FROM GuildConfig g WHERE g.prefix IS NOT NULL", Object[].class)
+                    .getResultList();
         } finally {
             em.close();
         }
@@ -36,6 +36,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.Collections;
 
 public class EntityWriter {
 
@@ -53,11 +55,22 @@ public class EntityWriter {
         merge(ble);
     }
 
+    /**
+     * Merges all entries in a single transaction
+     */
+    public static void mergeBlacklistEntries(Collection<BlacklistEntry> entries) {
+        mergeAll(entries);
+    }
+
     public static void mergeGuildPermissions(GuildPermissions guildPermissions) {
         merge(guildPermissions);
     }
 
     private static void merge(IEntity entity) {
+        mergeAll(Collections.singletonList(entity));
+    }
+
+    private static void mergeAll(Collection<? extends IEntity> entities) {
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (!dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
@@ -66,10 +79,12 @@ public class EntityWriter {
         EntityManager em = dbManager.getEntityManager();
         try {
             em.getTransaction().begin();
-            em.merge(entity);
+            for (IEntity entity : entities) {
+                em.merge(entity);
+            }
             em.getTransaction().commit();
         } catch (JDBCConnectionException e) {
-            log.error("Failed to merge entity {}", entity, e);
+            log.error("Failed to merge entities {}", entities, e);
             throw new DatabaseNotReadyException(e);
         } finally {
             em.close();
@@ -29,6 +29,7 @@ import org.hibernate.annotations.ColumnDefault;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 
 /**
@@ -37,7 +38,8 @@ import javax.persistence.Table;
  * closely related to the stuff in fredboat.util.ratelimit
  */
 @Entity
-@Table(name = "blacklist")
+//the blacklistings that may still be running are loaded by their timestamp at startup
+@Table(name = "blacklist", indexes = @Index(name = "blacklist_blacklisted_timestamp", columnList = "blacklisted_timestamp"))
 public class BlacklistEntry implements IEntity {
 
     //id of the user or guild that this blacklist entry belongs to
@@ -50,6 +50,10 @@ public class GuildConfig implements IEntity {
     @Column(name = "lang", nullable = false)
     private String lang = "en_US";
 
+    //null means the default prefix of the bot
+    @Column(name = "prefix")
+    private String prefix = null;
+
     public GuildConfig(String id) {
         this.guildId = id;
     }
@@ -90,6 +94,14 @@ public class GuildConfig implements IEntity {
         this.lang = lang;
     }
 
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
     /*@OneToMany
     @JoinColumn(name = "guildconfig")
     private Set<TCConfig> textChannels;
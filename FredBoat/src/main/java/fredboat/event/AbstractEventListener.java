@@ -32,11 +32,9 @@ import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.core.hooks.ListenerAdapter;
 
 import java.util.HashMap;
-import java.util.regex.Pattern;
 
 public abstract class AbstractEventListener extends ListenerAdapter {
 
-    static final Pattern COMMAND_NAME_PREFIX = Pattern.compile("(\\w+)");
     private final HashMap<String, UserListener> userListener = new HashMap<>();
 
     AbstractEventListener() {
@@ -31,7 +31,9 @@ import fredboat.command.fun.TalkCommand;
 import fredboat.command.music.control.SkipCommand;
 import fredboat.command.util.HelpCommand;
 import fredboat.commandmeta.CommandManager;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import fredboat.db.EntityReader;
 import fredboat.feature.I18n;
@@ -54,7 +56,6 @@ import org.slf4j.LoggerFactory;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 
 public class EventListenerBoat extends AbstractEventListener {
 
@@ -87,30 +88,26 @@ public class EventListenerBoat extends AbstractEventListener {
             return;
         }
 
-        if (event.getMessage().getContent().length() < Config.CONFIG.getPrefix().length()) {
-            return;
-        }
-
-        if (event.getMessage().getContent().substring(0, Config.CONFIG.getPrefix().length()).equals(Config.CONFIG.getPrefix())) {
-            Command invoked = null;
-            log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + event.getMessage().getRawContent());
-            Matcher matcher = COMMAND_NAME_PREFIX.matcher(event.getMessage().getContent());
-
-            if(matcher.find()) {
-                String cmdName = matcher.group();
-                CommandRegistry.CommandEntry entry = CommandRegistry.getCommand(cmdName);
-                if(entry != null) {
-                    invoked = entry.command;
-                } else {
-                    log.info("Unknown command:", cmdName);
-                }
-            }
-
-            if (invoked == null) {
+        String raw = event.getMessage().getRawContent();
+        String prefix = PrefixCache.getPrefix(event.getGuild());
+        if (raw.startsWith(prefix)) {
+            log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + raw);
+            CommandRegistry.CommandEntry entry = CommandParser.findCommand(raw, prefix.length());
+            if (entry == null) {
+                log.debug("Unknown command: " + raw);
                 return;
             }
 
-            limitOrExecuteCommand(invoked, event);
+            limitOrExecuteCommand(entry.command, event);
+            return;
+        }
+
+        //mentioning the bot works as a prefix too, anything else said to it goes to the talk command
+        int mentionEnd = PrefixCache.matchPrefix(raw, event.getGuild());
+        CommandRegistry.CommandEntry entry = mentionEnd >= 0 ? CommandParser.findCommand(raw, mentionEnd) : null;
+        if (entry != null) {
+            log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + raw);
+            limitOrExecuteCommand(entry.command, event);
         } else if (event.getMessage().getMentionedUsers().contains(event.getJDA().getSelfUser())) {
             log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + event.getMessage().getRawContent());
             CommandManager.commandsExecuted.getAndIncrement();
@@ -135,7 +132,7 @@ public class EventListenerBoat extends AbstractEventListener {
             String out = event.getMember().getAsMention() + ": " + I18n.get(event.getGuild()).getString("ratelimitedGeneralInfo");
             if (ratelimiterResult.b == SkipCommand.class) { //we can compare classes with == as long as we are using the same classloader (which we are)
                 //add a nice reminder on how to skip more than 1 song
-                out += "\n" + MessageFormat.format(I18n.get(event.getGuild()).getString("ratelimitedSkipCommand"), "`" + Config.CONFIG.getPrefix() + "skip n-m`");
+                out += "\n" + MessageFormat.format(I18n.get(event.getGuild()).getString("ratelimitedSkipCommand"), "`" + PrefixCache.getPrefix(event.getGuild()) + "skip n-m`");
             }
             event.getTextChannel().sendMessage(out).queue();
         }
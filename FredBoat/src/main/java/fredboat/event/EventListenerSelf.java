@@ -24,16 +24,15 @@
  */
 package fredboat.event;
 
-import fredboat.Config;
 import fredboat.commandmeta.CommandManager;
+import fredboat.commandmeta.CommandParser;
 import fredboat.commandmeta.CommandRegistry;
+import fredboat.commandmeta.PrefixCache;
 import fredboat.commandmeta.abs.Command;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.regex.Matcher;
-
 public class EventListenerSelf extends AbstractEventListener {
 
     private static final Logger log = LoggerFactory.getLogger(EventListenerSelf.class);
@@ -47,21 +46,16 @@ public class EventListenerSelf extends AbstractEventListener {
             return;
         }
 
-        if (event.getMessage().getContent().length() < Config.CONFIG.getPrefix().length()) {
+        if (event.getGuild() == null) {
             return;
         }
 
-        if (event.getMessage().getContent().substring(0, Config.CONFIG.getPrefix().length()).equals(Config.CONFIG.getPrefix())) {
-            Command invoked = null;
-            try {
-                log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + event.getMessage().getRawContent());
-                Matcher matcher = COMMAND_NAME_PREFIX.matcher(event.getMessage().getContent());
-                matcher.find();
-
-                invoked = CommandRegistry.getCommand(matcher.group()).command;
-            } catch (NullPointerException ignored) {
-
-            }
+        String raw = event.getMessage().getRawContent();
+        String prefix = PrefixCache.getPrefix(event.getGuild());
+        if (raw.startsWith(prefix)) {
+            log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + raw);
+            CommandRegistry.CommandEntry entry = CommandParser.findCommand(raw, prefix.length());
+            Command invoked = entry != null ? entry.command : null;
 
             if (invoked == null) {
                 return;
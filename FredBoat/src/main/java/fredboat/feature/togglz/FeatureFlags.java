@@ -53,7 +53,16 @@ public enum FeatureFlags implements Feature {
     //using data methods that don't collect everything to new data structures
     @Label("Streaming data methods")
     @EnabledByDefault
-    DATA_METHODS;
+    DATA_METHODS,
+
+    //keep queued tracks encoded in direct memory instead of on the heap
+    @Label("Compact queue storage")
+    COMPACT_QUEUE,
+
+    //lower the resampling quality and grow the frame buffers when audio starts to stutter
+    @Label("Adaptive audio quality")
+    @EnabledByDefault
+    ADAPTIVE_AUDIO_QUALITY;
 
     public boolean isActive() {
         return FeatureConfig.getTheFeatureManager().isActive(this);
@@ -0,0 +1,253 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A small registry of counters, histograms and gauges, written out in the Prometheus text exposition format.
+ * <p>
+ * Counters and histograms are updated where things happen and are cheap to update from any thread. Gauges are read
+ * from their source when the metrics are written, so they cost nothing in between scrapes.
+ */
+public class Metrics {
+
+    //seconds, covers everything from a cached lookup to a slow playlist load
+    public static final double[] DEFAULT_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    //keeps the order in which metrics are registered
+    private static final List<Metric> metrics = new ArrayList<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return register(new Histogram(name, help, DEFAULT_BUCKETS, labelNames));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        gauge(name, help, new String[0], sink -> sink.accept(value.getAsDouble()));
+    }
+
+    /**
+     * @param collector called on every scrape, reports the current values with their label values
+     */
+    public static void gauge(String name, String help, String[] labelNames, Consumer<Sink> collector) {
+        register(new Collected(name, help, "gauge", labelNames, collector));
+    }
+
+    /**
+     * For totals that are already counted elsewhere
+     */
+    public static void counterFunction(String name, String help, String[] labelNames, Consumer<Sink> collector) {
+        register(new Collected(name, help, "counter", labelNames, collector));
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        List<Metric> copy;
+        synchronized (metrics) {
+            copy = new ArrayList<>(metrics);
+        }
+        for (Metric metric : copy) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            try {
+                metric.write(out);
+            } catch (Exception e) {
+                //one broken source should not take the others down with it
+                out.append("# failed to collect ").append(metric.name).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static <T extends Metric> T register(T metric) {
+        synchronized (metrics) {
+            for (Metric m : metrics) {
+                if (m.name.equals(metric.name)) {
+                    throw new IllegalArgumentException("Metric " + metric.name + " is registered already");
+                }
+            }
+            metrics.add(metric);
+        }
+        return metric;
+    }
+
+    public interface Sink {
+        void accept(double value, String... labelValues);
+    }
+
+    private static abstract class Metric {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+
+        Metric(String name, String help, String type, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+
+        abstract void write(StringBuilder out);
+
+        void writeSample(StringBuilder out, String suffix, String[] labelValues, String extraLabel, String extraValue, double value) {
+            out.append(name).append(suffix);
+            if (labelNames.length > 0 || extraLabel != null) {
+                out.append('{');
+                for (int i = 0; i < labelNames.length; i++) {
+                    if (i > 0) out.append(',');
+                    out.append(labelNames[i]).append("=\"").append(escape(labelValues[i])).append('"');
+                }
+                if (extraLabel != null) {
+                    if (labelNames.length > 0) out.append(',');
+                    out.append(extraLabel).append("=\"").append(extraValue).append('"');
+                }
+                out.append('}');
+            }
+            out.append(' ').append(format(value)).append('\n');
+        }
+
+        void checkLabels(String[] labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " has the labels " + Arrays.toString(labelNames)
+                        + ", got the values " + Arrays.toString(labelValues));
+            }
+        }
+    }
+
+    public static class Counter extends Metric {
+        private final Map<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+        private Counter(String name, String help, String[] labelNames) {
+            super(name, help, "counter", labelNames);
+        }
+
+        public void inc(String... labelValues) {
+            checkLabels(labelValues);
+            children.computeIfAbsent(Arrays.asList(labelValues), k -> new LongAdder()).increment();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            children.forEach((labels, value) -> writeSample(out, "", labels.toArray(new String[0]), null, null, value.sum()));
+        }
+    }
+
+    public static class Histogram extends Metric {
+        private final double[] buckets;
+        private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+        private Histogram(String name, String help, double[] buckets, String[] labelNames) {
+            super(name, help, "histogram", labelNames);
+            this.buckets = buckets;
+        }
+
+        public void observe(double value, String... labelValues) {
+            checkLabels(labelValues);
+            Child child = children.computeIfAbsent(Arrays.asList(labelValues), k -> new Child(buckets.length));
+            int i = 0;
+            while (i < buckets.length && value > buckets[i]) {
+                i++;
+            }
+            child.counts[i].increment();
+            child.sum.add(value);
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            children.forEach((labels, child) -> {
+                String[] labelValues = labels.toArray(new String[0]);
+                long cumulative = 0;
+                for (int i = 0; i < buckets.length; i++) {
+                    cumulative += child.counts[i].sum();
+                    writeSample(out, "_bucket", labelValues, "le", format(buckets[i]), cumulative);
+                }
+                cumulative += child.counts[buckets.length].sum();
+                writeSample(out, "_bucket", labelValues, "le", "+Inf", cumulative);
+                writeSample(out, "_sum", labelValues, null, null, child.sum.sum());
+                writeSample(out, "_count", labelValues, null, null, cumulative);
+            });
+        }
+
+        private static class Child {
+            //the last one counts the values above the biggest bucket
+            final LongAdder[] counts;
+            final DoubleAdder sum = new DoubleAdder();
+
+            Child(int buckets) {
+                counts = new LongAdder[buckets + 1];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = new LongAdder();
+                }
+            }
+        }
+    }
+
+    private static class Collected extends Metric {
+        private final Consumer<Sink> collector;
+
+        Collected(String name, String help, String type, String[] labelNames, Consumer<Sink> collector) {
+            super(name, help, type, labelNames);
+            this.collector = collector;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            collector.accept((value, labelValues) -> {
+                checkLabels(labelValues);
+                writeSample(out, "", labelValues, null, null, value);
+            });
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * A set of longs that may answer with false positives, but never with false negatives. Sized for a false positive
+ * rate of about 1% at the expected number of values.
+ * See Kirsch and Mitzenmacher, "Less Hashing, Same Performance: Building a Better Bloom Filter"
+ */
+public class BloomFilter {
+
+    private static final int HASHES = 7;
+    private static final double BITS_PER_VALUE = 9.6;
+
+    private final long[] words;
+    private final int mask;
+
+    public BloomFilter(int expectedValues) {
+        long bits = Math.max(64, (long) Math.ceil(expectedValues * BITS_PER_VALUE));
+        //rounded up to a power of two, so a bit can be picked with a mask
+        int size = (int) Math.min(1L << 30, Long.highestOneBit(bits - 1) << 1);
+        words = new long[Math.max(1, size >>> 6)];
+        mask = size - 1;
+    }
+
+    public void add(long value) {
+        long hash = HashCommon.murmurHash3(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long value) {
+        long hash = HashCommon.murmurHash3(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -26,15 +26,12 @@ package fredboat.util;
 
 import fredboat.FredBoat;
 import fredboat.feature.togglz.FeatureFlags;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.ISnowflake;
 import net.dv8tion.jda.core.entities.impl.JDAImpl;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * JDA methods/hacks that had merit to put in its own class.
@@ -52,11 +49,14 @@ public class JDAUtil {
         }
     }
 
-    public static long countAllUniqueUsers(List<FredBoat> shards, AtomicInteger biggestUserCount) {
+    /**
+     * @return the number of users known to the shard, see {@link fredboat.EntityCounter} for the users of all shards
+     */
+    public static int countUsers(FredBoat shard) {
         if (FeatureFlags.DATA_METHODS.isActive()) {
-            return New.countAllUniqueUsers(shards, biggestUserCount);
+            return New.countUsers(shard);
         } else {
-            return Old.countAllUniqueUsers(shards, biggestUserCount);
+            return Old.countUsers(shard);
         }
     }
     public static List<Guild> getAllGuilds(List<FredBoat> shards) {
@@ -78,22 +78,8 @@ public class JDAUtil {
                     .sum();
         }
 
-        public static long countAllUniqueUsers(List<FredBoat> shards, AtomicInteger biggestUserCount) {
-            int expected = biggestUserCount.get() > 0 ? biggestUserCount.get() : LongOpenHashSet.DEFAULT_INITIAL_SIZE;
-            LongOpenHashSet uniqueUsers = new LongOpenHashSet(expected + 100000); //add 100k for good measure
-            Collections.unmodifiableCollection(shards).forEach(
-                    // IMPLEMENTATION NOTE: READ
-                    // careful, touching the map is in not all cases safe
-                    // In this case, it just so happens to be safe, because the map is synchronized
-                    // this means however, that for the (small) duration, the map cannot be used by other threads (if there are any)
-                    shard -> ((JDAImpl) shard.getJda()).getUserMap().forEachValue(user -> {
-                        uniqueUsers.add(user.getIdLong());
-                        return true;
-                    })
-            );
-            //never shrink the user count (might happen due to not connected shards)
-            biggestUserCount.accumulateAndGet(uniqueUsers.size(), Math::max);
-            return uniqueUsers.size();
+        public static int countUsers(FredBoat shard) {
+            return ((JDAImpl) shard.getJda()).getUserMap().size();
         }
 
         public static List<Guild> getAllGuilds(List<FredBoat> shards) {
@@ -119,15 +105,8 @@ public class JDAUtil {
                     .sum();
         }
 
-        public static long countAllUniqueUsers(List<FredBoat> shards, AtomicInteger biggestUserCount) {
-            int expected = biggestUserCount.get() > 0 ? biggestUserCount.get() : LongOpenHashSet.DEFAULT_INITIAL_SIZE;
-            LongOpenHashSet uniqueUsers = new LongOpenHashSet(expected + 100000); //add 100k for good measure
-            Collections.unmodifiableCollection(shards).forEach(
-                    shard -> shard.getJda().getUsers().parallelStream().mapToLong(ISnowflake::getIdLong).forEach(uniqueUsers::add)
-            );
-            //never shrink the user count (might happen due to not connected shards)
-            biggestUserCount.accumulateAndGet(uniqueUsers.size(), Math::max);
-            return uniqueUsers.size();
+        public static int countUsers(FredBoat shard) {
+            return shard.getJda().getUsers().size();
         }
 
         public static List<Guild> getAllGuilds(List<FredBoat> shards) {
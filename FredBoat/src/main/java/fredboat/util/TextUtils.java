@@ -106,7 +106,7 @@ public class TextUtils {
         //builder.append("```java\n");
         for (StackTraceElement ste : e.getStackTrace()) {
             builder.append("\t" + ste.toString() + "\n");
-            if ("prefixCalled".equals(ste.getMethodName())) {
+            if ("runCommand".equals(ste.getMethodName())) {
                 break;
             }
         }
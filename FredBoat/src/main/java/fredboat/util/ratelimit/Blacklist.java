@@ -22,22 +22,33 @@
  * SOFTWARE.
  */
 
+
 package fredboat.util.ratelimit;
 
 import fredboat.db.EntityReader;
 import fredboat.db.EntityWriter;
 import fredboat.db.entity.BlacklistEntry;
+import fredboat.util.BloomFilter;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
  * Provides a forgiving blacklist with progressively increasing blacklist lengths
+ * <p>
+ * Only the ids that are blacklisted right now are loaded at startup, so the size of the blacklist table doesn't
+ * matter. The history of all other ids is read from the database when they hit a ratelimit again.
  *
  * In an environment where shards are running in different containers and not inside a single jar this class will need
  * some help in keeping bans up to date, that is, reading them from the database, either on changes (rethinkDB?) or
@@ -59,23 +70,42 @@ public class Blacklist {
         blacklistLevels = Collections.unmodifiableList(levels);
     }
 
+    //entries that haven't hit a ratelimit for this long are dropped from memory, they are in the database
+    private static final long IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     private final long rateLimitHitsBeforeBlacklist;
 
+    //entries of the ids that have hit a ratelimit lately, guarded by this
     private final Long2ObjectOpenHashMap<BlacklistEntry> blacklist;
 
+    //the ids that are blacklisted right now. it is replaced instead of changed, so it can be read without locking
+    private volatile ActiveBlacklist active;
+    //guards replacing it. the entries are locked before this, and before this class
+    private final Object activeLock = new Object();
+
     //users that can never be blacklisted
     private final Set<Long> userWhiteList;
 
+    private final BlacklistPersister persister;
+
 
     public Blacklist(Set<Long> userWhiteList, long rateLimitHitsBeforeBlacklist) {
         this.blacklist = new Long2ObjectOpenHashMap<>();
-        //load blacklist from database
-        for (BlacklistEntry ble : EntityReader.loadBlacklist()) {
-            blacklist.put(ble.id, ble);
+
+        //load the blacklistings that may still be running from the database
+        long now = System.currentTimeMillis();
+        Long2LongOpenHashMap expiries = new Long2LongOpenHashMap();
+        for (BlacklistEntry ble : EntityReader.loadBlacklist(now - blacklistLevels.get(blacklistLevels.size() - 1))) {
+            long expiry = ble.blacklistedTimestamp + getBlacklistTimeLength(ble.level);
+            if (expiry > now) {
+                expiries.put(ble.id, expiry);
+            }
         }
+        this.active = new ActiveBlacklist(expiries);
 
         this.rateLimitHitsBeforeBlacklist = rateLimitHitsBeforeBlacklist;
         this.userWhiteList = Collections.unmodifiableSet(userWhiteList);
+        this.persister = new BlacklistPersister(this);
     }
 
     /**
@@ -90,76 +120,149 @@ public class Blacklist {
         //first of all, ppl that can never get blacklisted no matter what
         if (userWhiteList.contains(id)) return false;
 
-        BlacklistEntry blEntry = blacklist.get(id);
-        if (blEntry == null) return false;     //blacklist entry doesn't even exist
-        if (blEntry.level < 0) return false;   //blacklist entry exists, but id hasn't actually been blacklisted yet
-
-        //id was a blacklisted, but it has run out
-        if (System.currentTimeMillis() > blEntry.blacklistedTimestamp + (getBlacklistTimeLength(blEntry.level)))
-            return false;
-
-        //looks like this id is blacklisted ¯\_(ツ)_/¯
-        return true;
+        return active.isBlacklisted(id, System.currentTimeMillis());
     }
 
     /**
      * @return length if issued blacklisting, 0 if none has been issued
      */
     public long hitRateLimit(long id) {
-        //update blacklist entry of this id
-        long blacklistingLength = 0;
-        BlacklistEntry blEntry = blacklist.get(id);
-        if (blEntry == null)
-            blEntry = getOrCreateBlacklistEntry(id);
+        while (true) {
+            //update blacklist entry of this id
+            long blacklistingLength = 0;
+            BlacklistEntry blEntry = getOrLoadBlacklistEntry(id);
 
-        //synchronize on the individual blacklist entries since we are about to change and save them
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (blEntry) {
-            long now = System.currentTimeMillis();
+            //synchronize on the individual blacklist entries since we are about to change and save them
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (blEntry) {
+                //evicted since we got it? then changes to it would be lost, look it up again
+                if (!isCurrent(blEntry)) continue;
 
-            //is the last ratelimit hit a long time away (1 hour)? then reset the ratelimit hits
-            if (now - blEntry.rateLimitReachedTimestamp > 60 * 60 * 1000) {
-                blEntry.rateLimitReached = 0;
-            }
-            blEntry.rateLimitReached++;
-            blEntry.rateLimitReachedTimestamp = now;
-            if (blEntry.rateLimitReached >= rateLimitHitsBeforeBlacklist) {
-                //issue blacklist incident
-                blEntry.level++;
-                if (blEntry.level < 0) blEntry.level = 0;
-                blEntry.blacklistedTimestamp = now;
-                blEntry.rateLimitReached = 0; //reset these for the next time
-
-                blacklistingLength = getBlacklistTimeLength(blEntry.level);
+                long now = System.currentTimeMillis();
+
+                //is the last ratelimit hit a long time away (1 hour)? then reset the ratelimit hits
+                if (now - blEntry.rateLimitReachedTimestamp > 60 * 60 * 1000) {
+                    blEntry.rateLimitReached = 0;
+                }
+                blEntry.rateLimitReached++;
+                blEntry.rateLimitReachedTimestamp = now;
+                if (blEntry.rateLimitReached >= rateLimitHitsBeforeBlacklist) {
+                    //issue blacklist incident
+                    blEntry.level++;
+                    if (blEntry.level < 0) blEntry.level = 0;
+                    blEntry.blacklistedTimestamp = now;
+                    blEntry.rateLimitReached = 0; //reset these for the next time
+
+                    blacklistingLength = getBlacklistTimeLength(blEntry.level);
+                    activate(id, now + blacklistingLength, now);
+                }
+                //persisted in the background, spamming users would otherwise turn into a transaction per request
+                persister.markDirty(blEntry);
+                return blacklistingLength;
             }
-            //persist it
-            //if this turns up to be a performance bottleneck, have an agent run that persists the blacklist occasionally
-            EntityWriter.mergeBlacklistEntry(blEntry);
-            return blacklistingLength;
         }
     }
 
+    private synchronized boolean isCurrent(BlacklistEntry blEntry) {
+        return blacklist.get(blEntry.id) == blEntry;
+    }
+
 
     /**
-     * synchronize the creation of new blacklist entries
+     * Looks up the entry of an id in memory, or in the database if it has been a while since its last incident
      */
-    private synchronized BlacklistEntry getOrCreateBlacklistEntry(long id) {
-        //was one created in the meantime? use that
-        BlacklistEntry result = blacklist.get(id);
-        if (result != null) return result;
-
-        //create and return it
-        result = new BlacklistEntry(id);
-        blacklist.put(id, result);
-        return result;
+    private BlacklistEntry getOrLoadBlacklistEntry(long id) {
+        synchronized (this) {
+            BlacklistEntry result = blacklist.get(id);
+            if (result != null) return result;
+        }
+
+        //read outside of the lock, so other ids don't have to wait for the database
+        BlacklistEntry loaded = EntityReader.getBlacklistEntry(id);
+
+        synchronized (this) {
+            //was one created in the meantime? use that
+            BlacklistEntry result = blacklist.get(id);
+            if (result != null) return result;
+
+            //create and return it
+            result = loaded != null ? loaded : new BlacklistEntry(id);
+            blacklist.put(id, result);
+            return result;
+        }
+    }
+
+    private void activate(long id, long expiry, long now) {
+        synchronized (activeLock) {
+            active = active.with(id, expiry, now);
+        }
     }
 
     /**
      * completely resets a blacklist for an id
      */
-    public synchronized void liftBlacklist(long id) {
-        blacklist.remove(id);
-        EntityWriter.deleteBlacklistEntry(id);
+    public void liftBlacklist(long id) {
+        synchronized (this) {
+            blacklist.remove(id);
+        }
+        synchronized (activeLock) {
+            active = active.without(id);
+        }
+        //outside of the lock, the persister may be waiting for it
+        persister.forget(id, () -> EntityWriter.deleteBlacklistEntry(id));
+    }
+
+    /**
+     * Writes all changes that haven't been persisted yet
+     */
+    public void flush() {
+        persister.flush();
+    }
+
+    /**
+     * Drops the entries from memory that haven't hit a ratelimit in a while and have no unwritten changes
+     */
+    void evictIdle(long now) {
+        List<BlacklistEntry> candidates = new ArrayList<>();
+        synchronized (this) {
+            ObjectIterator<Long2ObjectMap.Entry<BlacklistEntry>> it = blacklist.long2ObjectEntrySet().fastIterator();
+            while (it.hasNext()) {
+                BlacklistEntry blEntry = it.next().getValue();
+                //read without the lock of the entry, it is checked again below
+                if (now - blEntry.rateLimitReachedTimestamp > IDLE_MILLIS) {
+                    candidates.add(blEntry);
+                }
+            }
+        }
+
+        for (BlacklistEntry blEntry : candidates) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (blEntry) {
+                if (now - blEntry.rateLimitReachedTimestamp <= IDLE_MILLIS || persister.isDirty(blEntry.id)) {
+                    continue;
+                }
+                synchronized (this) {
+                    if (blacklist.get(blEntry.id) == blEntry) {
+                        blacklist.remove(blEntry.id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of an entry that is safe to be written while the original keeps changing
+     */
+    static BlacklistEntry snapshot(BlacklistEntry blEntry) {
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (blEntry) {
+            BlacklistEntry copy = new BlacklistEntry(blEntry.id);
+            copy.level = blEntry.level;
+            copy.rateLimitReached = blEntry.rateLimitReached;
+            copy.rateLimitReachedTimestamp = blEntry.rateLimitReachedTimestamp;
+            copy.blacklistedTimestamp = blEntry.blacklistedTimestamp;
+            return copy;
+        }
     }
 
     /**
@@ -169,4 +272,50 @@ public class Blacklist {
         if (blacklistLevel < 0) return 0;
         return blacklistLevel >= blacklistLevels.size() ? blacklistLevels.get(blacklistLevels.size() - 1) : blacklistLevels.get(blacklistLevel);
     }
+
+    /**
+     * The running blacklistings by the time they run out. Nearly all ids that are checked have never been
+     * blacklisted, the bloom filter turns them away without looking into the map.
+     */
+    static class ActiveBlacklist {
+
+        private final Long2LongOpenHashMap expiries;
+        private final BloomFilter filter;
+
+        ActiveBlacklist(Long2LongOpenHashMap expiries) {
+            this.expiries = expiries;
+            this.filter = new BloomFilter(expiries.size());
+            for (LongIterator it = expiries.keySet().iterator(); it.hasNext(); ) {
+                filter.add(it.nextLong());
+            }
+        }
+
+        boolean isBlacklisted(long id, long now) {
+            //a missing id gets the default return value of 0, which has always passed
+            return filter.mightContain(id) && expiries.get(id) > now;
+        }
+
+        /**
+         * @return a copy with the blacklisting added, and the ones that ran out dropped
+         */
+        ActiveBlacklist with(long id, long expiry, long now) {
+            Long2LongOpenHashMap copy = new Long2LongOpenHashMap(expiries.size() + 1);
+            for (Long2LongMap.Entry e : expiries.long2LongEntrySet()) {
+                if (e.getLongValue() > now) {
+                    copy.put(e.getLongKey(), e.getLongValue());
+                }
+            }
+            copy.put(id, expiry);
+            return new ActiveBlacklist(copy);
+        }
+
+        ActiveBlacklist without(long id) {
+            if (!expiries.containsKey(id)) {
+                return this;
+            }
+            Long2LongOpenHashMap copy = new Long2LongOpenHashMap(expiries);
+            copy.remove(id);
+            return new ActiveBlacklist(copy);
+        }
+    }
 }
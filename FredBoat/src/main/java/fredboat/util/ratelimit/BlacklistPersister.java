@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package fredboat.util.ratelimit;
+
+import fredboat.db.EntityWriter;
+import fredboat.db.entity.BlacklistEntry;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the changes of the blacklist to the database behind its back. Entries are only marked as changed, however
+ * often they change in between, and are written in batches either regularly or once enough have piled up. This keeps
+ * a user hammering the ratelimits from turning into a transaction per request.
+ * <p>
+ * The blacklist in memory stays authoritative, the database only needs to catch up before a restart.
+ */
+class BlacklistPersister {
+
+    private static final Logger log = LoggerFactory.getLogger(BlacklistPersister.class);
+
+    private static final long FLUSH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    //this many changed entries start a flush right away
+    private static final int FLUSH_THRESHOLD = 500;
+    //entries per transaction
+    private static final int BATCH_SIZE = 500;
+
+    private final Blacklist blacklist;
+    private final ScheduledExecutorService scheduler;
+
+    //guarded by this
+    private Long2ObjectOpenHashMap<BlacklistEntry> dirty = new Long2ObjectOpenHashMap<>();
+    private boolean flushQueued = false;
+
+    //held while writing, so an entry being deleted can't be written back right after
+    private final Object writeLock = new Object();
+
+    BlacklistPersister(Blacklist blacklist) {
+        this.blacklist = blacklist;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "blacklist-persister");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            //only drop entries once their changes are in the database, or they would be read back outdated
+            if (flushSafely()) {
+                blacklist.evictIdle(System.currentTimeMillis());
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void markDirty(BlacklistEntry blEntry) {
+        dirty.put(blEntry.id, blEntry);
+        if (dirty.size() >= FLUSH_THRESHOLD && !flushQueued) {
+            flushQueued = true;
+            scheduler.execute(this::flushSafely);
+        }
+    }
+
+    synchronized boolean isDirty(long id) {
+        return dirty.containsKey(id);
+    }
+
+    /**
+     * Drops pending changes of an id and runs the deletion once no write is underway
+     */
+    void forget(long id, Runnable deletion) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                dirty.remove(id);
+            }
+            deletion.run();
+        }
+    }
+
+    /**
+     * Writes all pending changes. Also called when shutting down.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            Long2ObjectOpenHashMap<BlacklistEntry> entries;
+            synchronized (this) {
+                entries = dirty;
+                dirty = new Long2ObjectOpenHashMap<>();
+                flushQueued = false;
+            }
+
+            List<BlacklistEntry> batch = new ArrayList<>(Math.min(entries.size(), BATCH_SIZE));
+            List<BlacklistEntry> originals = new ArrayList<>(Math.min(entries.size(), BATCH_SIZE));
+            ObjectIterator<BlacklistEntry> it = entries.values().iterator();
+            try {
+                while (it.hasNext()) {
+                    BlacklistEntry blEntry = it.next();
+                    batch.add(Blacklist.snapshot(blEntry));
+                    originals.add(blEntry);
+                    if (batch.size() >= BATCH_SIZE || !it.hasNext()) {
+                        EntityWriter.mergeBlacklistEntries(batch);
+                        batch.clear();
+                        originals.clear();
+                    }
+                }
+            } catch (Exception e) {
+                //try the ones that haven't been written again with the next flush, unless they changed again already
+                synchronized (this) {
+                    for (BlacklistEntry blEntry : originals) {
+                        retry(blEntry);
+                    }
+                    while (it.hasNext()) {
+                        retry(it.next());
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void retry(BlacklistEntry blEntry) {
+        if (!dirty.containsKey(blEntry.id)) {
+            dirty.put(blEntry.id, blEntry);
+        }
+    }
+
+    /**
+     * @return true if the flush went through
+     */
+    private boolean flushSafely() {
+        try {
+            flush();
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to persist the blacklist, trying again later", e);
+            return false;
+        }
+    }
+
+}
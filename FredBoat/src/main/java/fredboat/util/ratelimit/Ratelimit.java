@@ -25,29 +25,57 @@
 package fredboat.util.ratelimit;
 
 import fredboat.FredBoat;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.TextChannel;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
- * This class uses an algorithm based on leaky bucket, but is optimized, mainly we work around having tons of threads for
- * each bucket filling/emptying it, instead saving timestamps. As a result this class works better for shorter time
- * periods, as the amount of timestamps to hold decreases.
- * some calculations can be found here: https://docs.google.com/spreadsheets/d/1Afdn25AsFD-v3WQGp56rfVwO1y2d105IQk3dtfTcKwA/edit#gid=0
+ * This class uses the generic cell rate algorithm (GCRA), a leaky bucket that only needs to remember a single point in
+ * time for each id: the theoretical arrival time (TAT) at which its bucket would be empty again. Every request moves
+ * the TAT into the future by its share of the time span, and a request is denied while the TAT is more than one time
+ * span ahead of now. The TAT of an id is looked up without locking and updated with a compare-and-set, only the first
+ * request of an id briefly locks a bin of the map to create its TAT.
+ * <p>
+ * Ids whose TAT has passed have an empty bucket, they are dropped in the background so the limits don't keep growing
+ * with every user that has ever run a command.
  */
 public class Ratelimit {
 
     public enum Scope {USER, GUILD}
 
-    private final Long2ObjectOpenHashMap<Rate> limits;
-    private final long maxRequests;
+    private static final long EXPIRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final List<Ratelimit> instances = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ratelimit-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        expiry.scheduleAtFixedRate(() -> {
+            for (Ratelimit ratelimit : instances) {
+                ratelimit.expire(System.currentTimeMillis());
+            }
+        }, EXPIRY_INTERVAL_MILLIS, EXPIRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    //id -> theoretical arrival time in milliseconds
+    private final ConcurrentHashMap<Long, AtomicLong> limits = new ConcurrentHashMap<>();
     private final long timeSpan;
+    //how far a single request moves the theoretical arrival time
+    private final double emissionInterval;
 
     //users that can never be limited
     private final Set<Long> userWhiteList;
@@ -71,13 +99,13 @@ public class Ratelimit {
      * @param clazz         the optional (=can be null) clazz of commands to be ratelimited by this ratelimiter
      */
     public Ratelimit(Set<Long> userWhiteList, Scope scope, long maxRequests, long milliseconds, Class clazz) {
-        this.limits = new Long2ObjectOpenHashMap<>();
-
         this.userWhiteList = Collections.unmodifiableSet(userWhiteList);
         this.scope = scope;
-        this.maxRequests = maxRequests;
         this.timeSpan = milliseconds;
+        this.emissionInterval = (double) milliseconds / maxRequests;
         this.clazz = clazz;
+
+        instances.add(this);
     }
 
     public boolean isAllowed(Member invoker, int weight) {
@@ -88,7 +116,7 @@ public class Ratelimit {
      * @return a RateResult object containing information whether the users request is rate limited or not and the reason for that
      * <p>
      * Caveat: This allows requests to overstep the ratelimit with single high weight requests.
-     * The clearing of timestamps ensures it will take longer for them to get available again though.
+     * Their whole weight is accounted for though, so it will take longer for them to get available again.
      */
     public boolean isAllowed(Member invoker, int weight, Blacklist blacklist, TextChannel blacklistOutput) {
         //This gets called real often, right before every command execution. Keep it light, don't do any blocking stuff,
@@ -102,31 +130,8 @@ public class Ratelimit {
         if (scope == Scope.GUILD) id = invoker.getGuild().getIdLong();
         else id = invoker.getUser().getIdLong();
 
-        Rate rate = limits.get(id);
-        if (rate == null)
-            rate = getOrCreateRate(id);
-
-        //synchronize on the individual rate objects since we are about to change and save them
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (rate) {
-            long now = System.currentTimeMillis();
-
-            //clear outdated timestamps
-            long maxTimeStampsToClear = (now - rate.lastUpdated) * maxRequests / timeSpan;
-            long cleared = 0;
-            while (rate.timeStamps.size() > 0 && rate.timeStamps.getLong(0) + timeSpan < now && cleared < maxTimeStampsToClear) {
-                rate.timeStamps.removeLong(0);
-                cleared++;
-            }
-
-            rate.lastUpdated = now;
-            //ALLOWED?
-            if (rate.timeStamps.size() < maxRequests) {
-                for (int i = 0; i < weight; i++)
-                    rate.timeStamps.add(now);
-                //everything is fine, get out of this method
-                return true;
-            }
+        if (isAllowed(id, weight, System.currentTimeMillis())) {
+            return true;
         }
 
         //reaching this point in the code means a rate limit was hit
@@ -137,6 +142,22 @@ public class Ratelimit {
         return false;
     }
 
+    boolean isAllowed(long id, int weight, long now) {
+        AtomicLong tat = getOrCreateTat(id, now);
+
+        while (true) {
+            long current = tat.get();
+            long base = Math.max(current, now);
+            //the request is allowed as long as there was room for one more request in the bucket
+            if (base + emissionInterval - timeSpan > now) {
+                return false;
+            }
+            if (tat.compareAndSet(current, base + (long) Math.ceil(weight * emissionInterval))) {
+                return true;
+            }
+        }
+    }
+
     /**
      * Notifies the autoblacklist that a user has hit a limit, and handles the response of the blacklist
      * Best run async as the blacklist might be hitting a database
@@ -152,48 +173,33 @@ public class Ratelimit {
         channel.sendMessage(invoker.getAsMention() + ": " + out).queue();
     }
 
+    private AtomicLong getOrCreateTat(long id, long now) {
+        AtomicLong tat = limits.get(id);
+        if (tat == null) {
+            //computeIfAbsent locks, so it is only used for ids we haven't seen lately
+            tat = limits.computeIfAbsent(id, k -> new AtomicLong(now));
+        }
+        return tat;
+    }
 
     /**
-     * synchronize the creation of new Rate objects
+     * Drops the limits of all ids whose bucket has run empty
+     * <p>
+     * A request racing with this may update a limit that has just been dropped, and get lost. That is at most one
+     * request of an id that was idle anyways.
      */
-    private synchronized Rate getOrCreateRate(long id) {
-        //was one created on the meantime? use that
-        Rate result = limits.get(id);
-        if (result != null) return result;
-
-        //create, save and return it
-        result = new Rate(id);
-        limits.put(id, result);
-        return result;
+    void expire(long now) {
+        limits.values().removeIf(tat -> tat.get() <= now);
+    }
+
+    int size() {
+        return limits.size();
     }
 
     /**
      * completely resets a limit for an id (user or guild for example)
      */
-    public synchronized void liftLimit(long id) {
+    public void liftLimit(long id) {
         limits.remove(id);
     }
-
-    class Rate {
-        //to whom this belongs
-        final long id;
-
-        //last time this object was updated
-        //useful for keeping track of how many timeStamps should be removed to ensure the limit is enforced
-        long lastUpdated;
-
-        //collects the requests
-        LongArrayList timeStamps;
-
-        private Rate(long id) {
-            this.id = id;
-            this.lastUpdated = System.currentTimeMillis();
-            this.timeStamps = new LongArrayList();
-        }
-
-        @Override
-        public int hashCode() {
-            return Long.hashCode(id);
-        }
-    }
 }
@@ -30,6 +30,7 @@ import fredboat.audio.queue.PlaylistInfo;
 import fredboat.command.maintenance.ShardsCommand;
 import fredboat.command.music.control.SkipCommand;
 import fredboat.commandmeta.abs.Command;
+import fredboat.metrics.Metrics;
 import fredboat.util.DiscordUtil;
 import fredboat.util.Tuple2;
 import net.dv8tion.jda.core.JDA;
@@ -52,6 +53,9 @@ public class Ratelimiter {
 
     private static final int RATE_LIMIT_HITS_BEFORE_BLACKLIST = 10;
 
+    private static final Metrics.Counter hits = Metrics.counter("fredboat_ratelimit_hits_total",
+            "Requests denied by a rate limit, by the limited class and scope", "limit", "scope");
+
 
     //one ratelimiter for all running shards
     private static Ratelimiter ratelimiterSingleton;
@@ -111,7 +115,10 @@ public class Ratelimiter {
                 } else {
                     allowed = ratelimit.isAllowed(invoker, weight, autoBlacklist, blacklistCallback);
                 }
-                if (!allowed) return new Tuple2<>(false, ratelimit.getClazz());
+                if (!allowed) {
+                    hits.inc(ratelimit.getClazz().getSimpleName(), ratelimit.scope.name());
+                    return new Tuple2<>(false, ratelimit.getClazz());
+                }
             }
         }
         return new Tuple2<>(true, null);
@@ -125,6 +132,16 @@ public class Ratelimiter {
         return autoBlacklist != null && autoBlacklist.isBlacklisted(id);
     }
 
+    /**
+     * Writes pending changes of the auto blacklist to the database, if the ratelimiter has been started
+     */
+    public static void flushBlacklist() {
+        Ratelimiter ratelimiter = ratelimiterSingleton;
+        if (ratelimiter != null && ratelimiter.autoBlacklist != null) {
+            ratelimiter.autoBlacklist.flush();
+        }
+    }
+
     /**
      * Reset rate limits for the given id and removes it from the blacklist
      */
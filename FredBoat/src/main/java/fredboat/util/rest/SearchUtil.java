@@ -33,11 +33,50 @@ import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Searches the providers without blocking the calling thread.
+ * <p>
+ * Only a limited number of searches run against each provider at the same time, the others wait in line. Searches that
+ * found something are cached for a while, and identical searches that are already running are joined instead of being run again. Every
+ * caller gets its own clones of the found tracks, so they can be played independently.
+ */
 public class SearchUtil {
 
     private static final AudioPlayerManager PLAYER_MANAGER = initPlayerManager();
     private static final int DEFAULT_TIMEOUT = 3000;
+    private static final int CACHE_SIZE = 1000;
+    private static final long CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "search-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //guarded by itself, same as IN_FLIGHT
+    private static final LinkedHashMap<String, CachedSearch> CACHE = new LinkedHashMap<String, CachedSearch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSearch> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final Map<String, SearchResultHandler> IN_FLIGHT = new HashMap<>();
 
     private static AudioPlayerManager initPlayerManager() {
         DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
@@ -46,22 +85,73 @@ public class SearchUtil {
         return manager;
     }
 
-    public static AudioPlaylist searchForTracks(SearchProvider provider, String query) {
+    public static CompletableFuture<AudioPlaylist> searchForTracks(SearchProvider provider, String query) {
         return searchForTracks(provider, query, DEFAULT_TIMEOUT);
     }
 
-    public static AudioPlaylist searchForTracks(SearchProvider provider, String query, int timeout) {
-        return new SearchResultHandler().searchSync(provider, query, timeout);
+    /**
+     * @return a future of the search result, which is null if nothing was found. It completes exceptionally if the
+     * search failed or took longer than the timeout in milliseconds. Time spent waiting for a free slot of the provider
+     * doesn't count.
+     */
+    public static CompletableFuture<AudioPlaylist> searchForTracks(SearchProvider provider, String query, int timeout) {
+        String key = provider.name() + ":" + query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+
+        SearchResultHandler search;
+        boolean submit = false;
+        synchronized (CACHE) {
+            CachedSearch cached = CACHE.get(key);
+            if (cached != null) {
+                if (System.currentTimeMillis() < cached.expires) {
+                    return CompletableFuture.completedFuture(clone(cached.result));
+                }
+                CACHE.remove(key);
+            }
+
+            search = IN_FLIGHT.get(key);
+            if (search == null) {
+                search = new SearchResultHandler(provider.getPrefix() + query, key);
+                IN_FLIGHT.put(key, search);
+                submit = true;
+            }
+        }
+        //this may start the search right away, which must not happen while holding the cache
+        if (submit) {
+            provider.limiter.submit(search);
+        }
+
+        CompletableFuture<AudioPlaylist> result = search.future.thenApply(SearchUtil::clone);
+        search.started.thenRun(() -> TIMEOUTS.schedule(
+                () -> result.completeExceptionally(new TimeoutException("Search took longer than " + timeout + "ms")),
+                timeout, TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    private static AudioPlaylist clone(AudioPlaylist playlist) {
+        if (playlist == null) return null;
+
+        List<AudioTrack> tracks = new ArrayList<>(playlist.getTracks().size());
+        AudioTrack selected = null;
+        for (AudioTrack track : playlist.getTracks()) {
+            AudioTrack clone = track.makeClone();
+            if (track == playlist.getSelectedTrack()) {
+                selected = clone;
+            }
+            tracks.add(clone);
+        }
+        return new BasicAudioPlaylist(playlist.getName(), tracks, selected, playlist.isSearchResult());
     }
 
     public enum SearchProvider {
-        YOUTUBE("ytsearch:"),
-        SOUNDCLOUD("scsearch:");
+        YOUTUBE("ytsearch:", 10),
+        SOUNDCLOUD("scsearch:", 5);
 
         private String prefix;
+        private final Limiter limiter;
 
-        SearchProvider(String prefix) {
+        SearchProvider(String prefix, int maxConcurrentSearches) {
             this.prefix = prefix;
+            this.limiter = new Limiter(maxConcurrentSearches);
         }
 
         public String getPrefix() {
@@ -69,60 +159,115 @@ public class SearchUtil {
         }
     }
 
+    private static class CachedSearch {
+        final AudioPlaylist result;
+        final long expires;
+
+        CachedSearch(AudioPlaylist result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Runs at most a fixed number of searches at the same time, the rest are started as running ones finish
+     */
+    private static class Limiter {
+        private final int maxConcurrent;
+        private final Queue<SearchResultHandler> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        Limiter(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        void submit(SearchResultHandler search) {
+            synchronized (this) {
+                if (running >= maxConcurrent) {
+                    waiting.add(search);
+                    return;
+                }
+                running++;
+            }
+            search.start(this);
+        }
+
+        void finished() {
+            SearchResultHandler next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            next.start(this);
+        }
+    }
 
     static class SearchResultHandler implements AudioLoadResultHandler {
 
-        Throwable throwable;
-        AudioPlaylist result;
-        final Object toBeNotified = new Object();
+        private final String identifier;
+        private final String key;
+        private final CompletableFuture<AudioPlaylist> future = new CompletableFuture<>();
+        //completes once the search leaves the line of its provider
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private Limiter limiter;
+        //guarded by the cache
+        private boolean completed = false;
 
-        AudioPlaylist searchSync(SearchProvider provider, String query, int timeout) {
+        SearchResultHandler(String identifier, String key) {
+            this.identifier = identifier;
+            this.key = key;
+        }
+
+        void start(Limiter limiter) {
+            this.limiter = limiter;
+            started.complete(null);
             try {
-                synchronized (toBeNotified) {
-                    PLAYER_MANAGER.loadItem(provider.getPrefix() + query, this);
-                    toBeNotified.wait(timeout);
-                }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Was interrupted while searching", e);
+                PLAYER_MANAGER.loadItem(identifier, this);
+            } catch (RuntimeException e) {
+                complete(null, e);
             }
+        }
 
-            if(throwable != null) {
-                throw new RuntimeException("Failed to search!", throwable);
+        private void complete(AudioPlaylist result, Throwable throwable) {
+            synchronized (CACHE) {
+                if (completed) return;
+                completed = true;
+                IN_FLIGHT.remove(key);
+                //nothing found may just be a hiccup of the provider, so only real results are cached
+                if (throwable == null && result != null) {
+                    CACHE.put(key, new CachedSearch(result, System.currentTimeMillis() + CACHE_TTL_MILLIS));
+                }
             }
+            limiter.finished();
 
-            return result;
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(result);
+            }
         }
 
         @Override
         public void trackLoaded(AudioTrack audioTrack) {
-            throwable = new UnsupportedOperationException("Can't load a single track when we are expecting a playlist!");
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
+            complete(null, new UnsupportedOperationException("Can't load a single track when we are expecting a playlist!"));
         }
 
         @Override
         public void playlistLoaded(AudioPlaylist audioPlaylist) {
-            result = audioPlaylist;
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
-
+            complete(audioPlaylist, null);
         }
 
         @Override
         public void noMatches() {
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
+            complete(null, null);
         }
 
         @Override
         public void loadFailed(FriendlyException e) {
-            throwable = e;
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
+            complete(null, e);
         }
     }
 }
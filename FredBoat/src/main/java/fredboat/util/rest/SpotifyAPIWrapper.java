@@ -40,6 +40,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -154,14 +155,32 @@ public class SpotifyAPIWrapper {
      * @return a string for each track on the requested playlist, containing track and artist names
      */
     public List<String> getPlaylistTracksSearchTermsBlocking(String userId, String playlistId) throws UnirestException, JSONException {
-        refreshTokenIfNecessary();
-
         //strings on this list will contain name of the track + names of the artists
         List<String> list = new ArrayList<>();
 
+        getPlaylistTracksSearchTermsBlocking(userId, playlistId, page -> {
+            list.addAll(page);
+            return true;
+        });
+        return list;
+    }
+
+    /**
+     * Requests the tracks of a playlist page by page. Each page is handed to the page handler before the next one is
+     * requested, so big playlists can be processed while they are still being fetched.
+     *
+     * @param userId Spotify user id of the owner of the requested playlist
+     * @param playlistId Spotify playlist identifier
+     * @param pageHandler receives the search terms of the tracks of each page, return false to stop fetching pages
+     */
+    public void getPlaylistTracksSearchTermsBlocking(String userId, String playlistId, Predicate<List<String>> pageHandler)
+            throws UnirestException, JSONException {
         JSONObject jsonPage = null;
         //get page, then collect its tracks
         do {
+            //big playlists may take a while, so check the token before each page
+            refreshTokenIfNecessary();
+
             String offset = "0";
             String limit = "100";
 
@@ -194,6 +213,7 @@ public class SpotifyAPIWrapper {
             //add tracks to our result list
             // https://developer.spotify.com/web-api/object-model/#paging-object
             JSONArray jsonTracks = jsonPage.getJSONArray("items");
+            List<String> page = new ArrayList<>(jsonTracks.length());
 
             jsonTracks.forEach((jsonPlaylistTrack) -> {
                 try {
@@ -204,14 +224,14 @@ public class SpotifyAPIWrapper {
                     track.getJSONArray("artists").forEach((jsonArtist) -> trackNameAndArtists.append(" ")
                             .append(((JSONObject) jsonArtist).getString("name")));
 
-                    list.add(trackNameAndArtists.toString());
+                    page.add(trackNameAndArtists.toString());
                 } catch (Exception e) {
                     log.warn("Could not create track from json, skipping", e);
                 }
             });
 
-        } while (jsonPage.has("next") && jsonPage.get("next") != null);
+            if (!pageHandler.test(page)) break;
 
-        return list;
+        } while (jsonPage.has("next") && jsonPage.get("next") != null);
     }
 }
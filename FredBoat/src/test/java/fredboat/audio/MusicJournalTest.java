@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads back journals written with the record format of the {@link MusicJournal}
+ */
+public class MusicJournalTest {
+
+    @Test
+    public void testLatestRecordWins() throws IOException {
+        File journal = write(
+                MusicJournal.encode(1L, 10L, new byte[]{1}),
+                MusicJournal.encode(2L, 20L, new byte[]{2}),
+                MusicJournal.encode(1L, 11L, new byte[]{3, 4}),
+                MusicJournal.encode(2L, 0L, new byte[0])
+        );
+
+        Long2ObjectMap<MusicJournal.Record> records = MusicJournal.read(journal);
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals(11L, records.get(1L).getVoiceChannelId());
+        Assertions.assertArrayEquals(new byte[]{3, 4}, records.get(1L).getSnapshot());
+    }
+
+    @Test
+    public void testTornLastRecord() throws IOException {
+        byte[] torn = MusicJournal.encode(1L, 11L, new byte[]{3, 4, 5, 6});
+        File journal = write(
+                MusicJournal.encode(1L, 10L, new byte[]{1}),
+                Arrays.copyOf(torn, torn.length - 3)
+        );
+
+        Long2ObjectMap<MusicJournal.Record> records = MusicJournal.read(journal);
+        Assertions.assertEquals(10L, records.get(1L).getVoiceChannelId());
+    }
+
+    @Test
+    public void testCorruptRecord() throws IOException {
+        byte[] corrupt = MusicJournal.encode(1L, 11L, new byte[]{3, 4, 5, 6});
+        corrupt[corrupt.length - 1] ^= 0x55;
+        File journal = write(
+                MusicJournal.encode(1L, 10L, new byte[]{1}),
+                corrupt,
+                MusicJournal.encode(2L, 20L, new byte[]{2})
+        );
+
+        //nothing after a bad record can be trusted
+        Long2ObjectMap<MusicJournal.Record> records = MusicJournal.read(journal);
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals(10L, records.get(1L).getVoiceChannelId());
+    }
+
+    private static File write(byte[]... records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            out.write(record);
+        }
+        File journal = File.createTempFile("music_journal", null);
+        journal.deleteOnExit();
+        Files.write(journal.toPath(), out.toByteArray());
+        return journal;
+    }
+
+}
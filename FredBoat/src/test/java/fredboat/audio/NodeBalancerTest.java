@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the node selection of the {@link NodeBalancer} against stand-in nodes
+ */
+public class NodeBalancerTest {
+
+    @Test
+    public void testPicksLeastLoadedNode() {
+        StandInNode busy = new StandInNode(true, 40, 0.5);
+        StandInNode idle = new StandInNode(true, 5, 0.1);
+        NodeBalancer balancer = createBalancer(busy, idle);
+
+        Assertions.assertEquals(1, balancer.select(1L).getIndex());
+    }
+
+    @Test
+    public void testSkipsOfflineAndDrainingNodes() {
+        StandInNode offline = new StandInNode(false, 0, 0);
+        StandInNode draining = new StandInNode(true, 0, 0);
+        StandInNode busy = new StandInNode(true, 100, 0.9);
+        NodeBalancer balancer = createBalancer(offline, draining, busy);
+        balancer.getNodes().get(1).setDraining(true);
+
+        Assertions.assertEquals(2, balancer.select(1L).getIndex());
+    }
+
+    @Test
+    public void testGuildAffinity() {
+        StandInNode first = new StandInNode(true, 10, 0.1);
+        StandInNode second = new StandInNode(true, 12, 0.1);
+        NodeBalancer balancer = createBalancer(first, second);
+        Assertions.assertEquals(0, balancer.select(1L).getIndex());
+
+        //slightly worse than the other node, the guild stays where it is
+        first.playing = 20;
+        Assertions.assertEquals(0, balancer.select(1L).getIndex());
+        //other guilds go to the better node
+        Assertions.assertEquals(1, balancer.select(2L).getIndex());
+
+        //a lot worse, the guild moves on
+        first.playing = 60;
+        Assertions.assertEquals(1, balancer.select(1L).getIndex());
+    }
+
+    @Test
+    public void testFrameLossCounts() {
+        StandInNode lossy = new StandInNode(true, 5, 0.1);
+        StandInNode fine = new StandInNode(true, 10, 0.1);
+        NodeBalancer balancer = createBalancer(lossy, fine);
+        Assertions.assertEquals(0, balancer.select(1L).getIndex());
+
+        //10% of the frames of our players on the first node are lost
+        balancer.updateTelemetry(new long[]{1000, 0}, new long[]{10000, 10000}, new int[]{5, 10});
+        Assertions.assertTrue(balancer.getNodes().get(0).isDegraded());
+        Assertions.assertFalse(balancer.getNodes().get(1).isDegraded());
+        Assertions.assertEquals(1, balancer.select(2L).getIndex());
+        //the guild is moved off the degraded node no matter its affinity
+        Assertions.assertEquals(1, balancer.select(1L, balancer.getNodes().get(0)).getIndex());
+    }
+
+    @Test
+    public void testFallsBackWhenNothingIsAvailable() {
+        NodeBalancer balancer = createBalancer(new StandInNode(false, 0, 0), new StandInNode(false, 0, 0));
+
+        Assertions.assertEquals(0, balancer.select(1L).getIndex());
+        Assertions.assertNull(balancer.select(1L, balancer.getNodes().get(0)));
+    }
+
+    private static NodeBalancer createBalancer(StandInNode... connections) {
+        List<NodeBalancer.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < connections.length; i++) {
+            nodes.add(new NodeBalancer.Node(i, null, connections[i]));
+        }
+        return new NodeBalancer(nodes);
+    }
+
+    private static class StandInNode implements NodeBalancer.NodeConnection {
+        boolean online;
+        int playing;
+        double cpu;
+
+        StandInNode(boolean online, int playing, double cpu) {
+            this.online = online;
+            this.playing = playing;
+            this.cpu = cpu;
+        }
+
+        @Override
+        public boolean isOnline() {
+            return online;
+        }
+
+        @Override
+        public String getState() {
+            return online ? "ONLINE" : "OFFLINE";
+        }
+
+        @Override
+        public int getPlayingTrackCount() {
+            return playing;
+        }
+
+        @Override
+        public double getCpuUsage() {
+            return cpu;
+        }
+    }
+}
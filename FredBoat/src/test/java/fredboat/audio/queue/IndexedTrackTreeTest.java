@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import net.dv8tion.jda.core.AccountType;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.User;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs random inserts, removals and lookups against the tree and a sorted list doing the same, and checks that they
+ * always agree.
+ */
+public class IndexedTrackTreeTest {
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.primary).thenComparingLong(e -> e.secondary);
+
+    private static final Member MEMBER = fakeMember();
+
+    @Test
+    public void testEmpty() {
+        IndexedTrackTree tree = new IndexedTrackTree();
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertEquals(0, tree.size());
+        Assertions.assertNull(tree.get(0));
+        Assertions.assertNull(tree.remove(1, 1));
+        Assertions.assertTrue(tree.toList().isEmpty());
+    }
+
+    @Test
+    public void testAgainstList() {
+        Random random = new Random(42);
+        IndexedTrackTree tree = new IndexedTrackTree();
+        List<Entry> model = new ArrayList<>();
+        long nextSecondary = 0;
+
+        for (int op = 0; op < 20000; op++) {
+            int action = random.nextInt(10);
+            if (action < 5 || model.isEmpty()) {
+                //few distinct primary keys, so the secondary key has to decide the order often
+                Entry entry = new Entry(random.nextInt(50), nextSecondary++, createContext());
+                tree.insert(entry.primary, entry.secondary, entry.track);
+                insertSorted(model, entry);
+            } else if (action < 8) {
+                Entry entry = model.remove(random.nextInt(model.size()));
+                Assertions.assertSame(entry.track, tree.remove(entry.primary, entry.secondary));
+            } else if (action < 9) {
+                //keys that are not in the tree
+                Assertions.assertNull(tree.remove(random.nextInt(50), nextSecondary + random.nextInt(100)));
+            } else {
+                tree.clear();
+                model.clear();
+            }
+
+            Assertions.assertEquals(model.size(), tree.size());
+            Assertions.assertEquals(model.isEmpty(), tree.isEmpty());
+            if (!model.isEmpty()) {
+                int index = random.nextInt(model.size());
+                Assertions.assertSame(model.get(index).track, tree.get(index));
+            }
+            Assertions.assertNull(tree.get(model.size()));
+            Assertions.assertNull(tree.get(-1));
+            if (op % 100 == 0) {
+                assertSameTracks(model, tree.toList());
+            }
+        }
+    }
+
+    @Test
+    public void testRanges() {
+        Random random = new Random(7);
+        IndexedTrackTree tree = new IndexedTrackTree();
+        List<Entry> model = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Entry entry = new Entry(random.nextInt(1000), i, createContext());
+            tree.insert(entry.primary, entry.secondary, entry.track);
+            insertSorted(model, entry);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(model.size());
+            int end = start + random.nextInt(model.size() - start);
+            assertSameTracks(model.subList(start, end + 1), tree.getInRange(start, end));
+        }
+        //ranges reaching past the end are cut off
+        assertSameTracks(model.subList(490, 500), tree.getInRange(490, 600));
+        Assertions.assertTrue(tree.getInRange(500, 600).isEmpty());
+    }
+
+    private static void insertSorted(List<Entry> model, Entry entry) {
+        int index = 0;
+        while (index < model.size() && ORDER.compare(model.get(index), entry) < 0) {
+            index++;
+        }
+        model.add(index, entry);
+    }
+
+    private static void assertSameTracks(List<Entry> expected, List<AudioTrackContext> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertSame(expected.get(i).track, actual.get(i));
+        }
+    }
+
+    private static AudioTrackContext createContext() {
+        AudioTrackInfo info = new AudioTrackInfo("title", "author", 180000, "identifier", false, "uri");
+        return new AudioTrackContext(new YoutubeAudioTrack(info, null), MEMBER);
+    }
+
+    /**
+     * Just enough of a member to create track contexts, without a live JDA
+     */
+    private static Member fakeMember() {
+        JDA jda = fake(JDA.class, "getAccountType", AccountType.CLIENT);
+        User user = fake(User.class, "getIdLong", 1L);
+        Guild guild = fake(Guild.class, "getIdLong", 2L);
+        return (Member) Proxy.newProxyInstance(Member.class.getClassLoader(), new Class[]{Member.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUser":
+                    return user;
+                case "getGuild":
+                    return guild;
+                case "getJDA":
+                    return jda;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> type, String methodName, Object result) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            if (method.getName().equals(methodName)) {
+                return result;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static class Entry {
+        final long primary;
+        final long secondary;
+        final AudioTrackContext track;
+
+        Entry(long primary, long secondary, AudioTrackContext track) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.track = track;
+        }
+    }
+
+}
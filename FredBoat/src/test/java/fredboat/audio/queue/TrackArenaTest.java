@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that tracks survive the round trip through the TrackArena, and that the arena gives back all of its memory
+ * once every blob has been released.
+ */
+public class TrackArenaTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        AudioPlayerManager manager = new DefaultAudioPlayerManager();
+        manager.registerSourceManager(new YoutubeAudioSourceManager());
+        TrackArena arena = new TrackArena(CHUNK_SIZE);
+
+        AudioTrack track = createTrack(manager.source(YoutubeAudioSourceManager.class), 42);
+        TrackArena.Blob blob = arena.store(encode(manager, track));
+        AudioTrack decoded = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(blob.read()))).decodedTrack;
+
+        Assertions.assertEquals(track.getIdentifier(), decoded.getIdentifier());
+        Assertions.assertEquals(track.getInfo().title, decoded.getInfo().title);
+        Assertions.assertEquals(track.getDuration(), decoded.getDuration());
+
+        blob.release();
+        assertDrained(arena);
+        Assertions.assertThrows(IllegalStateException.class, blob::read);
+    }
+
+    @Test
+    public void testCounters() {
+        TrackArena arena = new TrackArena(CHUNK_SIZE);
+        Random random = new Random(42);
+
+        List<TrackArena.Blob> blobs = new ArrayList<>();
+        long used = 0;
+        for (int i = 0; i < 1000; i++) {
+            //every now and then a blob that needs a chunk of its own
+            byte[] data = new byte[i % 100 == 0 ? CHUNK_SIZE * 2 : 1 + random.nextInt(200)];
+            blobs.add(arena.store(data));
+            used += data.length;
+        }
+        Assertions.assertEquals(1000, arena.getBlobCount());
+        Assertions.assertEquals(used, arena.getUsedBytes());
+        Assertions.assertTrue(arena.getReservedBytes() >= used);
+
+        //tracks leave the queue in any order
+        Collections.shuffle(blobs, random);
+        for (TrackArena.Blob blob : blobs) {
+            blob.release();
+            //releasing twice must not be counted twice
+            blob.release();
+        }
+        assertDrained(arena);
+
+        //the arena keeps working after it has been drained
+        TrackArena.Blob blob = arena.store(new byte[]{1, 2, 3});
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, blob.read());
+        Assertions.assertEquals(CHUNK_SIZE, arena.getReservedBytes());
+        blob.release();
+        assertDrained(arena);
+    }
+
+    private static void assertDrained(TrackArena arena) {
+        Assertions.assertEquals(0, arena.getBlobCount());
+        Assertions.assertEquals(0, arena.getUsedBytes());
+        Assertions.assertEquals(0, arena.getReservedBytes());
+    }
+
+    private static AudioTrack createTrack(YoutubeAudioSourceManager source, int i) {
+        String identifier = String.format("track%06d", i);
+        AudioTrackInfo info = new AudioTrackInfo("Some track title number " + i, "Some uploader " + i,
+                180000 + i, identifier, false, "https://www.youtube.com/watch?v=" + identifier);
+        return new YoutubeAudioTrack(info, source);
+    }
+
+    private static byte[] encode(AudioPlayerManager manager, AudioTrack track) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        manager.encodeTrack(new MessageOutput(baos), track);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.commandmeta;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CommandParserTest {
+
+    @Test
+    public void testArguments() {
+        assertArgs("<<play song", "<<play", "song");
+        assertArgs("  <<play   two  words ", "<<play", "two", "words");
+        assertArgs("<<play \"two words\" x", "<<play", "two words", "x");
+        assertArgs("<<say a\"b c\"d", "<<say", "ab cd");
+        assertArgs("<<say \"\" a", "<<say", "a");
+        assertArgs("<<say \"unclosed quote", "<<say", "unclosed quote");
+        assertArgs("");
+    }
+
+    @Test
+    public void testArgumentViews() {
+        CommandParser.Arguments args = CommandParser.parse("<<play \"two words\" x");
+        Assertions.assertEquals(3, args.size());
+        Assertions.assertEquals("two words", args.get(1).toString());
+        Assertions.assertEquals("x", args.get(2).toString());
+    }
+
+    @Test
+    public void testArgumentsAfterPrefix() {
+        String message = "<@1234> play song";
+        int start = CommandParser.findNameStart(message, PrefixCache.matchMention(message, 1234L));
+        Assertions.assertArrayEquals(new String[]{"play", "song"}, CommandParser.parse(message, start).toArray());
+    }
+
+    @Test
+    public void testMentionPrefix() {
+        Assertions.assertEquals(7, PrefixCache.matchMention("<@1234> play", 1234L));
+        Assertions.assertEquals(8, PrefixCache.matchMention("<@!1234>play", 1234L));
+        Assertions.assertEquals(-1, PrefixCache.matchMention("<@4321> play", 1234L));
+        Assertions.assertEquals(-1, PrefixCache.matchMention("<@1234 play", 1234L));
+        Assertions.assertEquals(-1, PrefixCache.matchMention("<@!> play", 1234L));
+        Assertions.assertEquals(-1, PrefixCache.matchMention("<<play", 1234L));
+    }
+
+    @Test
+    public void testTrieLookup() {
+        CommandTrie trie = new CommandTrie();
+        CommandRegistry.CommandEntry play = new CommandRegistry.CommandEntry(null, "play");
+        CommandRegistry.CommandEntry playlist = new CommandRegistry.CommandEntry(null, "playlist");
+        trie.put("play", play);
+        trie.put("p", play);
+        trie.put("playlist", playlist);
+
+        String message = "<<PLAYLIST now";
+        Assertions.assertSame(playlist, trie.get(message, 2, 10));
+        Assertions.assertSame(play, trie.get(message, 2, 6));
+        Assertions.assertSame(play, trie.get("p", 0, 1));
+        Assertions.assertNull(trie.get(message, 2, 5));
+        Assertions.assertNull(trie.get("playlists", 0, 9));
+    }
+
+    private static void assertArgs(String message, String... expected) {
+        Assertions.assertArrayEquals(expected, CommandParser.parse(message).toArray());
+    }
+
+}
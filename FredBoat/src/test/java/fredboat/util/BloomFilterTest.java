@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000);
+        long id = 100000000000000000L;
+        for (int i = 0; i < 10000; i++) {
+            filter.add(id + i * 4194304L);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assertions.assertTrue(filter.mightContain(id + i * 4194304L));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000);
+        for (long i = 0; i < 10000; i++) {
+            filter.add(i);
+        }
+        int falsePositives = 0;
+        for (long i = 10000; i < 110000; i++) {
+            if (filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        //sized for about 1%
+        Assertions.assertTrue(falsePositives < 2000, falsePositives + " false positives");
+    }
+
+    @Test
+    public void testEmpty() {
+        BloomFilter filter = new BloomFilter(0);
+        Assertions.assertFalse(filter.mightContain(0));
+        Assertions.assertFalse(filter.mightContain(123456789L));
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testSmallCardinality() {
+        HyperLogLog hll = new HyperLogLog();
+        for (long i = 0; i < 1000; i++) {
+            hll.add(i);
+            hll.add(i); //duplicates don't count
+        }
+        Assertions.assertEquals(1000, hll.estimate(), 20);
+    }
+
+    @Test
+    public void testLargeCardinality() {
+        HyperLogLog hll = new HyperLogLog();
+        //ids that look like discord snowflakes
+        long id = 100000000000000000L;
+        for (int i = 0; i < 1000000; i++) {
+            hll.add(id);
+            id += 4194304 + i % 7;
+        }
+        //a few times the standard error
+        Assertions.assertEquals(1000000, hll.estimate(), 30000);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package fredboat.util.ratelimit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RatelimitTest {
+
+    @Test
+    public void testBurstAndRefill() {
+        Ratelimit ratelimit = new Ratelimit(Collections.emptySet(), Ratelimit.Scope.USER, 5, 10000, Object.class);
+        long now = 1000000;
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(ratelimit.isAllowed(1L, 1, now));
+        }
+        Assertions.assertFalse(ratelimit.isAllowed(1L, 1, now));
+        //other ids have their own limit
+        Assertions.assertTrue(ratelimit.isAllowed(2L, 1, now));
+
+        //one request drains every 2 seconds
+        Assertions.assertFalse(ratelimit.isAllowed(1L, 1, now + 1999));
+        Assertions.assertTrue(ratelimit.isAllowed(1L, 1, now + 2000));
+        Assertions.assertFalse(ratelimit.isAllowed(1L, 1, now + 2000));
+    }
+
+    @Test
+    public void testWeight() {
+        Ratelimit ratelimit = new Ratelimit(Collections.emptySet(), Ratelimit.Scope.GUILD, 1000, 120000, Object.class);
+        long now = 1000000;
+        //a single heavy request may overstep the limit, but has to be paid off before the next one
+        Assertions.assertTrue(ratelimit.isAllowed(1L, 1500, now));
+        Assertions.assertFalse(ratelimit.isAllowed(1L, 1, now + 60000));
+        Assertions.assertTrue(ratelimit.isAllowed(1L, 1, now + 60120));
+    }
+
+    @Test
+    public void testExpiry() {
+        Ratelimit ratelimit = new Ratelimit(Collections.emptySet(), Ratelimit.Scope.USER, 5, 10000, Object.class);
+        long now = 1000000;
+        ratelimit.isAllowed(1L, 1, now);
+        ratelimit.isAllowed(2L, 5, now);
+
+        ratelimit.expire(now + 2000);
+        Assertions.assertEquals(1, ratelimit.size());
+        ratelimit.expire(now + 10000);
+        Assertions.assertEquals(0, ratelimit.size());
+    }
+
+    @Test
+    public void testContention() throws InterruptedException {
+        Ratelimit ratelimit = new Ratelimit(Collections.emptySet(), Ratelimit.Scope.USER, 100, 1000000, Object.class);
+        long now = 1000000;
+        int threads = 8;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        if (ratelimit.isAllowed(1L, 1, now)) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        //no matter how the threads interleave, exactly the burst gets through
+        Assertions.assertEquals(100, allowed.get());
+    }
+
+}